@@ -1,8 +1,11 @@
 package physics;
+import physics.shapes.Compound;
 import physics.shapes.Polygon;
 import tools.Point;
 public class AirFriction implements java.io.Serializable {
 	World world;
+	// Projection interval, reused for every body
+	private Point interval = new Point();
 	public AirFriction(World world) {
 		this.world = world;
 	}
@@ -20,16 +23,9 @@ public class AirFriction implements java.io.Serializable {
 		}
 	}
 	private float getProjectedArea(Body b, Point normal) {
-		if (b.shape instanceof Polygon) {
-			float maxP = Float.NEGATIVE_INFINITY, minP = Float.POSITIVE_INFINITY;
-			for (Point p : ((Polygon) b.shape).points) {
-				float k = p.mul(normal);
-				if (k > maxP)
-					maxP = k;
-				if (k < minP)
-					minP = k;
-			}
-			return maxP - minP;
+		if (b.shape instanceof Polygon || b.shape instanceof Compound) {
+			b.shape.project(normal, interval);
+			return interval.y - interval.x;
 		}
 		return 0.0f;
 	}
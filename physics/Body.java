@@ -22,6 +22,10 @@ public class Body implements Serializable, IdObject {
 	public float inertia, invinertia;
 	// Shape dependent variables
 	public Shape shape;
+	// Bounding box of the shape in world coordinates. Written by the shape in
+	// every update.
+	public float minX, minY, maxX, maxY;
+	// Largest distance of the bounding box from pos along x and y
 	public float width, height;
 	// Cosinus and sinus for faster calculation of rotation
 	public float cosa, sina;
@@ -31,14 +35,20 @@ public class Body implements Serializable, IdObject {
 	public transient Vector<Pair> pairs;
 	public int indexInWorld;
 	public int id = IdObject.DEFAULTID;
-	public int delIdStartX, delIdEndX, delIdStartY, delIdEndY;
+	// Handle of the body in the broadphase (leaf in an AABBTree, slot in
+	// SweepAndPrune)
+	public int proxyId = -1;
 	// List of body-ids with whom this body doesn't collide.
 	public Vector<Integer> nonCollidingBodies;
 	// This is a flag. Some physics-relevant methods use it for faster
 	// calculations and they share the same flag so it doesn't mess up the body
 	// class too much.
-	// (See CollisionGrouping, Broadphase)
+	// (See CollisionGrouping)
 	public boolean flag;
+	// Index of the collision group of the body in CollisionGrouping.groups.
+	// Only set for bodies that are not static, since those can be in several
+	// groups.
+	public int group;
 	// Collision grouping and some other parts of the physics engine need to
 	// keep track of all bodies that this body is connected to in some ways
 	// (joints, contacts)
@@ -74,8 +84,7 @@ public class Body implements Serializable, IdObject {
 		cosa = Floatmath.cos(apos);
 		sina = Floatmath.sin(apos);
 		biasVel = new Point();
-		width = s.getWidth();
-		height = s.getHeight();
+		updateShape();
 		pairs = new Vector<Pair>();
 		connections = new Vector<Connection>();
 		nonCollidingBodies = new Vector<Integer>();
@@ -132,18 +141,24 @@ public class Body implements Serializable, IdObject {
 		apos += avel * dt;
 	}
 	public void update(float dt) {
-		shape.pos = pos; // GOD. DAMN.
-		cosa = Floatmath.cos(apos);
-		sina = Floatmath.sin(apos);
 		acc = new Point();
 		aacc = 0.0f;
-		shape.update();
+		updateShape();
 		biasVel.x = 0;
 		biasVel.y = 0;
-		width = shape.getWidth();
-		height = shape.getHeight();
 		unAcceleratedTime += PhysicalConstants.DT;
 	}
+	/**
+	 * Moves the shape to the current position and rotation of the body and recalculates the bounding box (minX, minY, maxX, maxY, width, height). Happens in every update, but has to be called if the position is changed from outside and the shape or the bounds are needed before the next update.
+	 */
+	public void updateShape() {
+		shape.pos = pos; // GOD. DAMN.
+		cosa = Floatmath.cos(apos);
+		sina = Floatmath.sin(apos);
+		shape.update();
+		width = Math.max(maxX - pos.x, pos.x - minX);
+		height = Math.max(maxY - pos.y, pos.y - minY);
+	}
 	public Point getVel(Point p) {
 		return new Point((pos.y - p.y) * avel + vel.x, -(pos.x - p.x) * avel + vel.y);
 	}
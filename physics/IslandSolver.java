@@ -0,0 +1,242 @@
+package physics;
+import java.util.Vector;
+
+import physics.collision.Arbiter;
+import physics.joints.Joint;
+import physics.joints.TwoBodyJoint;
+import physics.sleeping.ColGroup;
+import physics.sleeping.CollisionGrouping;
+import tools.Parallel;
+/**
+ * Solves the constraints and integrates the positions island by island. The islands are the collision groups that the sleeping system computes anyway (see CollisionGrouping): constraints of different islands never act on the same dynamic body, so the islands can be solved on different threads without any synchronisation. Several small islands are put into one task so that scenes with a lot of small piles do not create a task per pile.
+ *
+ * Within an island the constraints are solved in the same order as by the serial solver (arbiters first, then joints, both in the order of the world), and every body only gets impulses from the constraints of its own island, so the result is exactly the same as the serial one. Static bodies are read by the contacts of many islands, so they are only moved after all islands have been solved, just like the serial solver integrates after solving everything. Islands with more than LARGEISLAND constraints would keep one thread busy while the others wait, they are solved one after another by the ParallelSolver instead, which splits them further by coloring. Their result is not bit identical to the serial solver.
+ *
+ * @author toni
+ *
+ */
+public class IslandSolver {
+	// Islands with more constraints are colored and solved by the
+	// ParallelSolver
+	public static final int LARGEISLAND = 2048;
+	// Minimum number of constraints and bodies per task
+	public static final int ISLANDCHUNK = 256;
+	private World world;
+	private ParallelSolver largeIslandSolver;
+	// Constraints sorted by island, islandStart[i] is the first constraint of
+	// island i, the constraints without a dynamic body come last
+	private Joint[] constraints = new Joint[0];
+	private int numConstraints;
+	private int[] islandStart = new int[0];
+	private int numIslands;
+	// First island of every task, taskStart[numTasks] = number of small
+	// islands
+	private int[] smallIslands = new int[0], taskStart = new int[0];
+	private int numSmallIslands, numTasks;
+	private int numLargeIslands;
+	// Iterations done for every island in the last step
+	private int[] iterations = new int[0];
+	private int mostIterations;
+	private Vector<ColGroup> groups;
+	public IslandSolver(World w) {
+		world = w;
+		largeIslandSolver = new ParallelSolver(w);
+	}
+	/**
+	 * Runs preSolve and solve for all arbiters and joints of the world and integrates the positions of all bodies that are awake. Every island stops iterating on its own once no impulse of the island changes by more than tolerance (after at least minIterations and at most maxIterations rounds). The groups have to be computed for the current connections.
+	 */
+	public void step(Vector<Arbiter> arbiters, CollisionGrouping grouping, final int minIterations, final int maxIterations, final float tolerance, final float dt) {
+		groups = grouping.groups;
+		sortByIsland(arbiters);
+		planTasks();
+		Parallel.forChunks(numTasks, (first, last) -> {
+			for (int t = first; t < last; t++) {
+				for (int i = taskStart[t]; i < taskStart[t + 1]; i++) {
+					solveIsland(smallIslands[i], minIterations, maxIterations, tolerance, dt);
+				}
+			}
+		});
+		for (int i = 0; i < numIslands; i++) {
+			if (isLarge(i)) {
+				iterations[i] = largeIslandSolver.solve(constraints, islandStart[i], islandStart[i + 1], minIterations, maxIterations, tolerance);
+				final ColGroup group = groups.get(i);
+				Parallel.forRange(group.size(), ISLANDCHUNK, (first, last) -> integratePositions(group, first, last, dt));
+			}
+		}
+		// Joints whose bodies are all static (which should not exist)
+		iterations[numIslands] = solve(islandStart[numIslands], numConstraints, minIterations, maxIterations, tolerance);
+		integrateStatic(dt);
+		mostIterations = 0;
+		for (int i = 0; i <= numIslands; i++) {
+			mostIterations = Math.max(mostIterations, iterations[i]);
+		}
+		for (int i = 0; i < numConstraints; i++) {
+			constraints[i] = null;
+		}
+		groups = null;
+	}
+	private boolean isLarge(int island) {
+		return islandStart[island + 1] - islandStart[island] > LARGEISLAND;
+	}
+	/**
+	 * Counting sort of the arbiters and joints by the island of their dynamic body. Keeps the order of the world within every island.
+	 */
+	private void sortByIsland(Vector<Arbiter> arbiters) {
+		numIslands = groups.size();
+		int n = arbiters.size() + world.numJoints;
+		if (constraints.length < n) {
+			constraints = new Joint[2 * n];
+		}
+		if (islandStart.length < numIslands + 2) {
+			islandStart = new int[2 * numIslands + 2];
+			iterations = new int[2 * numIslands + 2];
+		}
+		for (int i = 0; i < numIslands + 2; i++) {
+			islandStart[i] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			islandStart[island(constraint(arbiters, i)) + 1]++;
+		}
+		for (int i = 0; i <= numIslands; i++) {
+			islandStart[i + 1] += islandStart[i];
+		}
+		// islandStart[i] runs along as the insertion point
+		for (int i = 0; i < n; i++) {
+			Joint j = constraint(arbiters, i);
+			constraints[islandStart[island(j)]++] = j;
+		}
+		for (int i = numIslands; i > 0; i--) {
+			islandStart[i] = islandStart[i - 1];
+		}
+		islandStart[0] = 0;
+		numConstraints = n;
+	}
+	private Joint constraint(Vector<Arbiter> arbiters, int i) {
+		return (i < arbiters.size()) ? arbiters.get(i) : world.getJoint(i - arbiters.size());
+	}
+	/**
+	 * The island of the dynamic body of the joint, numIslands if both bodies are static.
+	 */
+	private int island(Joint j) {
+		if (!j.b1.isStatic()) {
+			return j.b1.group;
+		}
+		if (j instanceof TwoBodyJoint && !((TwoBodyJoint) j).b2.isStatic()) {
+			return ((TwoBodyJoint) j).b2.group;
+		}
+		return numIslands;
+	}
+	/**
+	 * Puts the small islands into tasks of at least ISLANDCHUNK constraints and bodies.
+	 */
+	private void planTasks() {
+		if (smallIslands.length < numIslands) {
+			smallIslands = new int[2 * numIslands];
+			taskStart = new int[2 * numIslands + 1];
+		}
+		numSmallIslands = 0;
+		numLargeIslands = 0;
+		numTasks = 0;
+		int size = 0;
+		for (int i = 0; i < numIslands; i++) {
+			if (isLarge(i)) {
+				numLargeIslands++;
+				continue;
+			}
+			if (size == 0) {
+				taskStart[numTasks++] = numSmallIslands;
+			}
+			smallIslands[numSmallIslands++] = i;
+			size += islandStart[i + 1] - islandStart[i] + groups.get(i).size();
+			if (size >= ISLANDCHUNK) {
+				size = 0;
+			}
+		}
+		taskStart[numTasks] = numSmallIslands;
+	}
+	private void solveIsland(int island, int minIterations, int maxIterations, float tolerance, float dt) {
+		iterations[island] = solve(islandStart[island], islandStart[island + 1], minIterations, maxIterations, tolerance);
+		ColGroup group = groups.get(island);
+		integratePositions(group, 0, group.size(), dt);
+	}
+	/**
+	 * Same as the serial solver in World for the constraints [start, end). Returns the number of iterations, 0 for an island without constraints.
+	 */
+	private int solve(int start, int end, int minIterations, int maxIterations, float tolerance) {
+		if (start == end) {
+			return 0;
+		}
+		for (int i = start; i < end; i++) {
+			if (!constraints[i].sleeps()) {
+				constraints[i].preSolve();
+			}
+		}
+		int k = 0;
+		while (k < maxIterations) {
+			float delta = 0.0f;
+			for (int i = start; i < end; i++) {
+				constraints[i].solve();
+				delta = Math.max(delta, constraints[i].delta);
+			}
+			k++;
+			if (k >= minIterations && delta < tolerance) {
+				break;
+			}
+		}
+		return k;
+	}
+	/**
+	 * Integrates the dynamic bodies of the group. Static bodies are left to integrateStatic.
+	 */
+	private void integratePositions(ColGroup group, int start, int end, float dt) {
+		Body b;
+		for (int i = start; i < end; i++) {
+			b = group.get(i);
+			if (!b.sleeps && !b.isStatic()) {
+				b.integratePositions(dt);
+			}
+		}
+	}
+	/**
+	 * Integrates the static bodies (which can have a velocity, moving platforms for example) once every island is solved. Every static body is its own island, but the contacts of other islands read its position, so it must not move while they are solved.
+	 */
+	private void integrateStatic(float dt) {
+		Body b;
+		for (int i = 0; i < world.numBodies; i++) {
+			b = world.getBody(i);
+			if (!b.sleeps && b.isStatic()) {
+				b.integratePositions(dt);
+			}
+		}
+	}
+	/**
+	 * Number of iterations that were done for the island (the collision group with the same index) in the last frame.
+	 */
+	public int getIterations(int island) {
+		return iterations[island];
+	}
+	/**
+	 * Largest number of iterations of any island in the last frame.
+	 */
+	public int getMaxIterations() {
+		return mostIterations;
+	}
+	/**
+	 * Number of islands in the last frame.
+	 */
+	public int getNumIslands() {
+		return numIslands;
+	}
+	/**
+	 * Number of islands in the last frame that were too large for one thread and were solved by the ParallelSolver.
+	 */
+	public int getNumLargeIslands() {
+		return numLargeIslands;
+	}
+	/**
+	 * Number of tasks the small islands of the last frame were put into.
+	 */
+	public int getNumTasks() {
+		return numTasks;
+	}
+}
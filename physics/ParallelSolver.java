@@ -0,0 +1,201 @@
+package physics;
+import java.util.Vector;
+
+import physics.collision.Arbiter;
+import physics.joints.Joint;
+import physics.joints.TwoBodyJoint;
+import tools.Parallel;
+/**
+ * Solves the arbiters and joints on several threads. Two constraints that act on the same body can not be solved at the same time, so the constraints are colored first: every constraint gets the lowest color that no other constraint of its bodies has yet (greedy coloring). Static bodies are never changed by the solver, so they do not count - a floor that touches a thousand bodies does not force a thousand colors. All constraints of one color are then solved in parallel, the colors one after another, in every iteration.
+ *
+ * The colors are tracked as a bit mask per body, so there are at most MAXCOLORS colors. Constraints that do not fit into any of them (only happens if a body has more than MAXCOLORS constraints) are put into an extra batch that is solved on one thread after the colors. The coloring is done again every frame, its cost is linear in the number of constraints.
+ *
+ * Within one color the order does not matter, but the colors change the order in which the constraints are solved compared to the serial solver, so the results are not bit identical (they converge to the same solution).
+ *
+ * @author toni
+ *
+ */
+public class ParallelSolver {
+	// Number of colors that fit into the bit mask of a body
+	public static final int MAXCOLORS = 64;
+	// Minimum number of constraints per task
+	public static final int SOLVERCHUNK = 128;
+	private World world;
+	// Constraints sorted by color, colorStart[c] is the first constraint of
+	// color c, the extra batch is color MAXCOLORS
+	private Joint[] constraints = new Joint[0];
+	private int numConstraints;
+	private int[] colorStart = new int[MAXCOLORS + 2];
+	private int numColors;
+	// Scratch space: the constraints of the world, color of each constraint
+	// and colors used by each body
+	private Joint[] input = new Joint[0];
+	private int[] colorOf = new int[0];
+	private long[] usedColors = new long[0];
+	public ParallelSolver(World w) {
+		world = w;
+	}
+	/**
+	 * Runs preSolve and solve for all arbiters and joints of the world, see solve(Joint[], int, int, int, int, float).
+	 */
+	public int solve(Vector<Arbiter> arbiters, int minIterations, int maxIterations, float tolerance) {
+		int n = arbiters.size() + world.numJoints;
+		if (input.length < n) {
+			input = new Joint[2 * n];
+		}
+		for (int i = 0; i < arbiters.size(); i++) {
+			input[i] = arbiters.get(i);
+		}
+		for (int i = 0; i < world.numJoints; i++) {
+			input[arbiters.size() + i] = world.getJoint(i);
+		}
+		int iterations = solve(input, 0, n, minIterations, maxIterations, tolerance);
+		for (int i = 0; i < n; i++) {
+			input[i] = null;
+		}
+		return iterations;
+	}
+	/**
+	 * Runs preSolve and at least minIterations and at most maxIterations rounds of solve for the constraints [start, end) of list. Stops as soon as no impulse changed by more than tolerance in a round. Returns the number of rounds. Used by the IslandSolver for islands that are too large for one thread.
+	 */
+	public int solve(Joint[] list, int start, int end, int minIterations, int maxIterations, float tolerance) {
+		color(list, start, end);
+		for (int c = 0; c <= MAXCOLORS; c++) {
+			if (colorStart[c] == colorStart[c + 1]) {
+				continue;
+			}
+			if (c == MAXCOLORS) {
+				preSolve(colorStart[c], colorStart[c + 1]);
+				continue;
+			}
+			final int first = colorStart[c];
+			Parallel.forRange(colorStart[c + 1] - first, SOLVERCHUNK, (from, to) -> preSolve(first + from, first + to));
+		}
+		int i = 0;
+		while (i < maxIterations) {
+			for (int c = 0; c < numColors; c++) {
+				final int first = colorStart[c];
+				Parallel.forRange(colorStart[c + 1] - first, SOLVERCHUNK, (from, to) -> solve(first + from, first + to));
+			}
+			solve(colorStart[MAXCOLORS], colorStart[MAXCOLORS + 1]);
+			i++;
+			// The deltas are only collected if the solver may stop early
+			if (i >= minIterations && tolerance > 0.0f && maxDelta() < tolerance) {
+				break;
+			}
+		}
+		clearColors();
+		return i;
+	}
+	private float maxDelta() {
+		float delta = 0.0f;
+		for (int i = 0; i < numConstraints; i++) {
+			delta = Math.max(delta, constraints[i].delta);
+		}
+		return delta;
+	}
+	private void preSolve(int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (!constraints[i].sleeps()) {
+				constraints[i].preSolve();
+			}
+		}
+	}
+	private void solve(int start, int end) {
+		for (int i = start; i < end; i++) {
+			constraints[i].solve();
+		}
+	}
+	/**
+	 * Greedy coloring of the constraints [start, end) of list. Afterwards constraints holds all of them sorted by color.
+	 */
+	private void color(Joint[] list, int start, int end) {
+		int n = end - start;
+		if (colorOf.length < n) {
+			colorOf = new int[2 * n];
+			constraints = new Joint[2 * n];
+		}
+		if (usedColors.length < world.numBodies) {
+			usedColors = new long[2 * world.numBodies];
+		}
+		for (int c = 0; c < colorStart.length; c++) {
+			colorStart[c] = 0;
+		}
+		numColors = 0;
+		for (int i = 0; i < n; i++) {
+			int color = color(list[start + i]);
+			colorOf[i] = color;
+			colorStart[color + 1]++;
+			if (color < MAXCOLORS) {
+				numColors = Math.max(numColors, color + 1);
+			}
+		}
+		for (int c = 0; c <= MAXCOLORS; c++) {
+			colorStart[c + 1] += colorStart[c];
+		}
+		// Sort by color, colorStart[c] runs along as the insertion point
+		for (int i = 0; i < n; i++) {
+			constraints[colorStart[colorOf[i]]++] = list[start + i];
+		}
+		for (int c = MAXCOLORS; c > 0; c--) {
+			colorStart[c] = colorStart[c - 1];
+		}
+		colorStart[0] = 0;
+		for (int i = n; i < numConstraints; i++) {
+			constraints[i] = null;
+		}
+		numConstraints = n;
+	}
+	/**
+	 * Resets the color masks of all bodies that were touched by the last coloring, so the next coloring does not have to clear the masks of every body in the world.
+	 */
+	private void clearColors() {
+		for (int i = 0; i < numConstraints; i++) {
+			Joint j = constraints[i];
+			usedColors[j.b1.indexInWorld] = 0L;
+			if (j instanceof TwoBodyJoint) {
+				usedColors[((TwoBodyJoint) j).b2.indexInWorld] = 0L;
+			}
+		}
+	}
+	/**
+	 * Returns the lowest color that is free for all dynamic bodies of the joint and marks it as used. Returns MAXCOLORS if there is none.
+	 */
+	private int color(Joint j) {
+		long used = 0L;
+		Body b1 = j.b1, b2 = null;
+		if (!b1.isStatic()) {
+			used |= usedColors[b1.indexInWorld];
+		}
+		if (j instanceof TwoBodyJoint) {
+			b2 = ((TwoBodyJoint) j).b2;
+			if (!b2.isStatic()) {
+				used |= usedColors[b2.indexInWorld];
+			}
+		}
+		if (used == -1L) {
+			return MAXCOLORS;
+		}
+		int color = Long.numberOfTrailingZeros(~used);
+		long bit = 1L << color;
+		if (!b1.isStatic()) {
+			usedColors[b1.indexInWorld] |= bit;
+		}
+		if (b2 != null && !b2.isStatic()) {
+			usedColors[b2.indexInWorld] |= bit;
+		}
+		return color;
+	}
+	/**
+	 * Number of colors in the last frame (without the extra batch).
+	 */
+	public int getNumColors() {
+		return numColors;
+	}
+	/**
+	 * Number of constraints in the last frame that did not get a color and were solved on one thread.
+	 */
+	public int getNumUncolored() {
+		return colorStart[MAXCOLORS + 1] - colorStart[MAXCOLORS];
+	}
+}
@@ -1,7 +1,5 @@
 package physics;
 import java.util.Vector;
-import physics.shapes.Circle;
-import physics.shapes.Polygon;
 import tools.Log;
 import tools.Point;
 /**
@@ -110,25 +108,9 @@ public class Wind {
 		return interval.y - interval.x;
 	}
 	private Point getInterval(Body b, Point normal) {
-		if (b.shape instanceof Polygon) {
-			Polygon poly = ((Polygon) b.shape);
-			float maxP = Float.NEGATIVE_INFINITY, minP = Float.POSITIVE_INFINITY;
-			for (Point p : poly.points) {
-				float k = p.mul(normal);
-				if (k > maxP)
-					maxP = k;
-				if (k < minP)
-					minP = k;
-			}
-			return new Point(minP, maxP);
-		}
-		else if (b.shape instanceof Circle) {
-			Circle circle = (Circle) b.shape;
-			float k = circle.pos.mul(normal);
-			return new Point(k - circle.radius, k + circle.radius);
-		}
-		assert (false);
-		return new Point();
+		Point interval = new Point();
+		b.shape.project(normal, interval);
+		return interval;
 	}
 	private Vector<Body> getSortedBodies() {
 		Vector<Body> unsorted = new Vector<Body>();
@@ -1,9 +1,13 @@
 package physics;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Vector;
 
 import physics.collision.Arbiter;
+import physics.collision.ArbiterCache;
+import physics.collision.Broadphase;
 import physics.collision.CollisionHandler;
+import physics.collision.ContactSolver;
 import physics.collision.Pair;
 import physics.effects.Effect;
 import physics.joints.JDistanceJoint;
@@ -11,6 +15,7 @@ import physics.joints.Joint;
 import physics.joints.TwoBodyJoint;
 import physics.sleeping.Connection;
 import physics.sleeping.SleepingSystem;
+import tools.Parallel;
 import tools.Point;
 import tools.Statistics;
 import tools.id.IdSystem;
@@ -30,6 +35,15 @@ public class World implements Serializable {
 	// higher numbers increase accuracy and stability but will lead to slower
 	// calculations.
 	private static final int SOLVEITERATIONS = 25;
+	// The solver may stop before the maximum number of iterations once no
+	// impulse changes by more than the tolerance, but not before the minimum
+	// number of iterations. A tolerance of 0 always does all iterations.
+	public static final int MINSOLVEITERATIONS = 4;
+	private float solveTolerance = 0.0f;
+	private int minSolveIterations = MINSOLVEITERATIONS;
+	private int maxSolveIterations = SOLVEITERATIONS;
+	// Number of iterations the solver did in the last step
+	private int solveIterations;
 	// The position-correction factor. Should be around [0.05, 0.2].
 	public static final float BIAS = 0.1f;
 	// The distance that two bodies can penetrate each other without the contact
@@ -48,6 +62,23 @@ public class World implements Serializable {
 	public int numBodies;
 	public int numJoints;
 	private transient CollisionHandler collisions;
+	// The broadphase algorithm, one of CollisionHandler.SWEEPANDPRUNE,
+	// CollisionHandler.AABBTREE, CollisionHandler.SPATIALHASH
+	private int broadphaseType;
+	private boolean parallelBroadphase;
+	private boolean parallelNarrowphase;
+	// Solves the constraints on several threads, null if the serial solver is
+	// used
+	private transient ParallelSolver parallelSolver;
+	private boolean parallelSolve;
+	// Solves the constraints island by island on several threads, null if not
+	// used
+	private transient IslandSolver islandSolver;
+	private boolean islandSolve;
+	// Solves the contacts on packed arrays, null if the contacts are solved
+	// by the arbiters themselves
+	private transient ContactSolver contactSolver;
+	private boolean packedContacts, vectorContacts;
 	private transient SleepingSystem sleepingSystem;
 	private transient Gravity gravity;
 	private transient AirFriction airfriction;
@@ -62,11 +93,19 @@ public class World implements Serializable {
     // If this is true a few methods are run to see if newly added bodies are too large/small/fast/...
 	public static final boolean SAFETY = true;
 	public World() {
+		this(CollisionHandler.SWEEPANDPRUNE);
+	}
+	/**
+	 * @param broadphaseType
+	 *            The broadphase algorithm that is used, one of CollisionHandler.SWEEPANDPRUNE, CollisionHandler.AABBTREE, CollisionHandler.SPATIALHASH. Sweep and prune is fast as long as the bodies are spread over both axes, the tree does not degenerate when a lot of bodies line up along one axis (long floors, stacked columns). The spatial hash is the fastest choice for a lot of bodies of similar size.
+	 */
+	public World(int broadphaseType) {
+		this.broadphaseType = broadphaseType;
 		this.bodies = new IdSystem<Body>();
 		joints = new IdSystem<Joint>();
 		numBodies = bodies.size();
 		numJoints = 0;
-		collisions = new CollisionHandler(this);
+		collisions = new CollisionHandler(this, broadphaseType);
 		gravity = new Gravity(this);
 		airfriction = new AirFriction(this);
 		wind = new Wind(this, windStrength);
@@ -79,8 +118,15 @@ public class World implements Serializable {
 		integrateVelocities();
 		cleanConnections();
 		checkCollisions();
-		solve();
-		integratePositions();
+		if (islandSolver != null) {
+			// Solves and integrates the positions island by island
+			islandSolver.step(arbiters, sleepingSystem.updateGroups(), minSolveIterations, maxSolveIterations, solveTolerance, PhysicalConstants.DT);
+			solveIterations = islandSolver.getMaxIterations();
+		}
+		else {
+			solve();
+			integratePositions();
+		}
 		refresh();
 		handleSleeping();
 		// phyicalStats();
@@ -91,7 +137,7 @@ public class World implements Serializable {
 		arbiters.clear();
 		for (Pair p : contacts) {
 			if (p.arbiter == null) {
-				p.arbiter = new Arbiter(p);
+				p.arbiter = collisions.getArbiter(p);
 			}
 			addConnection(p.arbiter); // Important : This way there will be a
 										// connection even if the two bodies are
@@ -137,6 +183,10 @@ public class World implements Serializable {
 		}
 	}
 	private void solve() {
+		if (parallelSolver != null) {
+			solveIterations = parallelSolver.solve(arbiters, minSolveIterations, maxSolveIterations, solveTolerance);
+			return;
+		}
 		for (Arbiter a : arbiters) {
 			a.preSolve();
 		}
@@ -146,20 +196,44 @@ public class World implements Serializable {
 				continue;
 			j.preSolve();
 		}
-		for (int i = 0; i < SOLVEITERATIONS; i++) {
+		if (contactSolver != null) {
+			solveIterations = contactSolver.solve(arbiters, minSolveIterations, maxSolveIterations, solveTolerance);
+			return;
+		}
+		int i = 0;
+		while (i < maxSolveIterations) {
+			// Largest change of an impulse in this iteration
+			float delta = 0.0f;
 			for (Arbiter a : arbiters) {
 				a.solve();
+				delta = Math.max(delta, a.delta);
 			}
 			for (int j = 0; j < numJoints; j++) {
 				Joint jo = getJoint(j);
 				jo.sleeps();
 				jo.solve();
+				delta = Math.max(delta, jo.delta);
+			}
+			i++;
+			if (i >= minSolveIterations && delta < solveTolerance) {
+				break;
 			}
 		}
+		solveIterations = i;
 	}
 	private void integrateVelocities() {
+		if (islandSolver != null) {
+			// The islands of this frame are not known before the collision
+			// detection, but every body can be integrated on its own
+			Parallel.forRange(numBodies, IslandSolver.ISLANDCHUNK, (start, end) -> integrateVelocities(start, end));
+		}
+		else {
+			integrateVelocities(0, numBodies);
+		}
+	}
+	private void integrateVelocities(int start, int end) {
 		Body b;
-		for (int i = 0; i < numBodies; i++) {
+		for (int i = start; i < end; i++) {
 			b = getBody(i);
 			if (b.sleeps)
 				continue;
@@ -219,13 +293,20 @@ public class World implements Serializable {
 		collisions.setUpPairs(b);
 	}
 	public void setUp() {
-		collisions = new CollisionHandler(this);
+		collisions = new CollisionHandler(this, broadphaseType);
+		collisions.getBroadphase().setParallel(parallelBroadphase);
+		collisions.setParallel(parallelNarrowphase);
+		setParallelSolve(parallelSolve);
+		setIslandSolve(islandSolve);
+		setPackedContacts(packedContacts, vectorContacts);
 		sleepingSystem = new SleepingSystem(this);
 		gravity = new Gravity(this);
 		airfriction = new AirFriction(this);
 		wind = new Wind(this, windStrength);
 	}
 	public void addBody(Body body) {
+		// The position might have been set after the body was created
+		body.updateShape();
 		bodies.add(body);
 		numBodies++;
 		collisions.addBody(body);
@@ -233,10 +314,29 @@ public class World implements Serializable {
 			Safety.check(body);
 		}
 	}
+	/**
+	 * Adds all bodies at once. Much faster than calling addBody for each of them when loading a level, since the broadphase is only rebuilt once.
+	 */
+	public void addBodies(Collection<Body> newBodies) {
+		for (Body body : newBodies) {
+			body.updateShape();
+		}
+		bodies.addAll(newBodies);
+		numBodies += newBodies.size();
+		collisions.addBodies(newBodies);
+		if (World.SAFETY) {
+			for (Body body : newBodies) {
+				Safety.check(body);
+			}
+		}
+	}
 	public void remBody(Body body) {
-		bodies.remove(body);
-		numBodies--;
 		Vector<Pair> pairs = collisions.remBody(body);
+		Body moved = bodies.remove(body);
+		numBodies--;
+		if (moved != null) { // The last body took the place of the removed one
+			collisions.bodyMoved(moved, numBodies);
+		}
 		sleepingSystem.handleRemovedBody(body, pairs);
 	}
 	public void addJoint(Joint joint) {
@@ -253,6 +353,118 @@ public class World implements Serializable {
 		removeConnection(joint);
 		sleepingSystem.handleRemovedJoint(joint);
 	}
+	/**
+	 * Lets the broadphase use several threads (see SweepAndPrune.sortConcurrently).
+	 */
+	public void setParallelBroadphase(boolean parallel) {
+		parallelBroadphase = parallel;
+		collisions.getBroadphase().setParallel(parallel);
+	}
+	/**
+	 * Lets the narrowphase test the pairs on several threads (see CollisionHandler.narrowphaseConcurrently). The contacts are the same as in the serial narrowphase.
+	 */
+	public void setParallelNarrowphase(boolean parallel) {
+		parallelNarrowphase = parallel;
+		collisions.setParallel(parallel);
+	}
+	/**
+	 * Lets the constraint solver run on several threads (see ParallelSolver). Constraints are solved in a different order than by the serial solver, so the results are not exactly the same.
+	 */
+	public void setParallelSolve(boolean parallel) {
+		parallelSolve = parallel;
+		parallelSolver = parallel ? new ParallelSolver(this) : null;
+	}
+	/**
+	 * The solver stops iterating once no arbiter or joint changed its impulse by more than tolerance in the last iteration (but does at least the minimum number of iterations, see setSolveIterations). Resting piles usually converge after a few iterations. The tolerance is an impulse, so it depends on the masses: 0.001 works well for bodies of mass 1, much larger values let piles jitter and keep them from falling asleep. 0 (the default) always does the maximum number of iterations.
+	 */
+	public void setSolveTolerance(float tolerance) {
+		solveTolerance = tolerance;
+	}
+	public float getSolveTolerance() {
+		return solveTolerance;
+	}
+	/**
+	 * Sets the minimum and maximum number of iterations of the solver. Without a tolerance the maximum is always done.
+	 */
+	public void setSolveIterations(int min, int max) {
+		assert (min <= max) : "The minimum number of iterations is larger than the maximum";
+		minSolveIterations = min;
+		maxSolveIterations = max;
+	}
+	/**
+	 * Number of iterations the solver did in the last step. If the islands are solved separately this is the largest number of any island (see IslandSolver.getIterations).
+	 */
+	public int getSolveIterations() {
+		return solveIterations;
+	}
+	/**
+	 * Lets the serial solver work on the contacts packed into float arrays (see ContactSolver) instead of the Contact objects. The results are the same. Not used by the parallel and the island solver.
+	 */
+	public void setPackedContacts(boolean packed) {
+		setPackedContacts(packed, false);
+	}
+	/**
+	 * Same as setPackedContacts(boolean), if vectorized is set the packed contacts are solved several at once with the Vector API (see VectorContactSolver). The order of the contacts changes, so the results are not bit identical. Falls back to the scalar ContactSolver if jdk.incubator.vector is not available, see getContactSolver().isVectorized().
+	 */
+	public void setPackedContacts(boolean packed, boolean vectorized) {
+		packedContacts = packed;
+		vectorContacts = vectorized;
+		if (!packed) {
+			contactSolver = null;
+		}
+		else {
+			contactSolver = vectorized ? ContactSolver.createVectorized(this) : new ContactSolver(this);
+		}
+	}
+	/**
+	 * The solver for the packed contacts, null if the arbiters solve their contacts themselves.
+	 */
+	public ContactSolver getContactSolver() {
+		return contactSolver;
+	}
+	/**
+	 * Solves the constraints and integrates the positions island by island on several threads (see IslandSolver). The islands are the collision groups of the sleeping system. As long as no island is larger than IslandSolver.LARGEISLAND the results are exactly the same as with the serial solver. Takes precedence over setParallelSolve.
+	 */
+	public void setIslandSolve(boolean parallel) {
+		islandSolve = parallel;
+		islandSolver = parallel ? new IslandSolver(this) : null;
+	}
+	/**
+	 * The island solver, null if it is not used.
+	 */
+	public IslandSolver getIslandSolver() {
+		return islandSolver;
+	}
+	/**
+	 * The parallel solver, null if the serial solver is used.
+	 */
+	public ParallelSolver getParallelSolver() {
+		return parallelSolver;
+	}
+	/**
+	 * The broadphase can be used for region and ray queries.
+	 */
+	public Broadphase getBroadphase() {
+		return collisions.getBroadphase();
+	}
+	/**
+	 * The collision handler runs the broad- and the narrowphase.
+	 */
+	public CollisionHandler getCollisionHandler() {
+		return collisions;
+	}
+	/**
+	 * The arbiters that were solved in the last step, in the order they were solved.
+	 */
+	public Vector<Arbiter> getArbiters() {
+		return arbiters;
+	}
+	/**
+	 * The cache that keeps the arbiters of separated bodies for a few frames.
+	 */
+	public ArbiterCache getArbiterCache() {
+		return collisions.getArbiterCache();
+	}
 	public boolean contains(Body b2) {
 		return bodies.contains(b2);
 	}
@@ -0,0 +1,435 @@
+package physics.collision;
+import java.util.Vector;
+
+import physics.Body;
+import physics.World;
+import tools.LongHashMap;
+import tools.Point;
+/**
+ * Implements a dynamic AABB tree as broadphase. Every body is a leaf of a binary tree whose inner nodes hold the union of the boxes of their children. The boxes of the leaves are "fat": They are enlarged by the fat margin (see setFatMargin) and by the predicted displacement of the body, so a body only has to be re-inserted once it leaves its fat box. Insertion chooses the sibling that increases the perimeter of the tree the least and the tree is kept balanced by rotations on the way back up to the root.
+ *
+ * Pairs are only searched for bodies that have been re-inserted in the current frame, and only their pairs can stop overlapping. Other than sweep and prune this does not degenerate when a lot of bodies line up along one axis.
+ *
+ * The nodes are kept in flat arrays (no node objects) and the traversal stacks are reused, so updates and queries do not allocate.
+ *
+ * @author toni
+ *
+ */
+public class AABBTree extends Broadphase {
+	private static final int NULLNODE = -1;
+	// The fat box of a leaf is enlarged by its velocity times dt times this
+	// factor in the direction of movement.
+	private static final float DISPLACEMENTMULTIPLIER = 2.0f;
+	private float[] minX, minY, maxX, maxY;
+	private int[] parent, child1, child2, height;
+	private Body[] body;
+	private int root;
+	private int freeList;
+	private int nodeCapacity;
+	// Reused buffers (traversal stack, query results, moved bodies)
+	private int[] stack;
+	private int[] found;
+	private Body[] moved;
+	private int numMoved;
+	public AABBTree(World w, float dt, LongHashMap<Pair> pairs) {
+		super(w, pairs);
+		root = NULLNODE;
+		freeList = NULLNODE;
+		nodeCapacity = 0;
+		allocateArrays(2 * (world.numBodies + CollisionHandler.RESERVEDSPACE));
+		stack = new int[64];
+		found = new int[64];
+		moved = new Body[world.numBodies + CollisionHandler.RESERVEDSPACE];
+		for (int i = 0; i < world.numBodies; i++) {
+			addBody(world.getBody(i));
+		}
+	}
+	private void allocateArrays(int capacity) {
+		int oldCapacity = nodeCapacity;
+		minX = grow(minX, capacity);
+		minY = grow(minY, capacity);
+		maxX = grow(maxX, capacity);
+		maxY = grow(maxY, capacity);
+		parent = grow(parent, capacity);
+		child1 = grow(child1, capacity);
+		child2 = grow(child2, capacity);
+		height = grow(height, capacity);
+		Body[] newBody = new Body[capacity];
+		if (body != null)
+			System.arraycopy(body, 0, newBody, 0, oldCapacity);
+		body = newBody;
+		// Link the new nodes into the free list
+		for (int i = oldCapacity; i < capacity - 1; i++) {
+			parent[i] = i + 1;
+		}
+		parent[capacity - 1] = freeList;
+		freeList = oldCapacity;
+		nodeCapacity = capacity;
+	}
+	private static float[] grow(float[] a, int capacity) {
+		float[] b = new float[capacity];
+		if (a != null)
+			System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+	private static int[] grow(int[] a, int capacity) {
+		int[] b = new int[capacity];
+		if (a != null)
+			System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+	private int allocateNode() {
+		if (freeList == NULLNODE) {
+			allocateArrays(nodeCapacity * 2);
+		}
+		int node = freeList;
+		freeList = parent[node];
+		parent[node] = NULLNODE;
+		child1[node] = NULLNODE;
+		child2[node] = NULLNODE;
+		height[node] = 0;
+		body[node] = null;
+		return node;
+	}
+	private void freeNode(int node) {
+		body[node] = null;
+		height[node] = -1;
+		parent[node] = freeList;
+		freeList = node;
+	}
+	private boolean isLeaf(int node) {
+		return child1[node] == NULLNODE;
+	}
+	@Override
+	public void addBody(Body b) {
+		int leaf = allocateNode();
+		body[leaf] = b;
+		b.proxyId = leaf;
+		setFatBox(leaf, b, 0.0f);
+		insertLeaf(leaf);
+		if (world.numBodies > moved.length) {
+			moved = new Body[world.numBodies + CollisionHandler.RESERVEDSPACE];
+		}
+		int n = queryNodes(minX[leaf], minY[leaf], maxX[leaf], maxY[leaf]);
+		for (int i = 0; i < n; i++) {
+			if (body[found[i]] != b)
+				addPair(b, body[found[i]]);
+		}
+	}
+	@Override
+	public void remBody(Body b) {
+		removeLeaf(b.proxyId);
+		freeNode(b.proxyId);
+		b.proxyId = NULLNODE;
+	}
+	@Override
+	public void update(float dt, Vector<Pair> pairsList) {
+		resetPairCounters();
+		numMoved = 0;
+		Body b;
+		for (int i = 0; i < world.numBodies; i++) {
+			b = world.getBody(i);
+			if (moveProxy(b, dt)) {
+				moved[numMoved] = b;
+				numMoved++;
+			}
+		}
+		for (int k = 0; k < numMoved; k++) {
+			b = moved[k];
+			moved[k] = null;
+			// Only pairs of re-inserted bodies can have stopped overlapping.
+			for (int j = b.pairs.size() - 1; j >= 0; j--) {
+				Pair p = b.pairs.get(j);
+				if (!overlap(p.b1.proxyId, p.b2.proxyId)) {
+					remPair(p.b1, p.b2);
+				}
+			}
+			int leaf = b.proxyId;
+			int n = queryNodes(minX[leaf], minY[leaf], maxX[leaf], maxY[leaf]);
+			for (int i = 0; i < n; i++) {
+				if (body[found[i]] != b)
+					addPair(b, body[found[i]]);
+			}
+		}
+		collectPairs(pairsList);
+	}
+	/**
+	 * Re-inserts the leaf of the body if its current bounds are not contained in its fat box anymore.
+	 *
+	 * @return true if the leaf was re-inserted.
+	 */
+	private boolean moveProxy(Body b, float dt) {
+		int leaf = b.proxyId;
+		if (minX[leaf] <= b.minX - World.BOUNDINGMARGIN && minY[leaf] <= b.minY - World.BOUNDINGMARGIN && maxX[leaf] >= b.maxX + World.BOUNDINGMARGIN && maxY[leaf] >= b.maxY + World.BOUNDINGMARGIN) {
+			return false;
+		}
+		removeLeaf(leaf);
+		setFatBox(leaf, b, dt);
+		insertLeaf(leaf);
+		return true;
+	}
+	private void setFatBox(int leaf, Body b, float dt) {
+		float margin = World.BOUNDINGMARGIN + fatMargin;
+		minX[leaf] = b.minX - margin;
+		minY[leaf] = b.minY - margin;
+		maxX[leaf] = b.maxX + margin;
+		maxY[leaf] = b.maxY + margin;
+		float dx = b.vel.x * dt * DISPLACEMENTMULTIPLIER;
+		float dy = b.vel.y * dt * DISPLACEMENTMULTIPLIER;
+		if (dx < 0.0f)
+			minX[leaf] += dx;
+		else
+			maxX[leaf] += dx;
+		if (dy < 0.0f)
+			minY[leaf] += dy;
+		else
+			maxY[leaf] += dy;
+	}
+	private boolean overlap(int a, int b) {
+		return minX[a] <= maxX[b] && minX[b] <= maxX[a] && minY[a] <= maxY[b] && minY[b] <= maxY[a];
+	}
+	private float perimeter(int a) {
+		return 2.0f * (maxX[a] - minX[a] + maxY[a] - minY[a]);
+	}
+	private float unionPerimeter(int a, int b) {
+		return 2.0f * (Math.max(maxX[a], maxX[b]) - Math.min(minX[a], minX[b]) + Math.max(maxY[a], maxY[b]) - Math.min(minY[a], minY[b]));
+	}
+	private void setUnion(int node, int a, int b) {
+		minX[node] = Math.min(minX[a], minX[b]);
+		minY[node] = Math.min(minY[a], minY[b]);
+		maxX[node] = Math.max(maxX[a], maxX[b]);
+		maxY[node] = Math.max(maxY[a], maxY[b]);
+	}
+	private void insertLeaf(int leaf) {
+		if (root == NULLNODE) {
+			root = leaf;
+			parent[leaf] = NULLNODE;
+			return;
+		}
+		// Descend to the sibling that leads to the smallest increase in
+		// perimeter.
+		int index = root;
+		while (!isLeaf(index)) {
+			int c1 = child1[index];
+			int c2 = child2[index];
+			float area = perimeter(index);
+			float combinedArea = unionPerimeter(index, leaf);
+			// Cost of creating a new parent for this node and the new leaf
+			float cost = 2.0f * combinedArea;
+			// Minimum cost of pushing the leaf further down the tree
+			float inheritanceCost = 2.0f * (combinedArea - area);
+			float cost1 = unionPerimeter(leaf, c1) + inheritanceCost;
+			if (!isLeaf(c1))
+				cost1 -= perimeter(c1);
+			float cost2 = unionPerimeter(leaf, c2) + inheritanceCost;
+			if (!isLeaf(c2))
+				cost2 -= perimeter(c2);
+			if (cost < cost1 && cost < cost2)
+				break;
+			index = (cost1 < cost2) ? c1 : c2;
+		}
+		int sibling = index;
+		int oldParent = parent[sibling];
+		int newParent = allocateNode();
+		parent[newParent] = oldParent;
+		setUnion(newParent, leaf, sibling);
+		height[newParent] = height[sibling] + 1;
+		if (oldParent != NULLNODE) {
+			if (child1[oldParent] == sibling)
+				child1[oldParent] = newParent;
+			else
+				child2[oldParent] = newParent;
+		}
+		else {
+			root = newParent;
+		}
+		child1[newParent] = sibling;
+		child2[newParent] = leaf;
+		parent[sibling] = newParent;
+		parent[leaf] = newParent;
+		fixUpwards(parent[leaf]);
+	}
+	private void removeLeaf(int leaf) {
+		if (leaf == root) {
+			root = NULLNODE;
+			return;
+		}
+		int p = parent[leaf];
+		int grandParent = parent[p];
+		int sibling = (child1[p] == leaf) ? child2[p] : child1[p];
+		if (grandParent != NULLNODE) {
+			if (child1[grandParent] == p)
+				child1[grandParent] = sibling;
+			else
+				child2[grandParent] = sibling;
+			parent[sibling] = grandParent;
+			freeNode(p);
+			fixUpwards(grandParent);
+		}
+		else {
+			root = sibling;
+			parent[sibling] = NULLNODE;
+			freeNode(p);
+		}
+		parent[leaf] = NULLNODE;
+	}
+	/**
+	 * Walks from the given node up to the root, balancing the tree and refitting heights and boxes.
+	 */
+	private void fixUpwards(int index) {
+		while (index != NULLNODE) {
+			index = balance(index);
+			height[index] = 1 + Math.max(height[child1[index]], height[child2[index]]);
+			setUnion(index, child1[index], child2[index]);
+			index = parent[index];
+		}
+	}
+	/**
+	 * Performs a left or right rotation if the subtree at a is imbalanced. Returns the new root of the subtree.
+	 */
+	private int balance(int a) {
+		if (isLeaf(a) || height[a] < 2) {
+			return a;
+		}
+		int b = child1[a];
+		int c = child2[a];
+		int balance = height[c] - height[b];
+		if (balance > 1) { // Rotate c up
+			int f = child1[c];
+			int g = child2[c];
+			child1[c] = a;
+			parent[c] = parent[a];
+			parent[a] = c;
+			replaceChild(parent[c], a, c);
+			if (height[f] > height[g]) {
+				child2[c] = f;
+				child2[a] = g;
+				parent[g] = a;
+				setUnion(a, b, g);
+				setUnion(c, a, f);
+				height[a] = 1 + Math.max(height[b], height[g]);
+				height[c] = 1 + Math.max(height[a], height[f]);
+			}
+			else {
+				child2[c] = g;
+				child2[a] = f;
+				parent[f] = a;
+				setUnion(a, b, f);
+				setUnion(c, a, g);
+				height[a] = 1 + Math.max(height[b], height[f]);
+				height[c] = 1 + Math.max(height[a], height[g]);
+			}
+			return c;
+		}
+		if (balance < -1) { // Rotate b up
+			int d = child1[b];
+			int e = child2[b];
+			child1[b] = a;
+			parent[b] = parent[a];
+			parent[a] = b;
+			replaceChild(parent[b], a, b);
+			if (height[d] > height[e]) {
+				child2[b] = d;
+				child1[a] = e;
+				parent[e] = a;
+				setUnion(a, c, e);
+				setUnion(b, a, d);
+				height[a] = 1 + Math.max(height[c], height[e]);
+				height[b] = 1 + Math.max(height[a], height[d]);
+			}
+			else {
+				child2[b] = e;
+				child1[a] = d;
+				parent[d] = a;
+				setUnion(a, c, d);
+				setUnion(b, a, e);
+				height[a] = 1 + Math.max(height[c], height[d]);
+				height[b] = 1 + Math.max(height[a], height[e]);
+			}
+			return b;
+		}
+		return a;
+	}
+	private void replaceChild(int node, int oldChild, int newChild) {
+		if (node == NULLNODE) {
+			root = newChild;
+		}
+		else if (child1[node] == oldChild) {
+			child1[node] = newChild;
+		}
+		else {
+			child2[node] = newChild;
+		}
+	}
+	private void push(int stackSize, int node) {
+		if (stackSize == stack.length) {
+			stack = grow(stack, stack.length * 2);
+		}
+		stack[stackSize] = node;
+	}
+	/**
+	 * Writes all leaves whose boxes overlap the given box into found and returns their number.
+	 */
+	private int queryNodes(float x1, float y1, float x2, float y2) {
+		int numFound = 0;
+		if (root == NULLNODE)
+			return 0;
+		int stackSize = 0;
+		push(stackSize++, root);
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			if (minX[node] > x2 || maxX[node] < x1 || minY[node] > y2 || maxY[node] < y1)
+				continue;
+			if (isLeaf(node)) {
+				if (numFound == found.length) {
+					found = grow(found, found.length * 2);
+				}
+				found[numFound++] = node;
+			}
+			else {
+				push(stackSize++, child1[node]);
+				push(stackSize++, child2[node]);
+			}
+		}
+		return numFound;
+	}
+	@Override
+	public void queryRegion(float minX, float minY, float maxX, float maxY, Vector<Body> result) {
+		int n = queryNodes(minX, minY, maxX, maxY);
+		for (int i = 0; i < n; i++) {
+			result.add(body[found[i]]);
+		}
+	}
+	/**
+	 * Traverses the tree and only descends into nodes whose boxes are hit by the segment.
+	 */
+	@Override
+	public void queryRay(Point pos, Point dir, float maxLength, Vector<Body> result) {
+		if (root == NULLNODE)
+			return;
+		float endX = pos.x + dir.x * maxLength;
+		float endY = pos.y + dir.y * maxLength;
+		int stackSize = 0;
+		push(stackSize++, root);
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			if (!segmentHitsBox(pos.x, pos.y, endX, endY, minX[node], minY[node], maxX[node], maxY[node]))
+				continue;
+			if (isLeaf(node)) {
+				result.add(body[node]);
+			}
+			else {
+				push(stackSize++, child1[node]);
+				push(stackSize++, child2[node]);
+			}
+		}
+	}
+	/**
+	 * Returns the height of the tree (0 for a single leaf, -1 for an empty tree).
+	 */
+	public int getHeight() {
+		if (root == NULLNODE)
+			return -1;
+		return height[root];
+	}
+}
@@ -13,26 +13,42 @@ import tools.Point;
 public class Arbiter extends TwoBodyJoint {
 	float energyFactor;
 	public Contact[] contacts;
-	private float friction;
+	float friction;
 	public int num;
 	private Point tangent = new Point();
 	float relevance;
-	// Calculation variables - sad but true
-	static Point P = new Point(), Pn = new Point(), Pb = new Point(), Pt = new Point();
-	static Point dv = new Point(), dvb = new Point();
-	static float dPn, Pn0, dPnb, pnb0, dPt, maxPt, oldTangentImpulse;
+	// Frame in which the arbiter was put into the ArbiterCache
+	int cachedFrame;
+	// Calculation variables. They belong to the arbiter and not to the class,
+	// so that arbiters without common bodies can be solved on different
+	// threads (see ParallelSolver).
+	private Point P = new Point(), Pn = new Point(), Pb = new Point(), Pt = new Point();
+	private Point dv = new Point(), dvb = new Point();
 	public Arbiter(Pair p) {
 		super(p.b1, p.b2);
 		assert (p.b1.id < p.b2.id);
-		num = (p.pos2 != null) ? 2 : 1;
+		num = numContacts(p);
 		contacts = new Contact[num];
 		friction = Floatmath.sqrt(b1.friction * b2.friction);
 		contacts[0] = new Contact(p.normal, p.pos, -p.depth);
-		if (num == 2) {
+		if (p.pos2 != null) {
 			contacts[1] = new Contact(p.normal, p.pos2, -p.depth);
 		}
+		createExtraContacts(p);
 		energyFactor = (b1.mass * b2.mass) / (b1.mass + b2.mass);
 	}
+	/**
+	 * One or two contacts plus the extra contacts of compound bodies.
+	 */
+	private static int numContacts(Pair p) {
+		return ((p.pos2 != null) ? 2 : 1) + p.numExtra;
+	}
+	private void createExtraContacts(Pair p) {
+		int first = num - p.numExtra;
+		for (int i = 0; i < p.numExtra; i++) {
+			contacts[first + i] = new Contact(p.extraNormal[i], p.extraPos[i], -p.extraDepth[i]);
+		}
+	}
 	public float getRelVel(Body body1, Body body2, Point n) {
 		return n.x * (body1.vel.x - body2.vel.x) + n.y * (body1.vel.y - body2.vel.y);
 	}
@@ -102,8 +118,13 @@ public class Arbiter extends TwoBodyJoint {
 	}
 	public void solve() {
 		Contact c;
+		float dPn, Pn0, dPnb, pnb0, dPt, maxPt, oldTangentImpulse;
+		delta = 0.0f;
 		for (int i = 0; i < num; i++) {
 			c = contacts[i];
+			// Contacts of compound bodies can have different normals
+			tangent.x = -c.normal.y;
+			tangent.y = c.normal.x;
 			getRelVelAtP(b1, b2, c.pos);
 			// dv.x += c.normal.x * c.separation * World.BIAS;
 			// dv.y += c.normal.y * c.separation * World.BIAS;
@@ -135,6 +156,7 @@ public class Arbiter extends TwoBodyJoint {
 			oldTangentImpulse = c.accPt;
 			c.accPt = clamp(oldTangentImpulse + dPt, -maxPt, maxPt);
 			dPt = c.accPt - oldTangentImpulse;
+			delta = Math.max(delta, Math.max(Math.abs(dPn), Math.max(Math.abs(dPnb), Math.abs(dPt))));
 			// Impuls wirken lassen //
 			Pt.from2(tangent).sMul(dPt);
 			b2.applyConstImpulse(Pt, c.r2);
@@ -145,14 +167,15 @@ public class Arbiter extends TwoBodyJoint {
 		return Math.max(Math.min(toClamp, max), min);
 	}
 	public void update(Pair p) {
-		int size = (p.pos2 != null) ? 2 : 1;
+		int size = numContacts(p);
 		if (size != num) {
 			contacts = new Contact[size];
 			contacts[0] = new Contact(p.normal, p.pos, -p.depth);
-			if (size == 2) {
+			if (p.pos2 != null) {
 				contacts[1] = new Contact(p.normal, p.pos2, -p.depth);
 			}
 			num = size;
+			createExtraContacts(p);
 		}
 		else {
 			contacts[0].normal = p.normal;
@@ -163,6 +186,12 @@ public class Arbiter extends TwoBodyJoint {
 				contacts[1].separation = -p.depth;
 				contacts[1].pos = p.pos2;
 			}
+			int first = num - p.numExtra;
+			for (int i = 0; i < p.numExtra; i++) {
+				contacts[first + i].normal = p.extraNormal[i];
+				contacts[first + i].separation = -p.extraDepth[i];
+				contacts[first + i].pos = p.extraPos[i];
+			}
 		}
 	}
 	public Point getP1() {
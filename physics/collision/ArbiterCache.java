@@ -0,0 +1,135 @@
+package physics.collision;
+import java.io.Serializable;
+
+import tools.LongHashMap;
+/**
+ * Keeps the arbiters of pairs that were removed by the broadphase for a few frames. If the two bodies touch again shortly after (a box bouncing on the floor, bodies at the edge of their fat bounds) the pair gets its old arbiter back and with it the accumulated impulses for warmstarting, instead of starting from zero and needing a lot of solver iterations to settle again.
+ *
+ * Arbiters are keyed on the ids of both bodies, since the indices in the world change when bodies are removed. Entries are evicted in the order they were stored (which is also the order of their age) once they are older than maxAge frames or when more than capacity arbiters are waiting. Since ids can be given to new bodies (network synchronization) an arbiter is only handed out if it still belongs to the very same bodies.
+ *
+ * @author toni
+ *
+ */
+public class ArbiterCache implements Serializable {
+	public static final int MAXAGE = 5;
+	public static final int CAPACITY = 4096;
+	private LongHashMap<Arbiter> arbiters;
+	// Ring buffer of the stored entries in the order they were stored. An
+	// entry is stale if its arbiter was taken out (or stored again later),
+	// which is checked by comparing arbiter and frame with the table.
+	private long[] ringKeys;
+	private Arbiter[] ringArbiters;
+	private int[] ringFrames;
+	private int head, count;
+	private int maxAge;
+	private int frame;
+	private int hits, misses;
+	public ArbiterCache() {
+		this(CAPACITY, MAXAGE);
+	}
+	public ArbiterCache(int capacity, int maxAge) {
+		assert (capacity > 0);
+		this.maxAge = maxAge;
+		arbiters = new LongHashMap<Arbiter>();
+		ringKeys = new long[capacity];
+		ringArbiters = new Arbiter[capacity];
+		ringFrames = new int[capacity];
+	}
+	private static long key(Pair p) {
+		return ((long) p.b1.id << 32) | (p.b2.id & 0xffffffffL);
+	}
+	/**
+	 * Has to be called once every frame before the broadphase runs. Evicts all arbiters that are too old.
+	 */
+	public void nextFrame() {
+		frame++;
+		hits = 0;
+		misses = 0;
+		while (count > 0 && frame - ringFrames[head] > maxAge) {
+			evictOldest();
+		}
+	}
+	/**
+	 * Stores the arbiter of a pair that is about to be removed.
+	 */
+	public void store(Pair p) {
+		Arbiter a = p.arbiter;
+		if (a == null || maxAge <= 0)
+			return;
+		if (count == ringKeys.length) {
+			evictOldest();
+		}
+		long key = key(p);
+		a.cachedFrame = frame;
+		arbiters.put(key, a);
+		int i = (head + count) % ringKeys.length;
+		ringKeys[i] = key;
+		ringArbiters[i] = a;
+		ringFrames[i] = frame;
+		count++;
+	}
+	/**
+	 * Returns the stored arbiter of the two bodies of the pair (updated with the current contacts of the pair) and removes it from the cache. Returns null if there is none.
+	 */
+	public Arbiter take(Pair p) {
+		Arbiter a = arbiters.remove(key(p));
+		if (a == null || a.b1 != p.b1 || a.b2 != p.b2) {
+			misses++;
+			return null;
+		}
+		hits++;
+		a.update(p);
+		return a;
+	}
+	private void evictOldest() {
+		long key = ringKeys[head];
+		Arbiter a = ringArbiters[head];
+		if (arbiters.get(key) == a && a.cachedFrame == ringFrames[head]) {
+			arbiters.remove(key);
+		}
+		ringArbiters[head] = null;
+		head = (head + 1) % ringKeys.length;
+		count--;
+	}
+	public void clear() {
+		while (count > 0) {
+			evictOldest();
+		}
+	}
+	/**
+	 * Number of arbiters that can be stored at most.
+	 */
+	public int getCapacity() {
+		return ringKeys.length;
+	}
+	/**
+	 * Number of frames an arbiter is kept. 0 disables the cache.
+	 */
+	public void setMaxAge(int maxAge) {
+		this.maxAge = maxAge;
+		if (maxAge <= 0) {
+			clear();
+		}
+	}
+	public int getMaxAge() {
+		return maxAge;
+	}
+	/**
+	 * Number of arbiters that are waiting in the cache.
+	 */
+	public int size() {
+		return arbiters.size();
+	}
+	/**
+	 * Number of new pairs in this frame that got their arbiter back from the cache.
+	 */
+	public int getHits() {
+		return hits;
+	}
+	/**
+	 * Number of new pairs in this frame that needed a new arbiter.
+	 */
+	public int getMisses() {
+		return misses;
+	}
+}
@@ -1,347 +1,189 @@
 package physics.collision;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Vector;
 
 import physics.Body;
 import physics.World;
+import tools.LongHashMap;
+import tools.Point;
 /**
- * Implements a sweep and prune algorithm to determine possible colliding body-pairs. To accomplish this, two lists of "delimiters", data structures that keep track of a single coordinate of one boundary of a body are stored. They are sorted each frame and whenever two delimiters start overlapping, a pair is added, whenenver two delimiters stop overlapping the pair is removed. Pairs are only added if delimiters overlap on both axes. A quick box check (with the delimiter indices) is done to achieve this.
- * 
+ * Determines possible colliding body-pairs. Every broadphase keeps the pairs of overlapping bodies alive over frames (so that their arbiters and with them the warmstarting impulses survive) and stores them in the pair table that is shared with the CollisionHandler as well as in the pair vectors of both bodies. Implementations only have to decide when two bodies start or stop overlapping and call addPair/remPair accordingly.
+ *
+ * Since the broadphase knows the bounds of every body it also answers region and ray queries. Both return candidates, meaning that the bounds of the returned bodies touch the region/ray but their shapes might not.
+ *
+ * @see SweepAndPrune
+ * @see AABBTree
+ * @see SpatialHashGrid
  * @author toni
- * 
+ *
  */
-public class Broadphase implements Serializable {
-	private World world;
-	private Delimiter[] delX;
-	public Delimiter[] delY;
-	private int numBodies;
-	public Pair[][] pairArray;
+public abstract class Broadphase implements Serializable {
+	protected World world;
+	public LongHashMap<Pair> pairTable;
+	// Whether the broadphase may use several threads (only supported by
+	// SweepAndPrune so far)
+	protected boolean parallel;
+	// Default margin by which the fat bounds of a body are enlarged in every
+	// direction.
+	public static final float FATMARGIN = 0.2f;
+	protected float fatMargin = FATMARGIN;
+	// Number of pairs that were added/removed in the last update
+	protected int pairsAdded, pairsRemoved;
+	// Keeps the arbiters of removed pairs for a few frames (may be null)
+	protected ArbiterCache arbiterCache;
+	public Broadphase(World w, LongHashMap<Pair> pairs) {
+		world = w;
+		pairTable = pairs;
+	}
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
 	/**
-	 * Initializes the broadphase. Most of the times there won't be any bodies in the World at this point of time.
-	 * 
-	 * @param w
-	 * @param dt
-	 * @param pairs
+	 * Sets the margin of the fat bounds. SweepAndPrune and AABBTree only move the bounds of a body once it leaves its fat bounds, so bodies that jitter in place do not keep adding and removing pairs (which would throw away their arbiters and with them the warmstarting impulses). A larger margin means less pair churn but more pairs for the narrowphase. 0 gives tight bounds. The SpatialHashGrid rebuilds everything each frame and ignores the margin.
 	 */
-	public Broadphase(World w, float dt, Pair[][] pairs) {
-		world = w;
-		numBodies = 0;
-		pairArray = pairs;
-		delX = new Delimiter[2 * (numBodies + CollisionHandler.RESERVEDSPACE)];
-		delY = new Delimiter[2 * (numBodies + CollisionHandler.RESERVEDSPACE)];
-		Body b;
-		for (int i = 0; i < world.numBodies; i++) {
-			b = world.getBody(i);
-			addBody(b);
-		}
+	public void setFatMargin(float margin) {
+		fatMargin = margin;
+	}
+	public float getFatMargin() {
+		return fatMargin;
 	}
-	// public Broadphase(World w, float dt, Pair[][] pairs) {
-	// world = w;
-	// numBodies = world.numBodies;
-	// pairArray = pairs;
-	// delX = new Delimiter[2 * (numBodies + CollisionHandler.RESERVEDSPACE)];
-	// delY = new Delimiter[2 * (numBodies + CollisionHandler.RESERVEDSPACE)];
-	// for (int i = 0; i < numBodies; i++) {
-	// Body b = world.getBody(i);
-	// float vX = Math.abs(b.vel.x);
-	// float vY = Math.abs(b.vel.y);
-	// delX[2 * i] = new Delimiter(b, b.pos.x - b.width - vX * dt -
-	// World.BOUNDINGMARGIN, true);
-	// delX[2 * i + 1] = new Delimiter(b, b.pos.x + b.width + vX * dt +
-	// World.BOUNDINGMARGIN, false);
-	// delY[2 * i] = new Delimiter(b, b.pos.y - b.height - vY * dt -
-	// World.BOUNDINGMARGIN, true);
-	// delY[2 * i + 1] = new Delimiter(b, b.pos.y + b.height + vY * dt +
-	// World.BOUNDINGMARGIN, false);
-	// }
-	// sort();
-	// }
 	/**
-	 * Updates the delimiter positions for every body. Does not! sort the delimiters or find out new pairs / old ones that need to be removed.
-	 * 
-	 * @param dt
+	 * The arbiters of all pairs that are removed are handed to the cache, so that they can be reused if the bodies touch again a few frames later.
 	 */
-	public void refresh(float dt) {
-		for (int i = 0; i < numBodies * 2; i++) {
-			Delimiter dX = delX[i];
-			Delimiter dY = delY[i];
-			float vX = Math.abs(dX.body.vel.x);
-			float vY = Math.abs(dY.body.vel.y);
-			if (dX.isStart)
-				dX.pos = dX.body.pos.x - dX.body.width - vX * dt - World.BOUNDINGMARGIN;
-			else
-				dX.pos = dX.body.pos.x + dX.body.width + vX * dt + World.BOUNDINGMARGIN;
-			if (dY.isStart)
-				dY.pos = dY.body.pos.y - dY.body.height - vY * dt - World.BOUNDINGMARGIN;
-			else
-				dY.pos = dY.body.pos.y + dY.body.height + vY * dt + World.BOUNDINGMARGIN;
-		}
+	public void setArbiterCache(ArbiterCache cache) {
+		arbiterCache = cache;
 	}
 	/**
-	 * Theoretically this should work as follows: Every delimiter is updated with the current position of its body. The delimiters get sorted along the x- and y-axis. Whenenver two delimiters start to overlap because of the sorting along one axis, addPairX or addPairY is called. addPairX and addPairY only really add a new pair if the other axis overlaps aswell. TODO : Does this actually help against just checking for overlap on one axis?
-	 * 
-	 * @param dt
-	 * @param pairs
-	 * @param pairsList
+	 * Number of pairs that were added in the last update.
 	 */
-	public void update(float dt, Vector<Pair> pairsList) {
-		refresh(dt);
-		updateDelimiters(delX, true);
-		updateDelIndicesX();
-		updateDelimiters(delY, false);
-		updateDelIndicesY();
-		// Collect all pairs in pairsList
-		pairsList.clear();
-		for (int i = 0; i < numBodies; i++) {
-			Body b = world.getBody(i);
-			for (Pair p : b.pairs) {
-				pairsList.add(p);
-			}
-		}
+	public int getPairsAdded() {
+		return pairsAdded;
 	}
-	private void updateDelIndicesX() {
-		for (int i = 0; i < numBodies * 2; i++) {
-			if (delX[i].isStart)
-				delX[i].body.delIdStartX = i;
-			else
-				delX[i].body.delIdEndX = i;
-		}
+	/**
+	 * Number of pairs that were removed in the last update.
+	 */
+	public int getPairsRemoved() {
+		return pairsRemoved;
 	}
-	private void updateDelIndicesY() {
-		for (int i = 0; i < numBodies * 2; i++) {
-			if (delY[i].isStart)
-				delY[i].body.delIdStartY = i;
-			else
-				delY[i].body.delIdEndY = i;
-		}
+	/**
+	 * Has to be called at the beginning of every update.
+	 */
+	protected void resetPairCounters() {
+		pairsAdded = 0;
+		pairsRemoved = 0;
 	}
+	public abstract void addBody(Body b);
 	/**
-	 * Basically performs insertion sort on a given array of delimiters. Whenenver it moves two delimiters along eachother (See the implementation of insertion sort as an explanation) it will add/remove the collision pair of those two bodies.(depending on what kind of delimiters pass each other (start <-> start, start <-> end, ...)
-	 * 
-	 * @param dels
-	 *            The array of delimiters. Will only be delX, or delY but this function is written for the general case because it has to do the same things.
-	 * @param isX
-	 *            Determines whether the array of delimiters is delX or delY.
-	 * @return
+	 * Adds several bodies at once. Implementations that can do this faster than one addBody per body override this.
 	 */
-	private Delimiter[] updateDelimiters(Delimiter[] dels, boolean isX) {
-		float keyPos;
-		Delimiter key, passingDel;
-		int i;
-		for (int j = 1; j < 2 * numBodies; j++) {
-			key = dels[j];
-			keyPos = key.pos;
-			i = j - 1;
-			while (i > 0 && dels[i].pos > keyPos) { // As long as the delimiter
-													// key is not on the correct
-													// position
-				passingDel = dels[i];
-				if (key.isStart && !passingDel.isStart) { // Start passes end
-					if (isX) {
-						addPairX(key.body, passingDel.body);
-					}
-					else {
-						addPairY(key.body, passingDel.body);
-					}
-				}
-				else if (!key.isStart && passingDel.isStart) {
-					remPair(key.body, passingDel.body);
-				}
-				dels[i + 1] = passingDel;
-				i--;
-			}
-			dels[i + 1] = key;
-		}
-		// Make sure the first two elements are sorted as well (fails sometimes)
-		if (numBodies != 0 && dels[0].pos > dels[1].pos) {
-			key = dels[0];
-			dels[0] = dels[1];
-			dels[1] = key;
+	public void addBodies(Collection<Body> bodies) {
+		for (Body b : bodies) {
+			addBody(b);
 		}
-		return dels;
 	}
-	private void addPairX(Body b1, Body b2) {
-		if (b1.delIdStartY > b2.delIdEndY || b2.delIdStartY > b1.delIdEndY) {
-			return; // They dont overlap along the y-axis
+	/**
+	 * Removes the body out of the broadphase. The pairs of the body are removed by the CollisionHandler.
+	 */
+	public abstract void remBody(Body b);
+	/**
+	 * Updates the bounds of every body, adds/removes pairs and collects all pairs in pairsList.
+	 */
+	public abstract void update(float dt, Vector<Pair> pairsList);
+	/**
+	 * Adds every body whose bounds overlap the box (minX, minY) - (maxX, maxY) to result.
+	 */
+	public abstract void queryRegion(float minX, float minY, float maxX, float maxY, Vector<Body> result);
+	/**
+	 * Adds every body whose bounds are hit by the segment from pos to pos + dir * maxLength to result. dir has to be normalized. The default implementation queries the bounding box of the segment and tests each candidate against the segment.
+	 */
+	public void queryRay(Point pos, Point dir, float maxLength, Vector<Body> result) {
+		float endX = pos.x + dir.x * maxLength;
+		float endY = pos.y + dir.y * maxLength;
+		int first = result.size();
+		queryRegion(Math.min(pos.x, endX), Math.min(pos.y, endY), Math.max(pos.x, endX), Math.max(pos.y, endY), result);
+		for (int i = result.size() - 1; i >= first; i--) {
+			Body b = result.get(i);
+			if (!segmentHitsBox(pos.x, pos.y, endX, endY, b.minX, b.minY, b.maxX, b.maxY)) {
+				result.remove(i);
+			}
 		}
-		addPair(b1, b2);
 	}
-	private void addPairY(Body b1, Body b2) {
-		if (b1.delIdStartX > b2.delIdEndX || b2.delIdStartX > b1.delIdEndX) {
-			return; // They dont overlap along the x-axis
-		}
-		addPair(b1, b2);
+	/**
+	 * Slab test of the segment (x1, y1) - (x2, y2) against an axis aligned box.
+	 */
+	public static boolean segmentHitsBox(float x1, float y1, float x2, float y2, float minX, float minY, float maxX, float maxY) {
+		float tmin = 0.0f, tmax = 1.0f;
+		float d = x2 - x1;
+		if (d == 0.0f) {
+			if (x1 < minX || x1 > maxX)
+				return false;
+		}
+		else {
+			float t1 = (minX - x1) / d, t2 = (maxX - x1) / d;
+			tmin = Math.max(tmin, Math.min(t1, t2));
+			tmax = Math.min(tmax, Math.max(t1, t2));
+		}
+		d = y2 - y1;
+		if (d == 0.0f) {
+			if (y1 < minY || y1 > maxY)
+				return false;
+		}
+		else {
+			float t1 = (minY - y1) / d, t2 = (maxY - y1) / d;
+			tmin = Math.max(tmin, Math.min(t1, t2));
+			tmax = Math.min(tmax, Math.max(t1, t2));
+		}
+		return tmin <= tmax;
 	}
-	private void addPair(Body b1, Body b2) {
-		if (pairArray[b1.indexInWorld][b2.indexInWorld] == null) { // No pair
-																	// between
-																	// these
-																	// bodies
-																	// existed
-																	// so far
+	/**
+	 * Adds a pair between the two bodies if it does not exist yet.
+	 */
+	protected void addPair(Body b1, Body b2) {
+		long key = Pair.key(b1.indexInWorld, b2.indexInWorld);
+		if (pairTable.get(key) == null) { // No pair between these bodies
+											// existed so far
 			Pair p;
-			for (Pair p2 : b1.pairs)
-				assert (p2.otherThan(b1) != b2);
-			for (Pair p2 : b2.pairs)
-				assert (p2.otherThan(b2) != b1);
-			if (b1.indexInWorld < b2.indexInWorld) {
+			if (b1.id < b2.id) {
 				p = new Pair(b1, b2);
-				b1.pairs.add(p);
 			}
 			else {
 				p = new Pair(b2, b1);
-				b2.pairs.add(p);
 			}
-			pairArray[b1.indexInWorld][b2.indexInWorld] = p;
-			pairArray[b2.indexInWorld][b1.indexInWorld] = p;
+			b1.pairs.add(p);
+			b2.pairs.add(p);
+			pairTable.put(key, p);
+			pairsAdded++;
 		}
 	}
-	private void remPair(Body b1, Body b2) {
-		pairArray[b1.indexInWorld][b2.indexInWorld] = null;
-		pairArray[b2.indexInWorld][b1.indexInWorld] = null;
-		if (b1.indexInWorld < b2.indexInWorld)
-			remPairFromBody(b1, b2);
-		else
-			remPairFromBody(b2, b1);
-	}
-	private void remPairFromBody(Body toRemoveFrom, Body toBeRemoved) {
-		Pair correctPair = null;
-		for (Pair p : toRemoveFrom.pairs) {
-			if (p.otherThan(toRemoveFrom) == toBeRemoved) {
-				correctPair = p;
-				break;
-			}
-		}
-		if (correctPair != null)
-			toRemoveFrom.pairs.remove(correctPair);
-		// if correctPair is null then the system just tries to remove a pair
-		// that has not been added because it didn't overlap in x direction
+	protected void remPair(Body b1, Body b2) {
+		Pair p = pairTable.remove(Pair.key(b1.indexInWorld, b2.indexInWorld));
+		// if p is null then the system just tries to remove a pair that has
+		// not been added because it didn't overlap in the other direction
 		// anyway.
-	}
-	public void addBody(Body b) {
-		numBodies++;
-		if (2 * numBodies >= delX.length) {
-			extendArrays();
-		}
-		assert (delX[2 * numBodies] == null);
-		assert (delX[2 * numBodies + 1] == null);
-		assert (delY[2 * numBodies] == null);
-		assert (delY[2 * numBodies + 1] == null);
-		delX[2 * numBodies - 2] = new Delimiter(b, b.pos.x - b.width - World.BOUNDINGMARGIN, true);
-		delX[2 * numBodies - 1] = new Delimiter(b, b.pos.x + b.width + World.BOUNDINGMARGIN, false);
-		delY[2 * numBodies - 2] = new Delimiter(b, b.pos.y - b.height - World.BOUNDINGMARGIN, true);
-		delY[2 * numBodies - 1] = new Delimiter(b, b.pos.y + b.height + World.BOUNDINGMARGIN, false);
-		sort();
-		updateDelIndicesX();
-		updateDelIndicesY();
-		findPairsForNewBody(b);
-	}
-	private void extendArrays() {
-		Delimiter[] newDelX, newDelY;
-		newDelX = new Delimiter[delX.length + CollisionHandler.RESERVEDSPACE * 2];
-		newDelY = new Delimiter[delY.length + CollisionHandler.RESERVEDSPACE * 2];
-		for (int i = 0; i < delX.length; i++) {
-			newDelX[i] = delX[i];
-			newDelY[i] = delY[i];
+		if (p != null) {
+			if (arbiterCache != null) {
+				arbiterCache.store(p);
+			}
+			p.b1.pairs.remove(p);
+			p.b2.pairs.remove(p);
+			pairsRemoved++;
 		}
-		delX = newDelX;
-		delY = newDelY;
-	}
-	public void remBody(Body b) {
-		// Delete delimiters out of delimiter array.
-		cleanDelimiter(delX, b, false);
-		cleanDelimiter(delX, b, true);
-		cleanDelimiter(delY, b, false);
-		cleanDelimiter(delY, b, true);
-		numBodies--;
 	}
 	/**
-	 * Is called whenever a body is removed. Will set the array position that contains the bodies delimiter to null and shift all following array entries down one spot.
-	 * 
-	 * @param dels
-	 * @param b
-	 * @param start
+	 * Collects all pairs in pairsList. Every pair is stored in both of its bodies, so it is only taken from its first one.
 	 */
-	private void cleanDelimiter(Delimiter[] dels, Body b, boolean start) {
-		for (int i = 0; i < numBodies * 2; i++) {
-			if (dels[i] == null) { // Reached the end of the array (possible
-									// because one delimiter could already have
-									// been removed.)
-				assert (i == numBodies * 2 - 1);
-				break;
-			}
-			if (dels[i].body == b && (start == dels[i].isStart)) {
-				dels[i] = null;
-			}
-			if (i > 0 && dels[i - 1] == null) {
-				dels[i - 1] = dels[i];
-				dels[i] = null;
-			}
-		}
-	}
-	// Performs a quick sort on the array. This method is not used in normal
-	// running time, only at initialization and whenenver bodies are
-	// added/removed.
-	private void sort() {
-		quicksort(delX, 0, numBodies * 2 - 1);
-		quicksort(delY, 0, numBodies * 2 - 1);
-		for (int i = 0; i < numBodies * 2 - 1; i++) {
-			assert (delX[i].pos <= delX[i + 1].pos);
-			assert (delY[i].pos <= delY[i + 1].pos);
-		}
-	}
-	private Delimiter[] quicksort(Delimiter[] delimits, int left, int right) {
-		if (right < left)
-			return delimits;
-		int i = left, j = right;
-		float pivot = delimits[(left + right) / 2].pos;
-		Delimiter tmp;
-		while (i <= j) {
-			while (delimits[i].pos < pivot) {
-				i++;
-			}
-			while (delimits[j].pos > pivot) {
-				j--;
-			}
-			if (i <= j) {
-				tmp = delimits[i];
-				delimits[i] = delimits[j];
-				delimits[j] = tmp;
-				i++;
-				j--;
-			}
-		}
-		if (left < j)
-			quicksort(delimits, left, j);
-		if (i < right)
-			quicksort(delimits, i, right);
-		return delimits;
-	}
-	private void findPairsForNewBody(Body b) {
-		// Set all relevant delFound to false
-		for (int i = 0; i < b.delIdEndX; i++) {
-			delX[i].body.flag = false;
-		}
-		// All bodies to the left of b are only pairs if there's one delimiter
-		// to the left, not two
-		for (int i = 0; i < b.delIdStartX; i++) {
-			delX[i].body.flag = !b.flag; // If a body is found two times it is
-											// not added to the pairs list
-		}
-		// Every body that has one delimiter to the left of b surrounds b
-		for (int i = 0; i < b.delIdStartX; i++) {
-			if (delX[i].body.flag) {
-				addPairX(b, delX[i].body);
+	protected void collectPairs(Vector<Pair> pairsList) {
+		pairsList.clear();
+		Body b;
+		Pair p;
+		for (int i = 0; i < world.numBodies; i++) {
+			b = world.getBody(i);
+			for (int j = 0; j < b.pairs.size(); j++) {
+				p = b.pairs.get(j);
+				if (p.b1 == b)
+					pairsList.add(p);
 			}
 		}
-		// Every body that has any delimiter between the bodies bounds is added
-		// as a pair (If a body gets added twice the addPair method will take
-		// care of it)
-		for (int i = b.delIdStartX + 1; i < b.delIdEndX; i++) {
-			addPairX(b, delX[i].body);
-		}
-	}
-	public void setPairArray(Pair[][] pairs) {
-		pairArray = pairs;
 	}
 }
@@ -1,8 +1,80 @@
 package physics.collision;
 import tools.Point;
+/**
+ * Result of a narrowphase test. Owned by the caller and reused for every pair, the narrowphase only writes into the points (so the values have to be copied before the next test, see Pair.update).
+ */
 public class ColInfo {
-	Point pos, pos2;
-	float depth;
-	Point normal;
-	float time;
+	public final Point pos = new Point(), pos2 = new Point();
+	// Points from the first body towards the second one
+	public final Point normal = new Point();
+	// 1 or 2, pos2 is only valid if there are two contact points
+	public int numPoints;
+	public float depth;
+	public float time;
+	// Further contact points, each with its own normal and depth. Only used
+	// by compound bodies, where several children can touch at once (see
+	// CompoundCollision).
+	public int numExtra;
+	public Point[] extraPos = new Point[0], extraNormal = new Point[0];
+	public float[] extraDepth = new float[0];
+	/**
+	 * Has to be called by every test before writing the result.
+	 */
+	public void clear() {
+		numPoints = 1;
+		depth = 0.0f;
+		time = 0.0f;
+		numExtra = 0;
+	}
+	/**
+	 * Copies the contact of c (which must not have extra points) into this.
+	 */
+	public void set(ColInfo c) {
+		clear();
+		pos.from(c.pos);
+		pos2.from(c.pos2);
+		normal.from(c.normal);
+		numPoints = c.numPoints;
+		depth = c.depth;
+		time = c.time;
+	}
+	/**
+	 * Appends the contact points of c (which must not have extra points) as extra points.
+	 */
+	public void addPoints(ColInfo c) {
+		addPoint(c.pos, c.normal, c.depth);
+		if (c.numPoints == 2) {
+			addPoint(c.pos2, c.normal, c.depth);
+		}
+	}
+	public void addPoint(Point p, Point n, float d) {
+		if (numExtra == extraPos.length) {
+			int size = Math.max(4, numExtra * 2);
+			Point[] newPos = new Point[size], newNormal = new Point[size];
+			System.arraycopy(extraPos, 0, newPos, 0, numExtra);
+			System.arraycopy(extraNormal, 0, newNormal, 0, numExtra);
+			for (int i = numExtra; i < size; i++) {
+				newPos[i] = new Point();
+				newNormal[i] = new Point();
+			}
+			float[] newDepth = new float[size];
+			System.arraycopy(extraDepth, 0, newDepth, 0, numExtra);
+			extraPos = newPos;
+			extraNormal = newNormal;
+			extraDepth = newDepth;
+		}
+		extraPos[numExtra].from(p);
+		extraNormal[numExtra].from(n);
+		extraDepth[numExtra] = d;
+		numExtra++;
+	}
+	/**
+	 * Turns all normals around.
+	 */
+	public void negateNormals() {
+		normal.sNeg();
+		for (int i = 0; i < numExtra; i++) {
+			extraNormal[i].sNeg();
+		}
+	}
 }
@@ -0,0 +1,108 @@
+package physics.collision;
+import physics.Body;
+import physics.shapes.Circle;
+import physics.shapes.Polygon;
+import physics.shapes.Shape;
+/**
+ * Table of the narrowphase collision tests, indexed by the type ids of both shapes (see Shape.type). The CollisionHandler looks up the test of every pair here, so new shape types (or better tests for existing ones) can be added by registering them, without touching the CollisionHandler.
+ *
+ * A test that is registered for (type1, type2) is automatically registered for (type2, type1) as well, by swapping the bodies and negating the normal. The normal of the result always points from the first body towards the second one.
+ *
+ * Tests get the shapes to test separately from the bodies, since the shapes of a Compound are tested one by one (see CompoundCollision). A new shape type that should collide with compounds has to register CompoundCollision.COLLIDER for (Shape.COMPOUND, type).
+ *
+ * @author toni
+ *
+ */
+public class CollisionDispatcher {
+	/**
+	 * A narrowphase test of the shape s1 of body b1 and the shape s2 of body b2. Writes the collision into col and returns true if the shapes collide. Must only use ctx and col as scratch space so that it can run on several threads at once.
+	 */
+	public interface Collider {
+		public boolean collide(Body b1, Body b2, Shape s1, Shape s2, float dt, NarrowphaseContext ctx, ColInfo col);
+	}
+	private static Collider[][] table = new Collider[3][3];
+	// Default of gjkVertexCount
+	public static final int GJKVERTEXCOUNT = 12;
+	// Pairs of polygons with more vertices than this are tested with GJK/EPA
+	// instead of SAT
+	private static int gjkVertexCount = GJKVERTEXCOUNT;
+	static {
+		register(Shape.POLYGON, Shape.POLYGON, (b1, b2, s1, s2, dt, ctx, col) -> {
+			Polygon p1 = (Polygon) s1, p2 = (Polygon) s2;
+			if (p1.numPoints + p2.numPoints > gjkVertexCount) {
+				return GJK.polygonPolygon(b1, b2, p1, p2, dt, ctx, col);
+			}
+			return PolygonPolygon.collision(b1, b2, p1, p2, dt, ctx, col);
+		});
+		// Faster than SAT and GJK for any vertex count
+		register(Shape.POLYGON, Shape.CIRCLE, (b1, b2, s1, s2, dt, ctx, col) -> PolygonCircle.closestFeature(b1, b2, (Polygon) s1, (Circle) s2, dt, ctx, col));
+		register(Shape.CIRCLE, Shape.CIRCLE, (b1, b2, s1, s2, dt, ctx, col) -> CircleCircle.collision(b1, b2, (Circle) s1, (Circle) s2, dt, ctx, col));
+		register(Shape.COMPOUND, Shape.CIRCLE, CompoundCollision.COLLIDER);
+		register(Shape.COMPOUND, Shape.POLYGON, CompoundCollision.COLLIDER);
+		register(Shape.COMPOUND, Shape.COMPOUND, CompoundCollision.COLLIDER);
+	}
+	/**
+	 * Registers the test for bodies with the shape types type1 and type2 (and the swapped test for type2, type1). Replaces any test that was registered before. Should be done before the world is stepped, the table is not synchronized.
+	 */
+	public static synchronized void register(int type1, int type2, Collider collider) {
+		int size = Math.max(type1, type2) + 1;
+		if (size > table.length) {
+			Collider[][] newTable = new Collider[size][size];
+			for (int i = 0; i < table.length; i++) {
+				System.arraycopy(table[i], 0, newTable[i], 0, table.length);
+			}
+			table = newTable;
+		}
+		table[type1][type2] = collider;
+		if (type1 != type2) {
+			table[type2][type1] = new Swapped(collider);
+		}
+	}
+	/**
+	 * Pairs of polygons whose vertex counts add up to more than count are tested with GJK/EPA instead of SAT. SAT is faster for small polygons, GJK for large ones. Polygons and circles are always tested with PolygonCircle.closestFeature.
+	 */
+	public static void setGJKVertexCount(int count) {
+		gjkVertexCount = count;
+	}
+	public static int getGJKVertexCount() {
+		return gjkVertexCount;
+	}
+	/**
+	 * Returns the test for the given shape types or null if there is none.
+	 */
+	public static Collider get(int type1, int type2) {
+		Collider[][] t = table;
+		if (type1 >= t.length || type2 >= t.length)
+			return null;
+		return t[type1][type2];
+	}
+	/**
+	 * Runs the test that is registered for the shapes of both bodies. Returns false if there is none.
+	 */
+	public static boolean collide(Body b1, Body b2, float dt, NarrowphaseContext ctx, ColInfo col) {
+		return collide(b1, b2, b1.shape, b2.shape, dt, ctx, col);
+	}
+	/**
+	 * Runs the test that is registered for the shapes s1 (of b1) and s2 (of b2). Returns false if there is none.
+	 */
+	public static boolean collide(Body b1, Body b2, Shape s1, Shape s2, float dt, NarrowphaseContext ctx, ColInfo col) {
+		Collider c = get(s1.type, s2.type);
+		return c != null && c.collide(b1, b2, s1, s2, dt, ctx, col);
+	}
+	/**
+	 * Runs a test with the bodies swapped and turns the normal around.
+	 */
+	private static class Swapped implements Collider {
+		private Collider collider;
+		Swapped(Collider collider) {
+			this.collider = collider;
+		}
+		public boolean collide(Body b1, Body b2, Shape s1, Shape s2, float dt, NarrowphaseContext ctx, ColInfo col) {
+			if (collider.collide(b2, b1, s2, s1, dt, ctx, col)) {
+				col.negateNormals();
+				return true;
+			}
+			return false;
+		}
+	}
+}
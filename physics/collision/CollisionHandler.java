@@ -1,61 +1,156 @@
 package physics.collision;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Vector;
 
 import physics.Body;
 import physics.PhysicalConstants;
 import physics.World;
-import physics.shapes.Circle;
-import physics.shapes.Polygon;
-import tools.Log;
+import tools.LongHashMap;
+import tools.Parallel;
 /**
- * @author toni Handles collision detection. Manages broad-, mid- and narrowphase Consistently keeps track of body-pairs that are flagged for collision checks. This is accomplished by a sweep-and-prune algorithm For every pair in the resulting list, mid- and narrowphase calculations are performed. The resulting data is then stored in the pair class itself, being the point, normal and depth of collision. The contact - class is held in the pair class as well. Each call of handle will return a list of contacts that can be accessed directly by the contact solver Contacts must not be recreated every frame but instead kept alive and then get updated in each frame. Current solution: Keep pairs stored in quadratic array (do not access directly, will be changed in future versions) so that the contact pair between body i and j is pairs[i][j] = pairs[j][i]
+ * @author toni Handles collision detection. Manages broad-, mid- and narrowphase Consistently keeps track of body-pairs that are flagged for collision checks. This is accomplished by a sweep-and-prune algorithm For every pair in the resulting list, mid- and narrowphase calculations are performed (the test for each pair of shape types is looked up in the CollisionDispatcher). The resulting data is then stored in the pair class itself, being the point, normal and depth of collision. The contact - class is held in the pair class as well. Each call of handle will return a list of contacts that can be accessed directly by the contact solver Contacts must not be recreated every frame but instead kept alive and then get updated in each frame. Pairs are stored in a sparse hash table keyed on the (unordered) pair of body indices (see Pair.key), so that memory scales with the number of overlapping bodies and not with the square of the body count.
  * 
  */
 public class CollisionHandler implements Serializable {
 	public static final int RESERVEDSPACE = 300;
+	// Available broadphase algorithms (see World(int))
+	public static final int SWEEPANDPRUNE = 0;
+	public static final int AABBTREE = 1;
+	public static final int SPATIALHASH = 2;
+	// Minimum number of pairs per chunk of the parallel narrowphase
+	public static final int NARROWPHASECHUNK = 256;
 	private World world;
-	private Pair[][] pairs;
+	private LongHashMap<Pair> pairs;
 	private Vector<Pair> pairsList;
 	private Broadphase broadphase;
+	private ArbiterCache arbiterCache;
+	// Scratch space and result of the narrowphase, reused for every pair
+	private transient NarrowphaseContext context;
+	private transient ColInfo colInfo;
+	private transient Vector<Pair> contacts;
+	// Whether the narrowphase runs on several threads
+	private boolean parallel;
+	// Statistics of the separating axis cache in the last frame
+	private int axisCacheTests, axisCacheHits;
+	// One context, result and contact buffer per chunk of the parallel
+	// narrowphase
+	private transient NarrowphaseContext[] chunkContexts;
+	private transient ColInfo[] chunkColInfos;
+	private transient Vector<Vector<Pair>> chunkContacts;
 	private int numBodies;
 	public CollisionHandler(World w) {
+		this(w, SWEEPANDPRUNE);
+	}
+	public CollisionHandler(World w, int broadphaseType) {
 		world = w;
 		numBodies = world.numBodies;
-		pairs = new Pair[numBodies + RESERVEDSPACE][numBodies + RESERVEDSPACE];
+		pairs = new LongHashMap<Pair>();
 		pairsList = new Vector<Pair>();
-		broadphase = new Broadphase(world, PhysicalConstants.DT, pairs);
+		context = new NarrowphaseContext();
+		colInfo = new ColInfo();
+		contacts = new Vector<Pair>();
+		switch (broadphaseType) {
+			case AABBTREE :
+				broadphase = new AABBTree(world, PhysicalConstants.DT, pairs);
+				break;
+			case SPATIALHASH :
+				broadphase = new SpatialHashGrid(world, PhysicalConstants.DT, pairs);
+				break;
+			default :
+				broadphase = new SweepAndPrune(world, PhysicalConstants.DT, pairs);
+		}
+		arbiterCache = new ArbiterCache();
+		broadphase.setArbiterCache(arbiterCache);
 	}
+	/**
+	 * Runs the broad- and the narrowphase. Returns the pairs that collide. The returned vector is reused in the next call.
+	 */
 	public Vector<Pair> handle(float dt) {
-		Vector<Pair> contacts = new Vector<Pair>();
+		contacts.clear();
+		arbiterCache.nextFrame();
 		broadphase.update(dt, pairsList);
-		for (Pair p : pairsList) {
-			ColInfo c = null;
+		int numChunks = Math.min((pairsList.size() + NARROWPHASECHUNK - 1) / NARROWPHASECHUNK, Parallel.THREADS * 4);
+		if (parallel && numChunks > 1) {
+			narrowphaseConcurrently(dt, numChunks);
+			axisCacheTests = 0;
+			axisCacheHits = 0;
+			for (int c = 0; c < numChunks; c++) {
+				axisCacheTests += chunkContexts[c].axisCacheTests;
+				axisCacheHits += chunkContexts[c].axisCacheHits;
+			}
+		}
+		else {
+			narrowphase(dt, 0, pairsList.size(), context, colInfo, contacts);
+			axisCacheTests = context.axisCacheTests;
+			axisCacheHits = context.axisCacheHits;
+		}
+		return contacts;
+	}
+	/**
+	 * Runs the narrowphase for the pairs [start, end) of pairsList and adds the colliding ones to result.
+	 */
+	private void narrowphase(float dt, int start, int end, NarrowphaseContext ctx, ColInfo col, Vector<Pair> result) {
+		Pair p;
+		ctx.axisCacheTests = 0;
+		ctx.axisCacheHits = 0;
+		for (int i = start; i < end; i++) {
+			p = pairsList.get(i);
 			if (ignoreCollision(p)) {
 				continue;
 			}
-			if (p.b1.shape instanceof Polygon) {
-				if (p.b2.shape instanceof Polygon) {
-					c = doPolygonPolygon(dt, p);
-				}
-				if (p.b2.shape instanceof Circle) {
-					c = doPolygonCircle(dt, p);
-				}
+			ctx.pair = p;
+			if (CollisionDispatcher.collide(p.b1, p.b2, dt, ctx, col)) {
+				p.update(col);
+				result.add(p);
 			}
-			if (p.b1.shape instanceof Circle) {
-				if (p.b2.shape instanceof Polygon) {
-					c = doCirclePolygon(dt, p);
-				}
-				if (p.b2.shape instanceof Circle) {
-					c = doCircleCircle(dt, p);
-				}
+		}
+		ctx.pair = null;
+	}
+	/**
+	 * Splits pairsList into numChunks consecutive chunks that are tested in parallel. Every chunk has its own context and buffer, the buffers are appended in the order of the chunks, so the contacts come out in exactly the same order as in the serial narrowphase. Each pair (and its arbiter) is only updated by the thread of its chunk.
+	 */
+	private void narrowphaseConcurrently(final float dt, int numChunks) {
+		if (chunkContexts == null || chunkContexts.length < numChunks) {
+			chunkContexts = new NarrowphaseContext[numChunks];
+			chunkColInfos = new ColInfo[numChunks];
+			chunkContacts = new Vector<Vector<Pair>>(numChunks);
+			for (int i = 0; i < numChunks; i++) {
+				chunkContexts[i] = new NarrowphaseContext();
+				chunkColInfos[i] = new ColInfo();
+				chunkContacts.add(new Vector<Pair>());
 			}
-			if (c != null) {
-				p.update(c);
-				contacts.add(p);
+		}
+		final int n = pairsList.size();
+		final int chunkSize = (n + numChunks - 1) / numChunks;
+		Parallel.forChunks(numChunks, (first, last) -> {
+			for (int c = first; c < last; c++) {
+				Vector<Pair> chunk = chunkContacts.get(c);
+				chunk.clear();
+				narrowphase(dt, Math.min(c * chunkSize, n), Math.min((c + 1) * chunkSize, n), chunkContexts[c], chunkColInfos[c], chunk);
 			}
+		});
+		for (int c = 0; c < numChunks; c++) {
+			contacts.addAll(chunkContacts.get(c));
 		}
-		return contacts;
+	}
+	/**
+	 * Number of pairs in the last frame for which the axis that separated them in an earlier frame was tested first.
+	 */
+	public int getAxisCacheTests() {
+		return axisCacheTests;
+	}
+	/**
+	 * Number of pairs in the last frame that were still separated by their cached axis, so that no other axis had to be tested.
+	 */
+	public int getAxisCacheHits() {
+		return axisCacheHits;
+	}
+	/**
+	 * Lets the narrowphase run on several threads.
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
 	}
 	/**
 	 * Determines whether a collision between a pair of bodies should be processed or not. Collisions should not be processed if: 1. Both bodies are static. 2. Both bodies are asleep. 3. The bodies are explicitly non-colliding (can be set from outside and used for game reasons).
@@ -70,105 +165,67 @@ public class CollisionHandler implements Serializable {
 			return true;
 		return !p.b1.collidesWith(p.b2);
 	}
-	private ColInfo doPolygonPolygon(float dt, Pair p) {
-		return PolygonPolygon.collision(p.b1, p.b2, (Polygon) p.b1.shape, (Polygon) p.b2.shape, dt);
-	}
-	private ColInfo doCircleCircle(float dt, Pair p) {
-		return CircleCircle.collision(p.b1, p.b2, (Circle) p.b1.shape, (Circle) p.b2.shape, dt);
-	}
-	private ColInfo doCirclePolygon(float dt, Pair p) {
-		ColInfo c = PolygonCircle.collision(p.b2, p.b1, (Polygon) p.b2.shape, (Circle) p.b1.shape, dt);
-		if (c != null)
-			c.normal.sNeg();
-		return c;
-	}
-	private ColInfo doPolygonCircle(float dt, Pair p) {
-		ColInfo c = PolygonCircle.collision(p.b1, p.b2, (Polygon) p.b1.shape, (Circle) p.b2.shape, dt);
-		return c;
-	}
 	public void addBody(Body b) {
 		numBodies++;
-		if (numBodies > pairs.length) {
-			extendArray();
-		}
 		broadphase.addBody(b);
 	}
-	private void extendArray() {
-		Log.p("Broadphase collision array extended");
-		Pair[][] newPairs = new Pair[numBodies + RESERVEDSPACE][numBodies + RESERVEDSPACE];
-		for (int i = 0; i < pairs.length; i++) {
-			for (int j = 0; j < pairs.length; j++) {
-				newPairs[i][j] = pairs[i][j];
-			}
-		}
-		pairs = newPairs;
-		broadphase.setPairArray(pairs);
+	public void addBodies(Collection<Body> bodies) {
+		numBodies += bodies.size();
+		broadphase.addBodies(bodies);
 	}
+	/**
+	 * Removes all pairs of the given body. Only touches the pairs of this body, so the cost is proportional to its number of pairs. Has to be called while the body is still at its index in the world.
+	 * 
+	 * @return Every pair that was connected to this body, so that the world outside can do something with it.
+	 */
 	public Vector<Pair> remBody(Body b) {
 		numBodies--;
-		// Save every pair that is connected to this body.
-		// Return this array, so that the world outside can do something with
-		// it.
 		Vector<Pair> allPairsWithThisBody = getAllPairs(b);
-		// Resort array correctly
-		// [0 0 0]
-		// [0 0 1]
-		// [0 1 0]
-		// becomes
-		// [0 1 0]
-		// [1 0 0]
-		// [0 0 0]
-		// if the first body is removed
-		// (0 represents null, 1 represents a pair)
-		Pair p;
-		for (int i = 0; i < pairs.length; i++) {
-			p = pairs[i][b.indexInWorld];
-			if (p != null) {
-				if (i < b.indexInWorld) { // The pair is always in the body with
-											// the lower id
-					p.otherThan(b).pairs.remove(p);
-				}
-				else {
-					b.pairs.remove(p);
-				}
-				pairs[i][b.indexInWorld] = null;
-				pairs[b.indexInWorld][i] = null;
-			}
-		}
-		for (int i = 0; i < pairs.length; i++) {
-			for (int j = i + 1; j < pairs.length; j++) {
-				if (pairs[i][j] != null) {
-					int realIdI = pairs[i][j].b1.indexInWorld;
-					int realIdJ = pairs[i][j].b2.indexInWorld;
-					// Delete old array entry and swap it with the new, correct
-					// position
-					// Assumes that the pair at [realIdI][realIdJ] has already
-					// been moved to its correct place.
-					// This should always be true
-					Pair tmp = pairs[i][j];
-					pairs[i][j] = null;
-					pairs[j][i] = null;
-					pairs[realIdI][realIdJ] = tmp;
-					pairs[realIdJ][realIdI] = tmp;
-				}
-			}
+		for (Pair p : allPairsWithThisBody) {
+			p.otherThan(b).pairs.remove(p);
+			pairs.remove(Pair.key(p.b1.indexInWorld, p.b2.indexInWorld));
 		}
+		b.pairs.clear();
 		broadphase.remBody(b);
 		return allPairsWithThisBody;
 	}
-	public Vector<Pair> getAllPairs(Body body) {
-		Vector<Pair> pairsWithThisBody = new Vector<Pair>();
-		for (int i = 0; i < pairs.length; i++) {
-			if (pairs[i][body.indexInWorld] != null) {
-				pairsWithThisBody.add(pairs[i][body.indexInWorld]);
-			}
+	/**
+	 * Is called whenever a body got a new index in the world (because it was moved into the place of a removed body). Re-keys the pairs of the body.
+	 * 
+	 * @param b
+	 * @param oldIndex
+	 *            The index the body had before.
+	 */
+	public void bodyMoved(Body b, int oldIndex) {
+		for (Pair p : b.pairs) {
+			int otherIndex = p.otherThan(b).indexInWorld;
+			pairs.remove(Pair.key(oldIndex, otherIndex));
+			pairs.put(Pair.key(b.indexInWorld, otherIndex), p);
 		}
-		return pairsWithThisBody;
+	}
+	public Broadphase getBroadphase() {
+		return broadphase;
+	}
+	public ArbiterCache getArbiterCache() {
+		return arbiterCache;
+	}
+	/**
+	 * Returns the arbiter for a pair that has none yet. Reuses the arbiter of the two bodies from the cache if they touched a few frames ago, so the warmstarting impulses are kept.
+	 */
+	public Arbiter getArbiter(Pair p) {
+		Arbiter a = arbiterCache.take(p);
+		if (a == null) {
+			a = new Arbiter(p);
+		}
+		return a;
+	}
+	public Vector<Pair> getAllPairs(Body body) {
+		return new Vector<Pair>(body.pairs);
 	}
 	public void setUpPairs(Body b1) {
 		b1.pairs = new Vector<Pair>();
-		for (int i = b1.indexInWorld; i < numBodies; i++) {
-			Pair p = pairs[b1.indexInWorld][i];
+		for (int i = 0; i < numBodies; i++) {
+			Pair p = pairs.get(Pair.key(b1.indexInWorld, i));
 			if (p != null)
 				b1.pairs.add(p);
 		}
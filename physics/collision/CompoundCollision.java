@@ -0,0 +1,65 @@
+package physics.collision;
+import physics.Body;
+import physics.World;
+import physics.shapes.Compound;
+import physics.shapes.Shape;
+/**
+ * Tests compound bodies (see Compound) against other bodies. Only the children whose bounds touch the bounds of the other body (or of the other child, if both bodies are compounds) are tested, each with the test that is registered for its shape in the CollisionDispatcher. The bounds are enlarged by the relative movement within the timestep, so the continuous collision detection of the child tests still works. The first colliding child gives the contact of the result, the contacts of all further children are added as extra points, each with its own normal.
+ *
+ * @author toni
+ *
+ */
+public class CompoundCollision {
+	public static final CollisionDispatcher.Collider COLLIDER = CompoundCollision::collision;
+	/**
+	 * Writes the contacts of the compound s1 (of b1) and the shape s2 (of b2) into col and returns true if any child collides. s2 may be a compound as well.
+	 */
+	public static boolean collision(Body b1, Body b2, Shape s1, Shape s2, float dt, NarrowphaseContext ctx, ColInfo col) {
+		Compound c1 = (Compound) s1;
+		Compound c2 = (s2.type == Shape.COMPOUND) ? (Compound) s2 : null;
+		ColInfo child = ctx.childInfo;
+		float marginX = Math.abs(b1.vel.x - b2.vel.x) * dt + World.BOUNDINGMARGIN;
+		float marginY = Math.abs(b1.vel.y - b2.vel.y) * dt + World.BOUNDINGMARGIN;
+		// The cached separating axis of the pair belongs to whole shapes, not
+		// to the children
+		Pair pair = ctx.pair;
+		ctx.pair = null;
+		boolean collides = false;
+		for (int i = 0; i < c1.numChildren; i++) {
+			float minX = c1.childMinX[i] - marginX, minY = c1.childMinY[i] - marginY;
+			float maxX = c1.childMaxX[i] + marginX, maxY = c1.childMaxY[i] + marginY;
+			if (!overlap(minX, minY, maxX, maxY, b2.minX, b2.minY, b2.maxX, b2.maxY)) {
+				continue;
+			}
+			if (c2 == null) {
+				if (CollisionDispatcher.collide(b1, b2, c1.children[i], s2, dt, ctx, child)) {
+					add(col, child, collides);
+					collides = true;
+				}
+				continue;
+			}
+			for (int j = 0; j < c2.numChildren; j++) {
+				if (!overlap(minX, minY, maxX, maxY, c2.childMinX[j], c2.childMinY[j], c2.childMaxX[j], c2.childMaxY[j])) {
+					continue;
+				}
+				if (CollisionDispatcher.collide(b1, b2, c1.children[i], c2.children[j], dt, ctx, child)) {
+					add(col, child, collides);
+					collides = true;
+				}
+			}
+		}
+		ctx.pair = pair;
+		return collides;
+	}
+	private static void add(ColInfo col, ColInfo child, boolean collided) {
+		if (collided) {
+			col.addPoints(child);
+		}
+		else {
+			col.set(child);
+		}
+	}
+	private static boolean overlap(float minX1, float minY1, float maxX1, float maxY1, float minX2, float minY2, float maxX2, float maxY2) {
+		return minX1 <= maxX2 && maxX1 >= minX2 && minY1 <= maxY2 && maxY1 >= minY2;
+	}
+}
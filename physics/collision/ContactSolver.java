@@ -0,0 +1,315 @@
+package physics.collision;
+import java.util.Vector;
+
+import physics.Body;
+import physics.World;
+import physics.joints.Joint;
+import physics.joints.TwoBodyJoint;
+import tools.Log;
+/**
+ * Solves the contacts of all arbiters on flat float arrays instead of walking through the Contact, Point and Body objects for every impulse. After preSolve the data of every contact (offsets, normal, masses, bias, accumulated impulses, friction and the slots of both bodies) and the velocities of every body that is touched by a contact are copied into arrays once per step, the iterations then only work on those arrays and everything is written back after the last iteration. The math is exactly the one of Arbiter.solve (in the same order), so the results are the same.
+ *
+ * The joints are still solved on their objects between the contact iterations. The bodies that have a contact and a joint are copied back before and loaded again after the joints of every iteration.
+ *
+ * @author toni
+ *
+ */
+public class ContactSolver {
+	private World world;
+	// Per contact
+	protected int numContacts;
+	protected int[] body1 = new int[0], body2 = new int[0];
+	protected float[] r1x = new float[0], r1y = new float[0], r2x = new float[0], r2y = new float[0];
+	protected float[] nx = new float[0], ny = new float[0];
+	protected float[] massNormal = new float[0], massTangent = new float[0], bias = new float[0], friction = new float[0];
+	protected float[] accPn = new float[0], accPnb = new float[0], accPt = new float[0];
+	private Contact[] contacts = new Contact[0];
+	// Per body slot
+	protected int numBodies;
+	private Body[] bodies = new Body[0];
+	protected float[] velX = new float[0], velY = new float[0], avel = new float[0];
+	protected float[] biasX = new float[0], biasY = new float[0];
+	protected float[] invmass = new float[0], invinertia = new float[0];
+	// Slot of every body of the world, -1 if it has none
+	private int[] slotOf = new int[0];
+	// Slots of the bodies that are touched by joints as well
+	private int numShared;
+	private int[] shared = new int[0];
+	private boolean[] isShared = new boolean[0];
+	public ContactSolver(World w) {
+		world = w;
+	}
+	/**
+	 * Returns a VectorContactSolver if it was compiled, the jdk.incubator.vector module is there at runtime and the cpu has 256 bit vectors, a scalar ContactSolver otherwise. The class is only looked up by name, so the rest of the engine compiles and runs without the module.
+	 */
+	public static ContactSolver createVectorized(World w) {
+		try {
+			Class<?> c = Class.forName("physics.collision.VectorContactSolver");
+			if (!(Boolean) c.getMethod("isSupported").invoke(null)) {
+				Log.p("ContactSolver : the cpu has no 256 bit vectors, using the scalar solver");
+				return new ContactSolver(w);
+			}
+			return (ContactSolver) c.getConstructor(World.class).newInstance(w);
+		} catch (ReflectiveOperationException | LinkageError e) {
+			Log.p("ContactSolver : no vector solver (" + e + "), using the scalar one. Run with --add-modules jdk.incubator.vector");
+			return new ContactSolver(w);
+		}
+	}
+	/**
+	 * Whether the contacts are solved with SIMD instructions (see VectorContactSolver).
+	 */
+	public boolean isVectorized() {
+		return false;
+	}
+	/**
+	 * Solves the arbiters and the joints of the world for at least minIterations and at most maxIterations rounds, stopping as soon as no impulse changed by more than tolerance. preSolve has to be done already. Returns the number of iterations.
+	 */
+	public int solve(Vector<Arbiter> arbiters, int minIterations, int maxIterations, float tolerance) {
+		pack(arbiters);
+		int k = 0;
+		while (k < maxIterations) {
+			float delta = solveContacts();
+			if (world.numJoints > 0) {
+				storeShared();
+				for (int j = 0; j < world.numJoints; j++) {
+					Joint joint = world.getJoint(j);
+					joint.solve();
+					delta = Math.max(delta, joint.delta);
+				}
+				loadShared();
+			}
+			k++;
+			if (k >= minIterations && delta < tolerance) {
+				break;
+			}
+		}
+		unpack();
+		return k;
+	}
+	/**
+	 * One iteration over all contacts. Returns the largest change of an impulse.
+	 */
+	protected float solveContacts() {
+		float delta = 0.0f;
+		for (int i = 0; i < numContacts; i++) {
+			delta = Math.max(delta, solveContact(i));
+		}
+		return delta;
+	}
+	/**
+	 * Solves contact i once. Returns the largest change of its impulses.
+	 */
+	protected float solveContact(int i) {
+		int b1 = body1[i], b2 = body2[i];
+		float nX = nx[i], nY = ny[i];
+		// Tangent = normal of the normal
+		float tX = -nY, tY = nX;
+		// Relative velocity at the contact
+		float dvX = (-r2y[i]) * avel[b2] + velX[b2] - ((-r1y[i]) * avel[b1] + velX[b1]);
+		float dvY = -(-r2x[i]) * avel[b2] + velY[b2] - (-(-r1x[i]) * avel[b1] + velY[b1]);
+		// --- Normal --- //
+		float dPn = massNormal[i] * (-(dvX * nX + dvY * nY));
+		float pn0 = accPn[i];
+		accPn[i] = max(pn0 + dPn, 0.0f);
+		dPn = accPn[i] - pn0;
+		applyImpulse(b1, b2, nX * dPn, nY * dPn, i);
+		// --- Position correction --- //
+		float dvbX = biasX[b2] - biasX[b1];
+		float dvbY = biasY[b2] - biasY[b1];
+		float dPnb = massNormal[i] * (-(dvbX * nX + dvbY * nY) + bias[i]);
+		float pnb0 = accPnb[i];
+		accPnb[i] = max(pnb0 + dPnb, 0.0f);
+		dPnb = accPnb[i] - pnb0;
+		float pbX = nX * dPnb, pbY = nY * dPnb;
+		biasX[b2] += pbX * invmass[b2];
+		biasY[b2] += pbY * invmass[b2];
+		biasX[b1] += -pbX * invmass[b1];
+		biasY[b1] += -pbY * invmass[b1];
+		// --- Friction --- //
+		float dPt = massTangent[i] * -(dvX * tX + dvY * tY);
+		float maxPt = friction[i] * accPn[i];
+		float pt0 = accPt[i];
+		accPt[i] = Math.max(Math.min(pt0 + dPt, maxPt), -maxPt);
+		dPt = accPt[i] - pt0;
+		applyImpulse(b1, b2, tX * dPt, tY * dPt, i);
+		return Math.max(Math.abs(dPn), Math.max(Math.abs(dPnb), Math.abs(dPt)));
+	}
+	/**
+	 * Applies the impulse (px, py) at contact i to the body in slot b2 and the opposite impulse to the body in slot b1 (see Body.applyConstImpulse).
+	 */
+	private void applyImpulse(int b1, int b2, float px, float py, int i) {
+		velX[b2] += px * invmass[b2];
+		velY[b2] += py * invmass[b2];
+		avel[b2] += invinertia[b2] * (-r2y[i] * px + r2x[i] * py);
+		px = -px;
+		py = -py;
+		velX[b1] += px * invmass[b1];
+		velY[b1] += py * invmass[b1];
+		avel[b1] += invinertia[b1] * (-r1y[i] * px + r1x[i] * py);
+	}
+	private static float max(float x, float y) {
+		return (x > y) ? x : y;
+	}
+	/**
+	 * Copies the contacts and the velocities of their bodies into the arrays.
+	 */
+	protected void pack(Vector<Arbiter> arbiters) {
+		int n = 0;
+		for (int i = 0; i < arbiters.size(); i++) {
+			n += arbiters.get(i).num;
+		}
+		ensureContacts(n);
+		// One slot more than needed, see VectorContactSolver
+		ensureBodies(2 * arbiters.size() + 1);
+		if (slotOf.length < world.numBodies) {
+			slotOf = new int[2 * world.numBodies];
+			for (int i = 0; i < slotOf.length; i++) {
+				slotOf[i] = -1;
+			}
+		}
+		numContacts = 0;
+		numBodies = 0;
+		for (int i = 0; i < arbiters.size(); i++) {
+			Arbiter a = arbiters.get(i);
+			int b1 = slot(a.b1), b2 = slot(a.b2);
+			for (int k = 0; k < a.num; k++) {
+				Contact c = a.contacts[k];
+				int j = numContacts++;
+				contacts[j] = c;
+				body1[j] = b1;
+				body2[j] = b2;
+				r1x[j] = c.r1.x;
+				r1y[j] = c.r1.y;
+				r2x[j] = c.r2.x;
+				r2y[j] = c.r2.y;
+				nx[j] = c.normal.x;
+				ny[j] = c.normal.y;
+				massNormal[j] = c.massNormal;
+				massTangent[j] = c.massTangent;
+				bias[j] = c.bias;
+				friction[j] = a.friction;
+				accPn[j] = c.accPn;
+				accPnb[j] = c.accPnb;
+				accPt[j] = c.accPt;
+			}
+		}
+		numShared = 0;
+		for (int j = 0; j < world.numJoints; j++) {
+			Joint joint = world.getJoint(j);
+			share(joint.b1);
+			if (joint instanceof TwoBodyJoint) {
+				share(((TwoBodyJoint) joint).b2);
+			}
+		}
+	}
+	/**
+	 * Returns the slot of the body, the body is loaded into a new slot if it has none yet.
+	 */
+	private int slot(Body b) {
+		int s = slotOf[b.indexInWorld];
+		if (s == -1) {
+			s = numBodies++;
+			slotOf[b.indexInWorld] = s;
+			bodies[s] = b;
+			velX[s] = b.vel.x;
+			velY[s] = b.vel.y;
+			avel[s] = b.avel;
+			biasX[s] = b.biasVel.x;
+			biasY[s] = b.biasVel.y;
+			invmass[s] = b.invmass;
+			invinertia[s] = b.invinertia;
+		}
+		return s;
+	}
+	/**
+	 * Remembers the slot of a body of a joint, if it has one. Every slot is only added once.
+	 */
+	private void share(Body b) {
+		int s = slotOf[b.indexInWorld];
+		if (s == -1 || isShared[s]) {
+			return;
+		}
+		isShared[s] = true;
+		shared[numShared++] = s;
+	}
+	private void storeShared() {
+		for (int i = 0; i < numShared; i++) {
+			store(shared[i]);
+		}
+	}
+	private void loadShared() {
+		for (int i = 0; i < numShared; i++) {
+			int s = shared[i];
+			Body b = bodies[s];
+			velX[s] = b.vel.x;
+			velY[s] = b.vel.y;
+			avel[s] = b.avel;
+			biasX[s] = b.biasVel.x;
+			biasY[s] = b.biasVel.y;
+		}
+	}
+	private void store(int s) {
+		Body b = bodies[s];
+		b.vel.x = velX[s];
+		b.vel.y = velY[s];
+		b.avel = avel[s];
+		b.biasVel.x = biasX[s];
+		b.biasVel.y = biasY[s];
+	}
+	/**
+	 * Writes the accumulated impulses and the velocities back into the contacts and bodies.
+	 */
+	protected void unpack() {
+		for (int j = 0; j < numContacts; j++) {
+			Contact c = contacts[j];
+			c.accPn = accPn[j];
+			c.accPnb = accPnb[j];
+			c.accPt = accPt[j];
+			contacts[j] = null;
+		}
+		for (int s = 0; s < numBodies; s++) {
+			store(s);
+			slotOf[bodies[s].indexInWorld] = -1;
+			isShared[s] = false;
+			bodies[s] = null;
+		}
+	}
+	private void ensureContacts(int n) {
+		if (contacts.length >= n) {
+			return;
+		}
+		n *= 2;
+		contacts = new Contact[n];
+		body1 = new int[n];
+		body2 = new int[n];
+		r1x = new float[n];
+		r1y = new float[n];
+		r2x = new float[n];
+		r2y = new float[n];
+		nx = new float[n];
+		ny = new float[n];
+		massNormal = new float[n];
+		massTangent = new float[n];
+		bias = new float[n];
+		friction = new float[n];
+		accPn = new float[n];
+		accPnb = new float[n];
+		accPt = new float[n];
+	}
+	private void ensureBodies(int n) {
+		if (bodies.length >= n) {
+			return;
+		}
+		n *= 2;
+		bodies = new Body[n];
+		shared = new int[n];
+		isShared = new boolean[n];
+		velX = new float[n];
+		velY = new float[n];
+		avel = new float[n];
+		biasX = new float[n];
+		biasY = new float[n];
+		invmass = new float[n];
+		invinertia = new float[n];
+	}
+}
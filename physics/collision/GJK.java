@@ -0,0 +1,360 @@
+package physics.collision;
+import physics.Body;
+import physics.shapes.Polygon;
+import tools.Point;
+/**
+ * GJK distance and EPA penetration depth for convex polygons. SAT tests every edge normal of both polygons and projects every vertex onto each of them, so it costs O((n + m)^2). GJK and EPA only need a few support points of the Minkowski difference, each of which costs O(n + m) at most (large polygons find them by walking along their edges, see Polygon.support), so they are much faster for polygons with a lot of vertices. The CollisionDispatcher uses them for pairs of polygons once their vertex count is above a threshold (circles are tested with PolygonCircle.closestFeature, which is faster still) (see CollisionDispatcher.setGJKVertexCount).
+ *
+ * The results are the same as those of PolygonPolygon (the contact points are found by the same code). Cases that GJK/EPA can not handle are handed to it: bodies that are separated but might touch within the timestep (SAT handles the time of impact) and polygons that only touch.
+ *
+ * The GJK is the one of Box2D (b2Distance): The simplex is reduced to the feature closest to the origin using barycentric coordinates and the algorithm stops once no new support point is found.
+ *
+ * @author toni
+ *
+ */
+public class GJK {
+	// Maximum number of iterations of GJK and of EPA
+	static final int MAXITERATIONS = 40;
+	private static final float EPSILON = 0.0001f;
+	// Search directions shorter than this mean that the origin lies on the
+	// simplex (float epsilon squared, as in Box2D)
+	private static final float DIRECTIONEPSILON = Math.ulp(1.0f) * Math.ulp(1.0f);
+	/**
+	 * Same as PolygonPolygon.collision.
+	 */
+	public static boolean polygonPolygon(Body body1, Body body2, Polygon polygon1, Polygon polygon2, float dt, NarrowphaseContext ctx, ColInfo col) {
+		// BOUNDING CIRCLE TEST
+		if (Math.pow(polygon1.radius + polygon2.radius, 2) + body1.vel.squaredDistance(body2.vel) < polygon1.pos.squaredDistance(polygon2.pos)) {
+			return false;
+		}
+		float distance = distance(polygon1, polygon2, ctx);
+		if (distance > EPSILON) {
+			// The polygons can only touch during this step if their relative
+			// movement covers the distance.
+			float vx = body2.vel.x - body1.vel.x, vy = body2.vel.y - body1.vel.y;
+			if (distance * distance > (vx * vx + vy * vy) * dt * dt) {
+				return false;
+			}
+			return PolygonPolygon.collision(body1, body2, polygon1, polygon2, dt, ctx, col);
+		}
+		if (ctx.simplexCount < 3 || !penetration(polygon1, polygon2, ctx)) {
+			return PolygonPolygon.collision(body1, body2, polygon1, polygon2, dt, ctx, col);
+		}
+		col.clear();
+		// The penetration direction points out of the Minkowski difference B -
+		// A, polygon2 has to be pushed the other way
+		col.normal.x = -ctx.penetrationX;
+		col.normal.y = -ctx.penetrationY;
+		// Same orientation as in PolygonPolygon (matters for deep
+		// penetrations)
+		if (polygon1.pos.distOnLineDir(polygon2.pos, col.normal) > 0) {
+			col.normal.sNeg();
+		}
+		col.depth = ctx.penetrationDepth;
+		float depthDifference = Math.min(polygon1.radius, polygon2.radius) * 0.003f;
+		PolygonPolygon.findColPos(polygon1, polygon2, col.normal, col, depthDifference, ctx);
+		return true;
+	}
+	/**
+	 * Returns the distance between the polygons a and b and stores the closest points in ctx.closestA and ctx.closestB. Returns 0 if the hulls overlap, the simplex in ctx then is a triangle containing the origin (or a point/segment if they just touch).
+	 */
+	static float distance(Polygon polygonA, Polygon polygonB, NarrowphaseContext ctx) {
+		Point[] a = polygonA.points, b = polygonB.points;
+		float[] wx = ctx.wx, wy = ctx.wy, alpha = ctx.alpha;
+		int[] saveA = ctx.saveA, saveB = ctx.saveB;
+		setVertex(ctx, 0, a, 0, b, 0);
+		alpha[0] = 1.0f;
+		int count = 1;
+		for (int iter = 0; iter < MAXITERATIONS; iter++) {
+			int saveCount = count;
+			for (int i = 0; i < count; i++) {
+				saveA[i] = ctx.indexA[i];
+				saveB[i] = ctx.indexB[i];
+			}
+			if (count == 2) {
+				count = solve2(ctx);
+			}
+			else if (count == 3) {
+				count = solve3(ctx);
+			}
+			if (count == 3) {
+				break;
+			}
+			// Direction towards the origin
+			float dx, dy;
+			if (count == 1) {
+				dx = -wx[0];
+				dy = -wy[0];
+			}
+			else {
+				float ex = wx[1] - wx[0], ey = wy[1] - wy[0];
+				if (ex * -wy[0] - ey * -wx[0] > 0.0f) {
+					dx = -ey;
+					dy = ex;
+				}
+				else {
+					dx = ey;
+					dy = -ex;
+				}
+			}
+			if (dx * dx + dy * dy < DIRECTIONEPSILON) {
+				// The origin is on the simplex, the hulls touch
+				break;
+			}
+			int ia = polygonA.support(-dx, -dy);
+			int ib = polygonB.support(dx, dy);
+			boolean duplicate = false;
+			for (int i = 0; i < saveCount; i++) {
+				if (saveA[i] == ia && saveB[i] == ib) {
+					duplicate = true;
+					break;
+				}
+			}
+			if (duplicate) { // No progress, the current simplex is the closest feature
+				break;
+			}
+			setVertex(ctx, count, a, ia, b, ib);
+			count++;
+		}
+		ctx.simplexCount = count;
+		Point pA = ctx.closestA, pB = ctx.closestB;
+		pA.x = 0.0f;
+		pA.y = 0.0f;
+		pB.x = 0.0f;
+		pB.y = 0.0f;
+		for (int i = 0; i < count; i++) {
+			pA.x += alpha[i] * ctx.wAx[i];
+			pA.y += alpha[i] * ctx.wAy[i];
+			pB.x += alpha[i] * ctx.wBx[i];
+			pB.y += alpha[i] * ctx.wBy[i];
+		}
+		if (count == 3) {
+			pB.from(pA);
+			return 0.0f;
+		}
+		return pA.distance(pB);
+	}
+	/**
+	 * EPA: Expands the GJK triangle (which contains the origin) towards the boundary of the Minkowski difference b - a. Stores the outward direction and the distance of the boundary edge closest to the origin in ctx. Returns false if the simplex is degenerate.
+	 */
+	static boolean penetration(Polygon polygonA, Polygon polygonB, NarrowphaseContext ctx) {
+		Point[] a = polygonA.points, b = polygonB.points;
+		float[] px = ctx.polytopeX, py = ctx.polytopeY;
+		int n = 3;
+		for (int i = 0; i < 3; i++) {
+			px[i] = ctx.wx[i];
+			py[i] = ctx.wy[i];
+		}
+		// Make it counter clockwise
+		if ((px[1] - px[0]) * (py[2] - py[0]) - (py[1] - py[0]) * (px[2] - px[0]) < 0.0f) {
+			float tmp = px[1];
+			px[1] = px[2];
+			px[2] = tmp;
+			tmp = py[1];
+			py[1] = py[2];
+			py[2] = tmp;
+		}
+		int best = -1;
+		float bestX = 0.0f, bestY = 0.0f, bestDistance = 0.0f;
+		for (int iter = 0; iter < MAXITERATIONS; iter++) {
+			// Find the edge closest to the origin
+			best = -1;
+			bestDistance = Float.POSITIVE_INFINITY;
+			for (int i = 0; i < n; i++) {
+				int j = (i + 1 == n) ? 0 : i + 1;
+				float ex = px[j] - px[i], ey = py[j] - py[i];
+				float length = (float) Math.sqrt(ex * ex + ey * ey);
+				if (length < EPSILON * EPSILON) {
+					continue;
+				}
+				float nx = ey / length, ny = -ex / length;
+				float d = nx * px[i] + ny * py[i];
+				if (d < bestDistance) {
+					best = i;
+					bestDistance = d;
+					bestX = nx;
+					bestY = ny;
+				}
+			}
+			if (best == -1) {
+				return false;
+			}
+			// Support point of b - a in the direction of the edge normal
+			int ib = polygonB.support(bestX, bestY);
+			int ia = polygonA.support(-bestX, -bestY);
+			float sx = b[ib].x - a[ia].x, sy = b[ib].y - a[ia].y;
+			if (sx * bestX + sy * bestY - bestDistance < EPSILON || n == px.length) {
+				break;
+			}
+			// Insert the support point between the vertices of the edge
+			int k = best + 1;
+			for (int i = n; i > k; i--) {
+				px[i] = px[i - 1];
+				py[i] = py[i - 1];
+			}
+			px[k] = sx;
+			py[k] = sy;
+			n++;
+			// The new point can lie beyond the ends of the edge, remove the
+			// neighbours that are no longer on the hull
+			while (n > 3) {
+				int h = (k == 0) ? n - 1 : k - 1;
+				if (isConvex(px, py, n, h)) {
+					break;
+				}
+				n = remove(px, py, n, h);
+				if (h < k) {
+					k--;
+				}
+			}
+			while (n > 3) {
+				int j = (k + 1 == n) ? 0 : k + 1;
+				if (isConvex(px, py, n, j)) {
+					break;
+				}
+				n = remove(px, py, n, j);
+				if (j < k) {
+					k--;
+				}
+			}
+		}
+		if (bestDistance < 0.0f) {
+			return false;
+		}
+		ctx.penetrationX = bestX;
+		ctx.penetrationY = bestY;
+		ctx.penetrationDepth = bestDistance;
+		return true;
+	}
+	/**
+	 * Whether the i-th vertex of the counter clockwise polygon turns left.
+	 */
+	private static boolean isConvex(float[] px, float[] py, int n, int i) {
+		int h = (i == 0) ? n - 1 : i - 1;
+		int j = (i + 1 == n) ? 0 : i + 1;
+		return (px[i] - px[h]) * (py[j] - py[i]) - (py[i] - py[h]) * (px[j] - px[i]) > 0.0f;
+	}
+	private static int remove(float[] px, float[] py, int n, int i) {
+		for (int l = i; l < n - 1; l++) {
+			px[l] = px[l + 1];
+			py[l] = py[l + 1];
+		}
+		return n - 1;
+	}
+	private static void setVertex(NarrowphaseContext ctx, int i, Point[] a, int ia, Point[] b, int ib) {
+		ctx.indexA[i] = ia;
+		ctx.indexB[i] = ib;
+		ctx.wAx[i] = a[ia].x;
+		ctx.wAy[i] = a[ia].y;
+		ctx.wBx[i] = b[ib].x;
+		ctx.wBy[i] = b[ib].y;
+		ctx.wx[i] = ctx.wBx[i] - ctx.wAx[i];
+		ctx.wy[i] = ctx.wBy[i] - ctx.wAy[i];
+	}
+	private static void copyVertex(NarrowphaseContext ctx, int from, int to) {
+		ctx.indexA[to] = ctx.indexA[from];
+		ctx.indexB[to] = ctx.indexB[from];
+		ctx.wAx[to] = ctx.wAx[from];
+		ctx.wAy[to] = ctx.wAy[from];
+		ctx.wBx[to] = ctx.wBx[from];
+		ctx.wBy[to] = ctx.wBy[from];
+		ctx.wx[to] = ctx.wx[from];
+		ctx.wy[to] = ctx.wy[from];
+		ctx.alpha[to] = ctx.alpha[from];
+	}
+	/**
+	 * Closest point of the segment w0 w1 to the origin. Returns the new number of vertices.
+	 */
+	private static int solve2(NarrowphaseContext ctx) {
+		float[] wx = ctx.wx, wy = ctx.wy, alpha = ctx.alpha;
+		float ex = wx[1] - wx[0], ey = wy[1] - wy[0];
+		// w0 region
+		float d12_2 = -(wx[0] * ex + wy[0] * ey);
+		if (d12_2 <= 0.0f) {
+			alpha[0] = 1.0f;
+			return 1;
+		}
+		// w1 region
+		float d12_1 = wx[1] * ex + wy[1] * ey;
+		if (d12_1 <= 0.0f) {
+			alpha[1] = 1.0f;
+			copyVertex(ctx, 1, 0);
+			return 1;
+		}
+		// Must be in e12 region
+		float inv = 1.0f / (d12_1 + d12_2);
+		alpha[0] = d12_1 * inv;
+		alpha[1] = d12_2 * inv;
+		return 2;
+	}
+	/**
+	 * Closest feature of the triangle w0 w1 w2 to the origin. Returns the new number of vertices (3 if the origin is inside).
+	 */
+	private static int solve3(NarrowphaseContext ctx) {
+		float[] wx = ctx.wx, wy = ctx.wy, alpha = ctx.alpha;
+		float w1x = wx[0], w1y = wy[0], w2x = wx[1], w2y = wy[1], w3x = wx[2], w3y = wy[2];
+		// Edge12
+		float e12x = w2x - w1x, e12y = w2y - w1y;
+		float d12_1 = w2x * e12x + w2y * e12y;
+		float d12_2 = -(w1x * e12x + w1y * e12y);
+		// Edge13
+		float e13x = w3x - w1x, e13y = w3y - w1y;
+		float d13_1 = w3x * e13x + w3y * e13y;
+		float d13_2 = -(w1x * e13x + w1y * e13y);
+		// Edge23
+		float e23x = w3x - w2x, e23y = w3y - w2y;
+		float d23_1 = w3x * e23x + w3y * e23y;
+		float d23_2 = -(w2x * e23x + w2y * e23y);
+		// Triangle123
+		float n123 = e12x * e13y - e12y * e13x;
+		float d123_1 = n123 * (w2x * w3y - w2y * w3x);
+		float d123_2 = n123 * (w3x * w1y - w3y * w1x);
+		float d123_3 = n123 * (w1x * w2y - w1y * w2x);
+		// w1 region
+		if (d12_2 <= 0.0f && d13_2 <= 0.0f) {
+			alpha[0] = 1.0f;
+			return 1;
+		}
+		// e12
+		if (d12_1 > 0.0f && d12_2 > 0.0f && d123_3 <= 0.0f) {
+			float inv = 1.0f / (d12_1 + d12_2);
+			alpha[0] = d12_1 * inv;
+			alpha[1] = d12_2 * inv;
+			return 2;
+		}
+		// e13
+		if (d13_1 > 0.0f && d13_2 > 0.0f && d123_2 <= 0.0f) {
+			float inv = 1.0f / (d13_1 + d13_2);
+			alpha[0] = d13_1 * inv;
+			alpha[2] = d13_2 * inv;
+			copyVertex(ctx, 2, 1);
+			return 2;
+		}
+		// w2 region
+		if (d12_1 <= 0.0f && d23_2 <= 0.0f) {
+			alpha[1] = 1.0f;
+			copyVertex(ctx, 1, 0);
+			return 1;
+		}
+		// w3 region
+		if (d13_1 <= 0.0f && d23_1 <= 0.0f) {
+			alpha[2] = 1.0f;
+			copyVertex(ctx, 2, 0);
+			return 1;
+		}
+		// e23
+		if (d23_1 > 0.0f && d23_2 > 0.0f && d123_1 <= 0.0f) {
+			float inv = 1.0f / (d23_1 + d23_2);
+			alpha[1] = d23_1 * inv;
+			alpha[2] = d23_2 * inv;
+			copyVertex(ctx, 2, 0);
+			return 2;
+		}
+		// Must be in triangle123
+		float inv = 1.0f / (d123_1 + d123_2 + d123_3);
+		alpha[0] = d123_1 * inv;
+		alpha[1] = d123_2 * inv;
+		alpha[2] = d123_3 * inv;
+		return 3;
+	}
+}
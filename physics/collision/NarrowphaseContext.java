@@ -0,0 +1,51 @@
+package physics.collision;
+import tools.Point;
+/**
+ * Scratch space of the narrowphase. Every thread that runs the narrowphase needs its own context, the collision methods then neither allocate nor touch any shared state. The arrays grow with the largest polygon that has been tested.
+ *
+ * @author toni
+ *
+ */
+public class NarrowphaseContext {
+	final Point v = new Point(), dx = new Point();
+	final Point interval1 = new Point(), interval2 = new Point();
+	final Point line = new Point();
+	// Axes that are tested
+	Point[] lines = new Point[0];
+	float[] tcolls = new float[0];
+	// The points of each polygon that are closest to the other one
+	final Point[] minPoints1 = new Point[2], minPoints2 = new Point[2];
+	// GJK simplex (see GJK), the vertices are w = wB - wA
+	final float[] wAx = new float[3], wAy = new float[3], wBx = new float[3], wBy = new float[3];
+	final float[] wx = new float[3], wy = new float[3], alpha = new float[3];
+	final int[] indexA = new int[3], indexB = new int[3], saveA = new int[3], saveB = new int[3];
+	int simplexCount;
+	// Closest points of the last GJK distance query
+	final Point closestA = new Point(), closestB = new Point();
+	// EPA polytope and its result
+	final float[] polytopeX = new float[GJK.MAXITERATIONS + 3], polytopeY = new float[GJK.MAXITERATIONS + 3];
+	float penetrationX, penetrationY, penetrationDepth;
+	// Result of the test of a single child of a compound
+	final ColInfo childInfo = new ColInfo();
+	// The pair that is tested, tests may store features that they want to
+	// test first next frame in it. May be null.
+	public Pair pair;
+	// How often the cached separating axis of a pair was tested and how
+	// often it still separated the bodies
+	int axisCacheTests, axisCacheHits;
+	/**
+	 * Returns the axis array with at least n points.
+	 */
+	Point[] lines(int n) {
+		if (lines.length < n) {
+			Point[] newLines = new Point[Math.max(n, lines.length * 2)];
+			System.arraycopy(lines, 0, newLines, 0, lines.length);
+			for (int i = lines.length; i < newLines.length; i++) {
+				newLines[i] = new Point();
+			}
+			lines = newLines;
+			tcolls = new float[newLines.length];
+		}
+		return lines;
+	}
+}
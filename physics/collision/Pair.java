@@ -8,20 +8,77 @@ public class Pair implements Serializable {
 	public Point pos, pos2, normal;
 	public float depth;
 	public Arbiter arbiter;
+	// The last frame in which the broadphase found the bodies overlapping. Used
+	// for pairs that are found by a query every frame (SpatialHashGrid, pairs
+	// of moving and frozen bodies in SweepAndPrune).
+	public int frame;
+	// Index of the axis that separated two polygons the last time they were
+	// tested (see PolygonPolygon), -1 if there is none. Tested first, since
+	// bodies that were separated by an axis mostly still are in the next frame.
+	public int satAxis = -1;
+	// Further contact points of compound bodies (see ColInfo)
+	public int numExtra;
+	public Point[] extraPos, extraNormal;
+	public float[] extraDepth;
+	// Holds the second contact point, pos2 points to it if there are two
+	private Point secondPos;
 	public Pair(Body b1, Body b2) {
 		super();
 		this.b1 = b1;
 		this.b2 = b2;
 	}
+	/**
+	 * Copies the result of the narrowphase into the pair. The points of the pair are only allocated once, since the arbiter keeps references to them.
+	 */
 	public void update(ColInfo c) {
-		pos = c.pos;
-		pos2 = c.pos2;
-		normal = c.normal;
+		if (pos == null) {
+			pos = new Point();
+			normal = new Point();
+		}
+		pos.from(c.pos);
+		normal.from(c.normal);
+		if (c.numPoints == 2) {
+			if (secondPos == null) {
+				secondPos = new Point();
+			}
+			secondPos.from(c.pos2);
+			pos2 = secondPos;
+		}
+		else {
+			pos2 = null;
+		}
 		depth = c.depth;
+		numExtra = c.numExtra;
+		if (numExtra > 0) {
+			if (extraPos == null || extraPos.length < numExtra) {
+				int size = c.extraPos.length;
+				Point[] newPos = new Point[size], newNormal = new Point[size];
+				for (int i = 0; i < size; i++) {
+					newPos[i] = (extraPos != null && i < extraPos.length) ? extraPos[i] : new Point();
+					newNormal[i] = (extraNormal != null && i < extraNormal.length) ? extraNormal[i] : new Point();
+				}
+				extraPos = newPos;
+				extraNormal = newNormal;
+				extraDepth = new float[size];
+			}
+			for (int i = 0; i < numExtra; i++) {
+				extraPos[i].from(c.extraPos[i]);
+				extraNormal[i].from(c.extraNormal[i]);
+				extraDepth[i] = c.extraDepth[i];
+			}
+		}
 		if (arbiter != null) {
 			arbiter.update(this);
 		}
 	}
+	/**
+	 * Packs the two (unordered) indices of a body pair into a single key for the pair table. The smaller index goes into the upper half so that key(i, j) == key(j, i).
+	 */
+	public static long key(int i, int j) {
+		if (i > j)
+			return ((long) j << 32) | (i & 0xffffffffL);
+		return ((long) i << 32) | (j & 0xffffffffL);
+	}
 	// returns the body in the pair that is not the given body
 	public Body otherThan(Body b) {
 		if (b1 == b)
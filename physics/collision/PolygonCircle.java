@@ -6,27 +6,92 @@ import physics.shapes.Polygon;
 /**
  * Provides methods that test intersection of a polygon and a circle, featuring the typical CCD (continous collision detection, meaning that collisions in future time will be recognized and treated especially), returning a depth, normal and position of the collision
  * 
+ * The CollisionDispatcher uses closestFeature, which finds the edge or vertex closest to the center of the circle in one pass over the edges. collision is the older separating axis test, which builds an axis for every edge and every vertex and projects the whole polygon onto each of them. Both give the same normal and depth, but collision sometimes reports the contact point on the far side of the polygon (on the line through the center along the normal).
+ * 
  * @author Tehforsch
  */
 public class PolygonCircle {
-	static Point intervalP = new Point(), intervalC = new Point();
-	static Point v = new Point();
-	public static ColInfo collision(Body body1, Body body2, Polygon p, Circle c, float dt) {
-		ColInfo col = new ColInfo();
+	/**
+	 * Writes the collision into col and returns true if the polygon and the circle collide. Finds the edge the center of the circle lies farthest outside of. If the center lies beyond one of the ends of that edge the closest feature is the vertex at that end, otherwise it is the edge itself (which is also the case if the center lies inside the polygon). The polygon has to be convex.
+	 */
+	public static boolean closestFeature(Body body1, Body body2, Polygon p, Circle c, float dt, NarrowphaseContext ctx, ColInfo col) {
+		Point[] points = p.points, lines = p.lines;
+		float w = p.winding, r = c.radius;
+		float cx = c.pos.x, cy = c.pos.y;
+		int edge = 0;
+		float separation = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < p.numPoints; i++) {
+			float s = w * (lines[i].y * (cx - points[i].x) - lines[i].x * (cy - points[i].y));
+			if (s > r) {
+				return false;
+			}
+			if (s > separation) {
+				separation = s;
+				edge = i;
+			}
+		}
+		col.clear();
+		Point v1 = points[(edge == 0) ? p.numPoints - 1 : edge - 1], v2 = points[edge];
+		float nx = w * lines[edge].y, ny = -w * lines[edge].x;
+		if (separation > 0.0f) {
+			if ((cx - v1.x) * (v2.x - v1.x) + (cy - v1.y) * (v2.y - v1.y) <= 0.0f) {
+				return vertexCollision(v1, c, nx, ny, col);
+			}
+			if ((cx - v2.x) * (v1.x - v2.x) + (cy - v2.y) * (v1.y - v2.y) <= 0.0f) {
+				return vertexCollision(v2, c, nx, ny, col);
+			}
+		}
+		col.normal.x = nx;
+		col.normal.y = ny;
+		col.depth = r - separation;
+		col.pos.x = cx - nx * separation;
+		col.pos.y = cy - ny * separation;
+		return true;
+	}
+	/**
+	 * Collision of the circle with the vertex v. If the center lies exactly on the vertex there is no direction from the vertex to the center, the normal (nx, ny) of the closest edge is used then.
+	 */
+	private static boolean vertexCollision(Point v, Circle c, float nx, float ny, ColInfo col) {
+		float dx = c.pos.x - v.x, dy = c.pos.y - v.y;
+		float squared = dx * dx + dy * dy;
+		if (squared > c.radius * c.radius) {
+			return false;
+		}
+		float distance = (float) Math.sqrt(squared);
+		if (distance == 0.0f) {
+			col.normal.x = nx;
+			col.normal.y = ny;
+		}
+		else {
+			col.normal.x = dx / distance;
+			col.normal.y = dy / distance;
+		}
+		col.depth = c.radius - distance;
+		col.pos.from(v);
+		return true;
+	}
+	/**
+	 * Separating axis test. Writes the collision into col and returns true if the polygon and the circle collide.
+	 */
+	public static boolean collision(Body body1, Body body2, Polygon p, Circle c, float dt, NarrowphaseContext ctx, ColInfo col) {
+		col.clear();
 		int nLines = p.numPoints * 2;
-		Point[] lines = new Point[nLines];
+		Point[] lines = ctx.lines(nLines);
 		for (int i = 0; i < p.numPoints; i++) {
-			lines[i] = p.lines[i].normal();
-			lines[i + p.numPoints] = new Point(p.points[i].x - c.pos.x, p.points[i].y - c.pos.y);
+			lines[i].x = -p.lines[i].y;
+			lines[i].y = p.lines[i].x;
+			lines[i + p.numPoints].x = p.points[i].x - c.pos.x;
+			lines[i + p.numPoints].y = p.points[i].y - c.pos.y;
 			lines[i + p.numPoints].sNormalize();
 		}
 		float minDepth = Float.POSITIVE_INFINITY;
 		Point minLine = null;
-		for (int i = 0; i < lines.length; i++) {
-			intervalP = getInterval(lines[i], p);
-			intervalC = getInterval(lines[i], c);
+		Point intervalP = ctx.interval1, intervalC = ctx.interval2;
+		for (int i = 0; i < nLines; i++) {
+			getInterval(lines[i], p, intervalP);
+			getInterval(lines[i], c, intervalC);
 			if (intervalP.y < intervalC.x || intervalC.y < intervalP.x) {
-				return null;
+				return false;
 			}
 			float depth1 = intervalP.y - intervalC.x;
 			float depth2 = intervalC.y - intervalP.x;
@@ -36,39 +101,34 @@ public class PolygonCircle {
 				minLine = lines[i];
 			}
 		}
-		col.pos = findColPos(p, c, minLine);
+		findColPos(p, c, minLine, col.pos);
 		col.depth = minDepth;
 		col.time = 0.0f;
-		col.normal = minLine;
+		col.normal.from(minLine);
 		// Make sure the normal always points in the right direction
 		if (c.pos.distOnLineDir(col.pos, col.normal) < 0) {
 			col.normal.sNeg();
 		}
-		return col;
+		return true;
 	}
-	public static Point getInterval(Point normal, Polygon p) {
-		float projected;
-		projected = p.points[0].mul(normal);
-		intervalP.x = projected;
-		intervalP.y = projected;
-		for (int i = 1; i < p.numPoints; i++) {
-			projected = p.points[i].mul(normal);
-			if (projected < intervalP.x) {
-				intervalP.x = projected;
-			}
-			if (projected > intervalP.y) {
-				intervalP.y = projected;
-			}
-		}
-		return intervalP;
+	/**
+	 * Writes the interval of the projection of the polygon onto normal into interval.
+	 */
+	public static void getInterval(Point normal, Polygon p, Point interval) {
+		p.project(normal, interval);
 	}
-	public static Point getInterval(Point normal, Circle c) {
+	/**
+	 * Writes the interval of the projection of the circle onto normal into interval.
+	 */
+	public static void getInterval(Point normal, Circle c, Point interval) {
 		float h = c.pos.mul(normal);
-		intervalC.x = h - c.radius;
-		intervalC.y = h + c.radius;
-		return intervalC;
+		interval.x = h - c.radius;
+		interval.y = h + c.radius;
 	}
-	public static Point findColPos(Polygon p, Circle c, Point normal) {
+	/**
+	 * Writes the point of the polygon that lies deepest along normal, projected onto the line through the circle center along normal, into result.
+	 */
+	public static void findColPos(Polygon p, Circle c, Point normal, Point result) {
 		float minProjected = p.points[0].mul(normal);
 		float projected = 0.0f;
 		Point colPoint = p.points[0];
@@ -79,7 +139,10 @@ public class PolygonCircle {
 				colPoint = p.points[i];
 			}
 		}
-		normal = normal.normal();
-		return colPoint.add(normal.mul(c.pos.mul(normal) - colPoint.mul(normal)));
+		// Tangent of the normal
+		float tx = -normal.y, ty = normal.x;
+		float d = (c.pos.x * tx + c.pos.y * ty) - (colPoint.x * tx + colPoint.y * ty);
+		result.x = colPoint.x + tx * d;
+		result.y = colPoint.y + ty * d;
 	}
 }
@@ -4,43 +4,58 @@ import physics.PhysicalConstants;
 import physics.shapes.Polygon;
 import tools.Point;
 /**
- * @author Tehforsch Provides methods that test intersection of two polygons, taking into account speeds and performing continuous collision detection.
+ * @author Tehforsch Provides methods that test intersection of two polygons, taking into account speeds and performing continuous collision detection. All scratch variables live in the NarrowphaseContext so this can be called from several threads at once. The axis that separated two polygons is stored in their pair and tested first in the next frame.
  */
 public class PolygonPolygon {
-	static Point v = new Point(), interval1 = new Point(), interval2 = new Point(), line = new Point();
-	public static ColInfo collision(Body body1, Body body2, Polygon polygon1, Polygon polygon2, float dt) {
+	/**
+	 * Writes the collision into col and returns true if the polygons collide.
+	 */
+	public static boolean collision(Body body1, Body body2, Polygon polygon1, Polygon polygon2, float dt, NarrowphaseContext ctx, ColInfo col) {
 		// BOUNDING CIRCLE TEST
 		if (Math.pow(polygon1.radius + polygon2.radius, 2) + body1.vel.squaredDistance(body2.vel) < polygon1.pos.squaredDistance(polygon2.pos)) {
-			return null;
+			return false;
 		}
 		// TODO was gutes hier ausdenken
 		float depthDifference = Math.min(polygon1.radius, polygon2.radius) * 0.003f;
-		ColInfo col = new ColInfo();
+		col.clear();
 		int nLines = polygon1.numPoints + polygon2.numPoints + 1;
-		Point[] lines = new Point[nLines];
+		Point[] lines = ctx.lines(nLines);
+		float[] tcolls = ctx.tcolls;
+		Point v = ctx.v;
+		v.from2(body2.vel).sSub(body1.vel);
+		Pair pair = ctx.pair;
+		// Test the axis that separated the polygons last time first
+		if (pair != null && pair.satAxis >= 0 && pair.satAxis < nLines) {
+			ctx.axisCacheTests++;
+			setAxis(lines[0], pair.satAxis, polygon1, polygon2, v);
+			if (separates(lines[0], polygon1, polygon2, v, dt, ctx)) {
+				ctx.axisCacheHits++;
+				return false;
+			}
+		}
 		for (int i = 0; i < polygon1.numPoints; i++) {
-			lines[i] = polygon1.lines[i].normal();
+			lines[i].x = -polygon1.lines[i].y;
+			lines[i].y = polygon1.lines[i].x;
 		}
 		for (int i = 0; i < polygon2.numPoints; i++) {
-			lines[i + polygon1.numPoints] = polygon2.lines[i].normal();
+			lines[i + polygon1.numPoints].x = -polygon2.lines[i].y;
+			lines[i + polygon1.numPoints].y = polygon2.lines[i].x;
 		}
-		v.from2(body2.vel).sSub(body1.vel);
-		lines[nLines - 1] = new Point(v.x, v.y);
-		lines[nLines - 1].sNormal2().sNormalize();
-		// col.lines = lines;
-		float[] tcolls = new float[nLines];
+		lines[nLines - 1].from2(v).sNormal2().sNormalize();
 		float mindepth = Float.POSITIVE_INFINITY;
 		int mini = -1;
 		float depth1, depth2;
+		Point interval1 = ctx.interval1, interval2 = ctx.interval2;
 		for (int i = 0; i < nLines; i++) {
-			interval1 = setInterval(interval1, lines[i], polygon1);
-			interval2 = setInterval(interval2, lines[i], polygon2);
+			polygon1.project(lines[i], interval1);
+			polygon2.project(lines[i], interval2);
 			depth1 = interval1.x - interval2.y;
 			depth2 = interval2.x - interval1.y;
 			if (depth1 > 0 || depth2 > 0) { // Spaeter Ueberlappung
 				float vn = lines[i].mul(v);
 				if (Math.abs(vn) < 0.0001) {
-					return null;
+					rememberAxis(pair, i);
+					return false;
 				}
 				float t1 = depth1 / vn;
 				float t2 = -depth2 / vn;
@@ -51,7 +66,8 @@ public class PolygonPolygon {
 				}
 				float tcoll = (t1 > 0.0) ? t1 : t2;
 				if (tcoll > dt || tcoll < 0.0) {
-					return null;
+					rememberAxis(pair, i);
+					return false;
 				}
 				tcolls[i] = tcoll;
 			}
@@ -64,6 +80,9 @@ public class PolygonPolygon {
 				}
 			}
 		}
+		// No axis separates the polygons, so there is nothing to test first
+		// next frame
+		rememberAxis(pair, -1);
 		for (int i = 0; i < nLines; i++) {
 			if (tcolls[i] != 0.0) {
 				if (tcolls[i] > col.time || col.time == dt) {
@@ -73,48 +92,84 @@ public class PolygonPolygon {
 			}
 		}
 		if (mini == -1) {
-			return null;
+			return false;
 		}
-		col.normal = new Point(lines[mini].x, lines[mini].y);
+		col.normal.from(lines[mini]);
 		if (polygon1.pos.distOnLineDir(polygon2.pos, col.normal) > 0) {
 			col.normal.sNeg();
 		}
-		findColPos(polygon1, polygon2, col.normal, col, depthDifference);
+		findColPos(polygon1, polygon2, col.normal, col, depthDifference, ctx);
 		col.depth = mindepth;
 		if (col.time != dt && col.time != 0.0f) {
 			col.depth = PhysicalConstants.ALLOWEDPENETRATION;
 		}
-		return col;
+		return true;
+	}
+	private static void rememberAxis(Pair pair, int i) {
+		if (pair != null) {
+			pair.satAxis = i;
+		}
+	}
+	/**
+	 * Writes the i-th axis that is tested into axis: The edge normals of the first polygon, those of the second one and the normal of the relative velocity.
+	 */
+	private static void setAxis(Point axis, int i, Polygon polygon1, Polygon polygon2, Point v) {
+		if (i < polygon1.numPoints) {
+			axis.x = -polygon1.lines[i].y;
+			axis.y = polygon1.lines[i].x;
+		}
+		else if (i < polygon1.numPoints + polygon2.numPoints) {
+			i -= polygon1.numPoints;
+			axis.x = -polygon2.lines[i].y;
+			axis.y = polygon2.lines[i].x;
+		}
+		else {
+			axis.from2(v).sNormal2().sNormalize();
+		}
 	}
-	private static Point setInterval(Point inter, Point normal, Polygon p) {
-		float projected;
-		projected = p.points[0].mul(normal);
-		inter.x = projected;
-		inter.y = projected;
-		for (int i = 1; i < p.numPoints; i++) {
-			projected = p.points[i].mul(normal);
-			if (projected < inter.x) {
-				inter.x = projected;
+	/**
+	 * Returns true if the polygons do not overlap on the axis during the whole timestep (the same test as in collision).
+	 */
+	private static boolean separates(Point axis, Polygon polygon1, Polygon polygon2, Point v, float dt, NarrowphaseContext ctx) {
+		polygon1.project(axis, ctx.interval1);
+		polygon2.project(axis, ctx.interval2);
+		float depth1 = ctx.interval1.x - ctx.interval2.y;
+		float depth2 = ctx.interval2.x - ctx.interval1.y;
+		if (depth1 > 0 || depth2 > 0) {
+			float vn = axis.mul(v);
+			if (Math.abs(vn) < 0.0001) {
+				return true;
 			}
-			if (projected > inter.y) {
-				inter.y = projected;
+			float t1 = depth1 / vn;
+			float t2 = -depth2 / vn;
+			if (t1 > t2) {
+				float temp = t1;
+				t1 = t2;
+				t2 = temp;
 			}
+			float tcoll = (t1 > 0.0) ? t1 : t2;
+			return tcoll > dt || tcoll < 0.0;
 		}
-		return inter;
+		return false;
 	}
-	static private Point[] findManifoldPoints(Point normal, Point[] points1, Point[] points2) {
-		line = normal.normal();
+	/**
+	 * Writes the two points of the overlap of both edges into col.pos and col.pos2.
+	 */
+	static private void findManifoldPoints(Point normal, Point[] points1, Point[] points2, ColInfo col, NarrowphaseContext ctx) {
+		Point line = ctx.line, interval1 = ctx.interval1, interval2 = ctx.interval2;
+		line.x = -normal.y;
+		line.y = normal.x;
 		interval1.x = points1[0].mul(line);
 		interval1.y = points1[1].mul(line);
 		interval2.x = points2[0].mul(line);
 		interval2.y = points2[1].mul(line);
 		boolean swap1 = false, swap2 = false;
 		if (interval1.x > interval1.y) {
-			interval1 = swap(interval1);
+			swap(interval1);
 			swap1 = true;
 		}
 		if (interval2.x > interval2.y) {
-			interval2 = swap(interval2);
+			swap(interval2);
 			swap2 = true;
 		}
 		Point pcoll1, pcoll2;
@@ -150,28 +205,32 @@ public class PolygonPolygon {
 				pcoll2 = points1[0];
 			}
 		}
-		return new Point[]{pcoll1, pcoll2};
+		col.pos.from(pcoll1);
+		col.pos2.from(pcoll2);
+		col.numPoints = 2;
 	}
-	private static Point swap(Point p) {
+	private static void swap(Point p) {
 		float tmp = p.x;
 		p.x = p.y;
 		p.y = tmp;
-		return p;
 	}
-	private static void findColPos(Polygon p1, Polygon p2, Point normal, ColInfo col, float depthDifference) {
-		Point[] minpoints1 = getMinPoints(p1, p2, normal, depthDifference);
-		Point[] minpoints2 = getMinPoints(p2, p1, normal, depthDifference);
+	/**
+	 * Finds the contact point(s) of two polygons that overlap along normal (pointing from p1 to p2). Also used by GJK.
+	 */
+	static void findColPos(Polygon p1, Polygon p2, Point normal, ColInfo col, float depthDifference, NarrowphaseContext ctx) {
+		Point[] minpoints1 = ctx.minPoints1, minpoints2 = ctx.minPoints2;
+		getMinPoints(p1, p2, normal, depthDifference, minpoints1);
+		getMinPoints(p2, p1, normal, depthDifference, minpoints2);
 		if (minpoints1[1] == null && minpoints2[1] == null) { // Punkt vs
 			// Punkt
-			col.pos = new Point((minpoints1[0].x + minpoints2[0].x) * 0.5f, (minpoints1[0].y + minpoints2[0].y) * 0.5f);
+			col.pos.x = (minpoints1[0].x + minpoints2[0].x) * 0.5f;
+			col.pos.y = (minpoints1[0].y + minpoints2[0].y) * 0.5f;
 			assert (p1 != p2);
 			return;
 		}
 		else if (minpoints1[1] != null && minpoints2[1] != null) { // Kante vs
 			// Kante
-			Point[] colPoints = findManifoldPoints(normal, minpoints1, minpoints2);
-			col.pos = colPoints[0];
-			col.pos2 = colPoints[1];
+			findManifoldPoints(normal, minpoints1, minpoints2, col, ctx);
 			return;
 		}
 		Point linepoint1, linepoint2, p;
@@ -185,18 +244,16 @@ public class PolygonPolygon {
 			linepoint2 = minpoints1[1];
 			p = minpoints2[0];
 		}
-		normal = new Point(linepoint2.x, linepoint2.y);
-		normal.sSub2(linepoint1).sNormalize();
-		// normal.from2(linepoint2).sSub2(linepoint1).sNormalize();
-		// normal = linepoint2.sub(linepoint1).normalize();
-		float projected1 = linepoint1.mul(normal);
-		float projected2 = p.mul(normal);
-		// col.pos = linepoint1.add(normal.mul(projected2 - projected1));
-		col.pos = new Point(linepoint1.x + normal.x * (projected2 - projected1), linepoint1.y + normal.y * (projected2 - projected1));
+		Point dir = ctx.line;
+		dir.from2(linepoint2).sSub2(linepoint1).sNormalize();
+		float projected1 = linepoint1.mul(dir);
+		float projected2 = p.mul(dir);
+		col.pos.x = linepoint1.x + dir.x * (projected2 - projected1);
+		col.pos.y = linepoint1.y + dir.y * (projected2 - projected1);
 	}
-	private static Point[] getMinPoints(Polygon p1, Polygon p2, Point normal, float depthDifference) {
-		Point[] minpoints;
-		minpoints = new Point[2];
+	private static void getMinPoints(Polygon p1, Polygon p2, Point normal, float depthDifference, Point[] minpoints) {
+		minpoints[0] = null;
+		minpoints[1] = null;
 		float mindepth = Float.POSITIVE_INFINITY;
 		float subdepth = p2.pos.mul(normal);
 		float depth;
@@ -211,6 +268,5 @@ public class PolygonPolygon {
 				mindepth = depth;
 			}
 		}
-		return minpoints;
 	}
-}
\ No newline at end of file
+}
@@ -4,7 +4,9 @@ import java.util.Vector;
 import physics.Body;
 import physics.World;
 import physics.shapes.Circle;
+import physics.shapes.Compound;
 import physics.shapes.Polygon;
+import physics.shapes.Shape;
 import tools.Floatmath;
 import tools.Point;
 /**
@@ -77,6 +79,47 @@ public class Raycaster {
 		}
 		return col;
 	}
+	/**
+	 * Casts a Ray against every child of a Compound. pos is the first and pos2 the last of all intersections along the ray.
+	 */
+	public static RayCastInfo rayCompound(Ray ray, Compound compound) {
+		RayCastInfo col = new RayCastInfo();
+		float first = Float.POSITIVE_INFINITY, last = Float.NEGATIVE_INFINITY;
+		int hits = 0;
+		RayCastInfo k;
+		for (int i = 0; i < compound.numChildren; i++) {
+			Shape s = compound.children[i];
+			if (s instanceof Polygon) {
+				k = rayPolygon(ray, (Polygon) s);
+			}
+			else if (s instanceof Circle) {
+				k = rayCircle(ray, (Circle) s);
+			}
+			else {
+				continue;
+			}
+			if (k == null)
+				continue;
+			for (Point p : new Point[]{k.pos, k.pos2}) {
+				if (p == null)
+					continue;
+				float d = p.sub(ray.pos).mul(ray.dir);
+				hits++;
+				if (d < first) {
+					first = d;
+					col.pos = p;
+				}
+				if (d > last) {
+					last = d;
+					col.pos2 = p;
+				}
+			}
+		}
+		if (hits < 2) {
+			col.pos2 = null;
+		}
+		return col;
+	}
 	/**
 	 * Casts a SRay against a Line given through two points.
 	 * 
@@ -110,17 +153,41 @@ public class Raycaster {
 		return null;
 	}
 	public static Vector<RayCastInfo> getAllIntersecting(World w, Point pos, Point line, float MINIMUMDIST) {
+		Vector<Body> bodies = new Vector<Body>(w.numBodies);
+		for (int i = 0; i < w.numBodies; i++) {
+			bodies.add(w.getBody(i));
+		}
+		return getAllIntersecting(bodies, pos, line, MINIMUMDIST);
+	}
+	/**
+	 * Only casts the ray up to maxLength. The candidate bodies are taken from the broadphase of the world so not every body has to be tested.
+	 */
+	public static Vector<RayCastInfo> getAllIntersecting(World w, Point pos, Point line, float MINIMUMDIST, float maxLength) {
+		Vector<Body> bodies = new Vector<Body>();
+		w.getBroadphase().queryRay(pos, line, maxLength, bodies);
+		Vector<RayCastInfo> cols = getAllIntersecting(bodies, pos, line, MINIMUMDIST);
+		for (int i = cols.size() - 1; i >= 0; i--) {
+			if (cols.get(i).pos.sub(pos).mul(line) > maxLength)
+				cols.remove(i);
+		}
+		return cols;
+	}
+	private static Vector<RayCastInfo> getAllIntersecting(Vector<Body> bodies, Point pos, Point line, float MINIMUMDIST) {
 		Vector<RayCastInfo> cols = new Vector<RayCastInfo>();
 		RayCastInfo k = null;
 		Ray r = new Ray(pos, line);
-		for (int i = 0; i < w.numBodies; i++) {
-			Body b = w.getBody(i);
+		for (Body b : bodies) {
+			if (!rayHitsBounds(pos, line, b))
+				continue;
 			if (b.shape instanceof Polygon) {
 				k = rayPolygon(r, (Polygon) b.shape);
 			}
 			else if (b.shape instanceof Circle) {
 				k = rayCircle(r, (Circle) b.shape);
 			}
+			else if (b.shape instanceof Compound) {
+				k = rayCompound(r, (Compound) b.shape);
+			}
 			if (k == null)
 				continue;
 			if (k.pos == null)
@@ -142,6 +209,31 @@ public class Raycaster {
 		}
 		return cols;
 	}
+	/**
+	 * Slab test of the ray from pos in direction dir against the bounding box of the body. Bodies that are missed or lie completely behind the ray can not give an intersection in front of it.
+	 */
+	private static boolean rayHitsBounds(Point pos, Point dir, Body b) {
+		float tmin = 0.0f, tmax = Float.POSITIVE_INFINITY;
+		if (dir.x == 0.0f) {
+			if (pos.x < b.minX || pos.x > b.maxX)
+				return false;
+		}
+		else {
+			float t1 = (b.minX - pos.x) / dir.x, t2 = (b.maxX - pos.x) / dir.x;
+			tmin = Math.max(tmin, Math.min(t1, t2));
+			tmax = Math.min(tmax, Math.max(t1, t2));
+		}
+		if (dir.y == 0.0f) {
+			if (pos.y < b.minY || pos.y > b.maxY)
+				return false;
+		}
+		else {
+			float t1 = (b.minY - pos.y) / dir.y, t2 = (b.maxY - pos.y) / dir.y;
+			tmin = Math.max(tmin, Math.min(t1, t2));
+			tmax = Math.min(tmax, Math.max(t1, t2));
+		}
+		return tmin <= tmax;
+	}
 	public static RayCastInfo getFirstIntersecting(World w, Point pos, Point line, float MINIMUMDIST) {
 		float mindist = Float.POSITIVE_INFINITY;
 		RayCastInfo mincol = null;
@@ -0,0 +1,329 @@
+package physics.collision;
+import java.util.Vector;
+
+import physics.Body;
+import physics.World;
+import tools.LongHashMap;
+/**
+ * Implements a uniform grid as broadphase, meant for scenes with a lot of similar sized bodies (particles, debris, ...). The grid is rebuilt every frame: Every body is put into all cells its bounds touch, the cells are stored in a hash table (so the grid is unbounded) which is filled with a counting sort. Bodies in the same cell are then checked for overlap. To not find a pair twice, a pair is only reported in the cell that contains the lower left corner of the intersection of both bounds.
+ *
+ * The cell size is derived from the sizes of the bodies every frame: It is twice the average extent of all bodies, ignoring outliers. Bodies that are much larger than a cell (floors, walls) are not put into the grid but checked against every other body instead.
+ *
+ * Each frame costs O(n + number of pairs). All arrays are kept between frames and only grow, so there is no per-frame allocation.
+ *
+ * @author toni
+ *
+ */
+public class SpatialHashGrid extends Broadphase {
+	// Bodies that span more cells than this along one axis are treated as
+	// oversized.
+	private static final int MAXCELLSPERAXIS = 4;
+	// Bodies larger than this factor times the average extent are ignored when
+	// calculating the cell size.
+	private static final float OUTLIERFACTOR = 4.0f;
+	private float cellSize, invCellSize;
+	// Bounds of each body (indexed by indexInWorld) in the current frame
+	private float[] minX, minY, maxX, maxY;
+	// Grid entries (one per body and touched cell), sorted by bucket
+	private int[] entryBody, entryCellX, entryCellY, entryBucket;
+	private int[] sortedBody, sortedCellX, sortedCellY;
+	private int numEntries;
+	// Start of the entries of each bucket in the sorted arrays. Has one more
+	// element than there are buckets.
+	private int[] bucketStart;
+	private int bucketMask;
+	private int[] oversized;
+	private int numOversized;
+	// Frame counter, pairs that were not seen in the current frame are removed
+	private int frame;
+	// Set when a body was added or removed since the last update. The bounds
+	// and the grid are indexed by indexInWorld and World.remBody moves the
+	// last body into the place of the removed one, so they can not be used
+	// until the next update.
+	private boolean stale;
+	private float lastDt;
+	public SpatialHashGrid(World w, float dt, LongHashMap<Pair> pairs) {
+		super(w, pairs);
+		int capacity = world.numBodies + CollisionHandler.RESERVEDSPACE;
+		minX = new float[capacity];
+		minY = new float[capacity];
+		maxX = new float[capacity];
+		maxY = new float[capacity];
+		oversized = new int[capacity];
+		allocateEntries(4 * capacity);
+		bucketStart = new int[2];
+		bucketMask = 0;
+		cellSize = 1.0f;
+		invCellSize = 1.0f;
+		stale = true;
+	}
+	private void allocateEntries(int capacity) {
+		entryBody = new int[capacity];
+		entryCellX = new int[capacity];
+		entryCellY = new int[capacity];
+		entryBucket = new int[capacity];
+		sortedBody = new int[capacity];
+		sortedCellX = new int[capacity];
+		sortedCellY = new int[capacity];
+	}
+	private void allocateBodies(int capacity) {
+		minX = new float[capacity];
+		minY = new float[capacity];
+		maxX = new float[capacity];
+		maxY = new float[capacity];
+		oversized = new int[capacity];
+	}
+	/**
+	 * The grid is rebuilt every frame, until then queryRegion checks every body.
+	 */
+	@Override
+	public void addBody(Body b) {
+		stale = true;
+	}
+	/**
+	 * The grid is rebuilt every frame, until then queryRegion checks every body (the indices of the grid are not valid anymore once the world moved its last body into the place of this one).
+	 */
+	@Override
+	public void remBody(Body b) {
+		stale = true;
+	}
+	@Override
+	public void update(float dt, Vector<Pair> pairsList) {
+		resetPairCounters();
+		frame++;
+		int n = world.numBodies;
+		if (n > minX.length) {
+			allocateBodies(n + CollisionHandler.RESERVEDSPACE);
+		}
+		refresh(dt);
+		lastDt = dt;
+		stale = false;
+		calcCellSize();
+		fillGrid();
+		findPairs();
+		removeOldPairs();
+		collectPairs(pairsList);
+	}
+	/**
+	 * Calculates the bounds of every body. Same bounds as in SweepAndPrune.
+	 */
+	private void refresh(float dt) {
+		Body b;
+		for (int i = 0; i < world.numBodies; i++) {
+			b = world.getBody(i);
+			float vX = Math.abs(b.vel.x) * dt + World.BOUNDINGMARGIN;
+			float vY = Math.abs(b.vel.y) * dt + World.BOUNDINGMARGIN;
+			minX[i] = b.minX - vX;
+			maxX[i] = b.maxX + vX;
+			minY[i] = b.minY - vY;
+			maxY[i] = b.maxY + vY;
+		}
+	}
+	private void calcCellSize() {
+		int n = world.numBodies;
+		if (n == 0)
+			return;
+		float sum = 0.0f;
+		for (int i = 0; i < n; i++) {
+			sum += Math.max(maxX[i] - minX[i], maxY[i] - minY[i]);
+		}
+		float limit = OUTLIERFACTOR * sum / n;
+		float sumWithoutOutliers = 0.0f;
+		int num = 0;
+		for (int i = 0; i < n; i++) {
+			float extent = Math.max(maxX[i] - minX[i], maxY[i] - minY[i]);
+			if (extent <= limit) {
+				sumWithoutOutliers += extent;
+				num++;
+			}
+		}
+		cellSize = 2.0f * sumWithoutOutliers / num;
+		invCellSize = 1.0f / cellSize;
+	}
+	private int cell(float x) {
+		return (int) Math.floor(x * invCellSize);
+	}
+	private int bucket(int cellX, int cellY) {
+		return ((cellX * 73856093) ^ (cellY * 19349663)) & bucketMask;
+	}
+	/**
+	 * Puts every body into the cells it touches and sorts the entries by bucket (counting sort).
+	 */
+	private void fillGrid() {
+		int n = world.numBodies;
+		numEntries = 0;
+		numOversized = 0;
+		for (int i = 0; i < n; i++) {
+			int x1 = cell(minX[i]), x2 = cell(maxX[i]);
+			int y1 = cell(minY[i]), y2 = cell(maxY[i]);
+			if (x2 - x1 >= MAXCELLSPERAXIS || y2 - y1 >= MAXCELLSPERAXIS) {
+				oversized[numOversized++] = i;
+				continue;
+			}
+			int needed = numEntries + (x2 - x1 + 1) * (y2 - y1 + 1);
+			if (needed > entryBody.length) {
+				growEntries(Math.max(2 * entryBody.length, needed));
+			}
+			for (int x = x1; x <= x2; x++) {
+				for (int y = y1; y <= y2; y++) {
+					entryBody[numEntries] = i;
+					entryCellX[numEntries] = x;
+					entryCellY[numEntries] = y;
+					numEntries++;
+				}
+			}
+		}
+		int numBuckets = 2;
+		while (numBuckets < 2 * numEntries) {
+			numBuckets <<= 1;
+		}
+		if (bucketStart.length < numBuckets + 1) {
+			bucketStart = new int[numBuckets + 1];
+		}
+		bucketMask = numBuckets - 1;
+		for (int k = 0; k <= numBuckets; k++) {
+			bucketStart[k] = 0;
+		}
+		for (int e = 0; e < numEntries; e++) {
+			int k = bucket(entryCellX[e], entryCellY[e]);
+			entryBucket[e] = k;
+			bucketStart[k + 1]++;
+		}
+		for (int k = 0; k < numBuckets; k++) {
+			bucketStart[k + 1] += bucketStart[k];
+		}
+		// bucketStart[k] is used as insertion cursor and afterwards points to
+		// the end of bucket k, which is the start of bucket k + 1. Shift back.
+		for (int e = 0; e < numEntries; e++) {
+			int pos = bucketStart[entryBucket[e]]++;
+			sortedBody[pos] = entryBody[e];
+			sortedCellX[pos] = entryCellX[e];
+			sortedCellY[pos] = entryCellY[e];
+		}
+		for (int k = numBuckets; k > 0; k--) {
+			bucketStart[k] = bucketStart[k - 1];
+		}
+		bucketStart[0] = 0;
+	}
+	private void growEntries(int capacity) {
+		int[] body = entryBody, cellX = entryCellX, cellY = entryCellY;
+		allocateEntries(capacity);
+		System.arraycopy(body, 0, entryBody, 0, numEntries);
+		System.arraycopy(cellX, 0, entryCellX, 0, numEntries);
+		System.arraycopy(cellY, 0, entryCellY, 0, numEntries);
+	}
+	private boolean overlap(int i, int j) {
+		return minX[i] <= maxX[j] && minX[j] <= maxX[i] && minY[i] <= maxY[j] && minY[j] <= maxY[i];
+	}
+	private void findPairs() {
+		int numBuckets = bucketMask + 1;
+		for (int k = 0; k < numBuckets; k++) {
+			int end = bucketStart[k + 1];
+			for (int e1 = bucketStart[k]; e1 < end; e1++) {
+				int i = sortedBody[e1];
+				int cellX = sortedCellX[e1], cellY = sortedCellY[e1];
+				for (int e2 = e1 + 1; e2 < end; e2++) {
+					// Different cells can end up in the same bucket
+					if (sortedCellX[e2] != cellX || sortedCellY[e2] != cellY)
+						continue;
+					int j = sortedBody[e2];
+					if (!overlap(i, j))
+						continue;
+					// Only report the pair in the cell containing the lower left
+					// corner of the intersection
+					if (cell(Math.max(minX[i], minX[j])) != cellX || cell(Math.max(minY[i], minY[j])) != cellY)
+						continue;
+					touchPair(i, j);
+				}
+			}
+		}
+		for (int k = 0; k < numOversized; k++) {
+			int i = oversized[k];
+			for (int j = 0; j < world.numBodies; j++) {
+				if (j == i)
+					continue;
+				// Two oversized bodies are only checked once
+				if (j < i && isOversized(j))
+					continue;
+				if (overlap(i, j))
+					touchPair(i, j);
+			}
+		}
+	}
+	private boolean isOversized(int i) {
+		return cell(maxX[i]) - cell(minX[i]) >= MAXCELLSPERAXIS || cell(maxY[i]) - cell(minY[i]) >= MAXCELLSPERAXIS;
+	}
+	private void touchPair(int i, int j) {
+		Pair p = pairTable.get(Pair.key(i, j));
+		if (p == null) {
+			addPair(world.getBody(i), world.getBody(j));
+			p = pairTable.get(Pair.key(i, j));
+		}
+		p.frame = frame;
+	}
+	private void removeOldPairs() {
+		Body b;
+		for (int i = 0; i < world.numBodies; i++) {
+			b = world.getBody(i);
+			for (int j = b.pairs.size() - 1; j >= 0; j--) {
+				Pair p = b.pairs.get(j);
+				if (p.b1 == b && p.frame != frame) {
+					remPair(p.b1, p.b2);
+				}
+			}
+		}
+	}
+	/**
+	 * Looks the region up in the grid of the last update if it only touches a few cells. Otherwise (and for oversized bodies) the bounds of every body are checked. If bodies were added or removed since the last update, the bounds of every body are calculated again and checked.
+	 */
+	@Override
+	public void queryRegion(float x1, float y1, float x2, float y2, Vector<Body> result) {
+		if (stale) {
+			queryAll(x1, y1, x2, y2, result);
+			return;
+		}
+		int cx1 = cell(x1), cx2 = cell(x2), cy1 = cell(y1), cy2 = cell(y2);
+		int n = Math.min(world.numBodies, minX.length);
+		if (numEntries == 0 || (long) (cx2 - cx1 + 1) * (cy2 - cy1 + 1) > MAXCELLSPERAXIS * MAXCELLSPERAXIS) {
+			for (int i = 0; i < n; i++) {
+				if (minX[i] <= x2 && x1 <= maxX[i] && minY[i] <= y2 && y1 <= maxY[i])
+					result.add(world.getBody(i));
+			}
+			return;
+		}
+		for (int cx = cx1; cx <= cx2; cx++) {
+			for (int cy = cy1; cy <= cy2; cy++) {
+				int k = bucket(cx, cy);
+				for (int e = bucketStart[k]; e < bucketStart[k + 1]; e++) {
+					int i = sortedBody[e];
+					if (sortedCellX[e] != cx || sortedCellY[e] != cy || i >= n)
+						continue;
+					if (minX[i] > x2 || x1 > maxX[i] || minY[i] > y2 || y1 > maxY[i])
+						continue;
+					// Report each body only in one cell
+					if (cell(Math.max(minX[i], x1)) != cx || cell(Math.max(minY[i], y1)) != cy)
+						continue;
+					result.add(world.getBody(i));
+				}
+			}
+		}
+		for (int k = 0; k < numOversized; k++) {
+			int i = oversized[k];
+			if (i < n && minX[i] <= x2 && x1 <= maxX[i] && minY[i] <= y2 && y1 <= maxY[i])
+				result.add(world.getBody(i));
+		}
+	}
+	/**
+	 * Checks the region against the bounds of every body in the world, calculated the same way as in refresh.
+	 */
+	private void queryAll(float x1, float y1, float x2, float y2, Vector<Body> result) {
+		Body b;
+		for (int i = 0; i < world.numBodies; i++) {
+			b = world.getBody(i);
+			float vX = Math.abs(b.vel.x) * lastDt + World.BOUNDINGMARGIN;
+			float vY = Math.abs(b.vel.y) * lastDt + World.BOUNDINGMARGIN;
+			if (b.minX - vX <= x2 && x1 <= b.maxX + vX && b.minY - vY <= y2 && y1 <= b.maxY + vY)
+				result.add(b);
+		}
+	}
+}
@@ -0,0 +1,953 @@
+package physics.collision;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Vector;
+
+import physics.Body;
+import physics.World;
+import tools.LongHashMap;
+import tools.Parallel;
+/**
+ * Implements a sweep and prune algorithm to determine possible colliding body-pairs. To accomplish this, two lists of "delimiters", which keep track of a single coordinate of one boundary of a body are stored. They are sorted each frame and whenever two delimiters start overlapping, a pair is added, whenenver two delimiters stop overlapping the pair is removed. Pairs are only added if delimiters overlap on both axes. A quick box check (with the delimiter indices) is done to achieve this.
+ *
+ * Static bodies that do not move and sleeping bodies can not change their bounds, so they are "frozen": Their delimiters are taken out of the arrays and they are kept in a separate uniform grid that is only rebuilt when a frozen body is added, removed, moves or wakes up. Every frame only the moving bodies are refreshed and sorted and each of them is then looked up in the grid. Pairs between a moving and a frozen body are stamped with the frame in which they were last seen and removed as soon as they are not seen anymore. Pairs between two frozen bodies are kept until one of them thaws, they matter since the CollisionHandler only ignores pairs of two static or two sleeping bodies (a sleeping body keeps its contacts with the static floor it rests on). A body that freezes keeps the pairs it had while it was moving, a body that is added frozen has none, so its pairs with the other frozen bodies are searched in the grid when it is rebuilt.
+ *
+ * The delimiters of a moving body describe its "fat" bounds: its bounds enlarged by the fat margin (see Broadphase.setFatMargin). They are only moved once the body leaves them, so bodies that jitter in place don't cross any delimiters and their pairs (and arbiters) survive.
+ *
+ * The delimiters are stored as parallel primitive arrays (one float array for the positions and one int array for the slot of the body and the start/end bit per axis), so that the insertion sort runs over contiguous memory instead of following a reference for every comparison. Every body gets a slot (stored in Body.proxyId) which indexes the body and the delimiter indices of its bounds.
+ *
+ * @author toni
+ *
+ */
+public class SweepAndPrune extends Broadphase {
+	// Delimiter positions along both axes
+	private float[] posX, posY;
+	// Slot of the body of each delimiter shifted left by one, the lowest bit
+	// is set for start delimiters
+	private int[] infoX, infoY;
+	// Bodies and the indices of their delimiters, indexed by slot
+	private Body[] slots;
+	private int[] startX, endX, startY, endY;
+	// Slots of removed bodies that can be reused
+	private int[] freeSlots;
+	private int numFreeSlots;
+	// Slots of removed frozen bodies, they are still in the grid of frozen
+	// bodies and are only reused after it has been rebuilt
+	private int[] freeFrozenSlots;
+	private int numFreeFrozenSlots;
+	// Number of slots that have been handed out so far
+	private int numSlots;
+	private int numBodies;
+	// Number of bodies whose delimiters have been marked as removed but are
+	// still in the delimiter arrays (see remBody)
+	private int numRemoved;
+	// Whether the body in a slot is frozen and the position and bounds of the
+	// body in the last update. A body is only frozen if neither changed since
+	// then (the bounds also change if it is only rotated).
+	private boolean[] frozen;
+	private float[] lastPosX, lastPosY, lastMinX, lastMinY, lastMaxX, lastMaxY;
+	// Bounds and slots of the frozen bodies. Frozen bodies that are a lot
+	// larger than the others (floors, ...) are kept in large instead of the
+	// grid, so that they don't make the cells too large.
+	private float[] frozenMinX, frozenMinY, frozenMaxX, frozenMaxY;
+	private int[] frozenSlot;
+	// First cell of every frozen body
+	private int[] frozenCellX, frozenCellY;
+	private int numFrozen;
+	private int[] large;
+	private int numLarge;
+	// Grid of the frozen bodies: Every cell stores a copy of the bounds, the
+	// slot and the first cell of every frozen body it touches (entries from
+	// cellStart[cell] to cellStart[cell + 1]), so that a query only reads
+	// contiguous memory.
+	private float gridX, gridY, invCellSize;
+	private int gridWidth, gridHeight;
+	private int[] cellStart;
+	private float[] entryMinX, entryMinY, entryMaxX, entryMaxY;
+	private int[] entrySlot, entryCellX, entryCellY;
+	// Slots found by queryFrozen
+	private int[] found;
+	private boolean frozenDirty;
+	// Pairs between two frozen bodies, they only change when the frozen bodies
+	// change.
+	private Vector<Pair> frozenPairs = new Vector<Pair>();
+	// Slots that have thawed in the current frame
+	private int[] thawed;
+	private int numThawed;
+	// Slots of the bodies that were frozen when they were added, their pairs
+	// with the other frozen bodies are found by the next buildFrozen
+	private int[] addedFrozen;
+	private int numAddedFrozen;
+	// Slots whose start delimiter has been passed but not the end delimiter
+	// during findAllPairs, and their index in that list
+	private int[] active, activeIndex;
+	// Frame counter, pairs between a moving and a frozen body that were not
+	// seen in the current frame are removed
+	private int frame;
+	// Frozen bodies larger than this factor times the average extent are put
+	// into the large list.
+	private static final float LARGEFACTOR = 4.0f;
+	// If more bodies than this are inserted at once their pairs are found
+	// with a single sweep over all delimiters instead of one search per body.
+	private static final int SWEEPTHRESHOLD = 8;
+	// Number of slots per chunk when refreshing in parallel.
+	private static final int REFRESHCHUNK = 1024;
+	// Candidate pair events recorded by the concurrent sort of each axis.
+	private PairEvents eventsX = new PairEvents(), eventsY = new PairEvents();
+	/**
+	 * Initializes the broadphase. Most of the times there won't be any bodies in the World at this point of time.
+	 *
+	 * @param w
+	 * @param dt
+	 * @param pairs
+	 *            The pair table shared with the CollisionHandler. Pairs are stored under Pair.key of the indices of their bodies.
+	 */
+	public SweepAndPrune(World w, float dt, LongHashMap<Pair> pairs) {
+		super(w, pairs);
+		numBodies = 0;
+		allocate(world.numBodies + CollisionHandler.RESERVEDSPACE);
+		Vector<Body> bodies = new Vector<Body>(world.numBodies);
+		for (int i = 0; i < world.numBodies; i++) {
+			bodies.add(world.getBody(i));
+		}
+		addBodies(bodies);
+	}
+	private void allocate(int capacity) {
+		posX = new float[2 * capacity];
+		posY = new float[2 * capacity];
+		infoX = new int[2 * capacity];
+		infoY = new int[2 * capacity];
+		slots = new Body[capacity];
+		startX = new int[capacity];
+		endX = new int[capacity];
+		startY = new int[capacity];
+		endY = new int[capacity];
+		freeSlots = new int[capacity];
+		freeFrozenSlots = new int[capacity];
+		frozen = new boolean[capacity];
+		lastPosX = new float[capacity];
+		lastPosY = new float[capacity];
+		lastMinX = new float[capacity];
+		lastMinY = new float[capacity];
+		lastMaxX = new float[capacity];
+		lastMaxY = new float[capacity];
+		allocateFrozen(capacity);
+		thawed = new int[capacity];
+		addedFrozen = new int[capacity];
+		active = new int[capacity];
+		activeIndex = new int[capacity];
+	}
+	private void allocateFrozen(int capacity) {
+		frozenMinX = new float[capacity];
+		frozenMinY = new float[capacity];
+		frozenMaxX = new float[capacity];
+		frozenMaxY = new float[capacity];
+		frozenSlot = new int[capacity];
+		frozenCellX = new int[capacity];
+		frozenCellY = new int[capacity];
+		large = new int[capacity];
+		found = new int[capacity];
+		cellStart = new int[1];
+		allocateEntries(capacity);
+	}
+	private void allocateEntries(int capacity) {
+		entryMinX = new float[capacity];
+		entryMinY = new float[capacity];
+		entryMaxX = new float[capacity];
+		entryMaxY = new float[capacity];
+		entrySlot = new int[capacity];
+		entryCellX = new int[capacity];
+		entryCellY = new int[capacity];
+	}
+	private static int slot(int info) {
+		return info >> 1;
+	}
+	private static boolean isStart(int info) {
+		return (info & 1) != 0;
+	}
+	/**
+	 * Updates the delimiter positions for every moving body that left its fat bounds. Does not! sort the delimiters or find out new pairs / old ones that need to be removed.
+	 *
+	 * @param dt
+	 */
+	public void refresh(final float dt) {
+		if (parallel) {
+			Parallel.forRange(numSlots, REFRESHCHUNK, (start, end) -> refresh(dt, start, end));
+		}
+		else {
+			refresh(dt, 0, numSlots);
+		}
+	}
+	private void refresh(float dt, int start, int end) {
+		Body b;
+		for (int s = start; s < end; s++) {
+			b = slots[s];
+			if (b == null || frozen[s])
+				continue;
+			float vX = Math.abs(b.vel.x) * dt + World.BOUNDINGMARGIN;
+			float vY = Math.abs(b.vel.y) * dt + World.BOUNDINGMARGIN;
+			float x1 = b.minX - vX, x2 = b.maxX + vX;
+			float y1 = b.minY - vY, y2 = b.maxY + vY;
+			if (posX[startX[s]] <= x1 && posX[endX[s]] >= x2 && posY[startY[s]] <= y1 && posY[endY[s]] >= y2)
+				continue; // Still inside its fat bounds
+			posX[startX[s]] = x1 - fatMargin;
+			posX[endX[s]] = x2 + fatMargin;
+			posY[startY[s]] = y1 - fatMargin;
+			posY[endY[s]] = y2 + fatMargin;
+		}
+	}
+	/**
+	 * Theoretically this should work as follows: Every delimiter is updated with the current position of its body. The delimiters get sorted along the x- and y-axis. Whenenver two delimiters start to overlap because of the sorting along one axis, addPairX or addPairY is called. addPairX and addPairY only really add a new pair if the other axis overlaps aswell. TODO : Does this actually help against just checking for overlap on one axis?
+	 *
+	 * @param dt
+	 * @param pairs
+	 * @param pairsList
+	 */
+	public void update(float dt, Vector<Pair> pairsList) {
+		resetPairCounters();
+		frame++;
+		updateFrozen();
+		compact();
+		insertThawed();
+		if (frozenDirty) {
+			buildFrozen();
+		}
+		refresh(dt);
+		if (parallel) {
+			sortConcurrently();
+		}
+		else {
+			updateDelimiters(posX, infoX, true, null);
+			updateDelIndices(infoX, startX, endX);
+			updateDelimiters(posY, infoY, false, null);
+			updateDelIndices(infoY, startY, endY);
+		}
+		sweepFrozen();
+		collectPairs(pairsList);
+	}
+	/**
+	 * Static bodies that don't move and sleeping bodies are frozen.
+	 */
+	private static boolean canFreeze(Body b) {
+		return b.sleeps || (b.isStatic() && b.vel.x == 0.0f && b.vel.y == 0.0f);
+	}
+	/**
+	 * Freezes every moving body that can be frozen (its delimiters are removed by the next compact) and thaws every frozen body that woke up or was moved or rotated from outside.
+	 */
+	private void updateFrozen() {
+		Body b;
+		numThawed = 0;
+		for (int s = 0; s < numSlots; s++) {
+			b = slots[s];
+			if (b == null)
+				continue;
+			if (frozen[s]) {
+				if (!canFreeze(b) || moved(s)) {
+					frozen[s] = false;
+					remember(s);
+					thawed[numThawed++] = s;
+					frozenDirty = true;
+				}
+			}
+			else if (canFreeze(b) && !moved(s)) {
+				freeze(s);
+				numRemoved++;
+			}
+			else {
+				remember(s);
+			}
+		}
+	}
+	private void freeze(int s) {
+		frozen[s] = true;
+		remember(s);
+		frozenDirty = true;
+	}
+	/**
+	 * Whether the position or the bounds of the body in slot s changed since the last remember(s).
+	 */
+	private boolean moved(int s) {
+		Body b = slots[s];
+		return b.pos.x != lastPosX[s] || b.pos.y != lastPosY[s] || b.minX != lastMinX[s] || b.minY != lastMinY[s] || b.maxX != lastMaxX[s] || b.maxY != lastMaxY[s];
+	}
+	private void remember(int s) {
+		Body b = slots[s];
+		lastPosX[s] = b.pos.x;
+		lastPosY[s] = b.pos.y;
+		lastMinX[s] = b.minX;
+		lastMinY[s] = b.minY;
+		lastMaxX[s] = b.maxX;
+		lastMaxY[s] = b.maxY;
+	}
+	/**
+	 * Puts the delimiters of all thawed bodies back into the arrays. Their pairs with moving bodies are now kept by the sort again, so pairs that do not overlap anymore are removed and missing ones are added.
+	 */
+	private void insertThawed() {
+		if (numThawed == 0)
+			return;
+		for (int k = 0; k < numThawed; k++) {
+			appendDelimiters(thawed[k]);
+		}
+		sort();
+		updateDelIndices(infoX, startX, endX);
+		updateDelIndices(infoY, startY, endY);
+		Body b, other;
+		for (int k = 0; k < numThawed; k++) {
+			int s = thawed[k];
+			b = slots[s];
+			for (int j = b.pairs.size() - 1; j >= 0; j--) {
+				other = b.pairs.get(j).otherThan(b);
+				if (!frozen[other.proxyId] && !(overlapX(s, other.proxyId) && overlapY(s, other.proxyId))) {
+					remPair(b, other);
+				}
+			}
+		}
+		findPairsForNewBodies(thawed, numThawed);
+	}
+	/**
+	 * Rebuilds the grid of frozen bodies, adds the pairs of the bodies that were added frozen and collects the pairs between frozen bodies.
+	 */
+	private void buildFrozen() {
+		frozenDirty = false;
+		// The removed frozen bodies are not in the new grid, their slots can be
+		// reused now
+		while (numFreeFrozenSlots > 0) {
+			freeSlots[numFreeSlots++] = freeFrozenSlots[--numFreeFrozenSlots];
+		}
+		buildGrid();
+		findPairsForAddedFrozen();
+		frozenPairs.clear();
+		Body b;
+		Pair p;
+		for (int s = 0; s < numSlots; s++) {
+			b = slots[s];
+			if (b == null || !frozen[s])
+				continue;
+			for (int j = 0; j < b.pairs.size(); j++) {
+				p = b.pairs.get(j);
+				if (p.b1 == b && frozen[p.b2.proxyId])
+					frozenPairs.add(p);
+			}
+		}
+	}
+	/**
+	 * Looks up every body that was added frozen (and still is) in the grid and the large list and adds its pairs with the other frozen bodies. The slots of removed bodies are not reused before this, so the list can not point to another body.
+	 */
+	private void findPairsForAddedFrozen() {
+		Body b;
+		for (int k = 0; k < numAddedFrozen; k++) {
+			int s = addedFrozen[k];
+			b = slots[s];
+			if (b == null || !frozen[s])
+				continue;
+			float x1 = b.minX - World.BOUNDINGMARGIN, x2 = b.maxX + World.BOUNDINGMARGIN;
+			float y1 = b.minY - World.BOUNDINGMARGIN, y2 = b.maxY + World.BOUNDINGMARGIN;
+			int n = queryFrozen(x1, y1, x2, y2);
+			for (int i = 0; i < n; i++) {
+				if (found[i] != s)
+					addPair(b, slots[found[i]]);
+			}
+			for (int i = 0; i < numLarge; i++) {
+				if (large[i] != s && overlapsLarge(large[i], x1, y1, x2, y2))
+					addPair(b, slots[large[i]]);
+			}
+		}
+		numAddedFrozen = 0;
+	}
+	/**
+	 * Puts all frozen bodies into the grid (counting sort by cell). The cell size is the average extent of the frozen bodies but is increased if the grid would have a lot more cells than there are bodies.
+	 */
+	private void buildGrid() {
+		if (frozenMinX.length < slots.length) {
+			allocateFrozen(slots.length);
+		}
+		Body b;
+		float sum = 0.0f;
+		int num = 0;
+		for (int s = 0; s < numSlots; s++) {
+			if (slots[s] != null && frozen[s]) {
+				sum += extent(slots[s]);
+				num++;
+			}
+		}
+		float limit = num == 0 ? 0.0f : LARGEFACTOR * sum / num;
+		float x1 = Float.MAX_VALUE, y1 = Float.MAX_VALUE, x2 = -Float.MAX_VALUE, y2 = -Float.MAX_VALUE;
+		sum = 0.0f;
+		numFrozen = 0;
+		numLarge = 0;
+		for (int s = 0; s < numSlots; s++) {
+			b = slots[s];
+			if (b == null || !frozen[s])
+				continue;
+			if (extent(b) > limit) {
+				large[numLarge++] = s;
+				continue;
+			}
+			frozenMinX[numFrozen] = b.minX - World.BOUNDINGMARGIN;
+			frozenMaxX[numFrozen] = b.maxX + World.BOUNDINGMARGIN;
+			frozenMinY[numFrozen] = b.minY - World.BOUNDINGMARGIN;
+			frozenMaxY[numFrozen] = b.maxY + World.BOUNDINGMARGIN;
+			frozenSlot[numFrozen] = s;
+			x1 = Math.min(x1, frozenMinX[numFrozen]);
+			y1 = Math.min(y1, frozenMinY[numFrozen]);
+			x2 = Math.max(x2, frozenMaxX[numFrozen]);
+			y2 = Math.max(y2, frozenMaxY[numFrozen]);
+			sum += extent(b);
+			numFrozen++;
+		}
+		if (numFrozen == 0) {
+			gridWidth = 0;
+			gridHeight = 0;
+			return;
+		}
+		gridX = x1;
+		gridY = y1;
+		float cellSize = sum / numFrozen;
+		do {
+			invCellSize = 1.0f / cellSize;
+			gridWidth = (int) ((x2 - x1) * invCellSize) + 1;
+			gridHeight = (int) ((y2 - y1) * invCellSize) + 1;
+			cellSize *= 2.0f;
+		} while ((long) gridWidth * gridHeight > 4L * numFrozen + 16);
+		int numCells = gridWidth * gridHeight;
+		if (cellStart.length < numCells + 1) {
+			cellStart = new int[numCells + 1];
+		}
+		for (int c = 0; c <= numCells; c++) {
+			cellStart[c] = 0;
+		}
+		int numEntries = 0;
+		for (int e = 0; e < numFrozen; e++) {
+			frozenCellX[e] = cellX(frozenMinX[e]);
+			frozenCellY[e] = cellY(frozenMinY[e]);
+			for (int cy = cellY(frozenMinY[e]); cy <= cellY(frozenMaxY[e]); cy++) {
+				for (int cx = cellX(frozenMinX[e]); cx <= cellX(frozenMaxX[e]); cx++) {
+					cellStart[cy * gridWidth + cx + 1]++;
+					numEntries++;
+				}
+			}
+		}
+		for (int c = 0; c < numCells; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		if (entrySlot.length < numEntries) {
+			allocateEntries(numEntries);
+		}
+		// cellStart[c] is used as insertion cursor and afterwards points to the
+		// end of cell c, which is the start of cell c + 1. Shift back.
+		for (int e = 0; e < numFrozen; e++) {
+			for (int cy = cellY(frozenMinY[e]); cy <= cellY(frozenMaxY[e]); cy++) {
+				for (int cx = cellX(frozenMinX[e]); cx <= cellX(frozenMaxX[e]); cx++) {
+					int k = cellStart[cy * gridWidth + cx]++;
+					entryMinX[k] = frozenMinX[e];
+					entryMinY[k] = frozenMinY[e];
+					entryMaxX[k] = frozenMaxX[e];
+					entryMaxY[k] = frozenMaxY[e];
+					entrySlot[k] = frozenSlot[e];
+					entryCellX[k] = frozenCellX[e];
+					entryCellY[k] = frozenCellY[e];
+				}
+			}
+		}
+		for (int c = numCells; c > 0; c--) {
+			cellStart[c] = cellStart[c - 1];
+		}
+		cellStart[0] = 0;
+	}
+	/**
+	 * Collects the pairs of the moving bodies and the (unchanged) pairs between frozen bodies, so that the pair vectors of the frozen bodies don't have to be visited.
+	 */
+	@Override
+	protected void collectPairs(Vector<Pair> pairsList) {
+		pairsList.clear();
+		pairsList.addAll(frozenPairs);
+		Body b;
+		Pair p;
+		for (int i = 0; i < numBodies * 2; i++) {
+			if (!isStart(infoX[i]))
+				continue;
+			b = slots[slot(infoX[i])];
+			for (int j = 0; j < b.pairs.size(); j++) {
+				p = b.pairs.get(j);
+				if (p.b1 == b || frozen[p.otherThan(b).proxyId])
+					pairsList.add(p);
+			}
+		}
+	}
+	private static float extent(Body b) {
+		return Math.max(b.maxX - b.minX, b.maxY - b.minY) + 2.0f * World.BOUNDINGMARGIN;
+	}
+	// Positions left of/below the grid are truncated towards zero instead of
+	// floored, which does not matter since they are clamped to the first cell.
+	private int cellX(float x) {
+		return Math.max(0, Math.min(gridWidth - 1, (int) ((x - gridX) * invCellSize)));
+	}
+	private int cellY(float y) {
+		return Math.max(0, Math.min(gridHeight - 1, (int) ((y - gridY) * invCellSize)));
+	}
+	/**
+	 * Stores the slots of all frozen bodies in the grid whose bounds overlap the box in found. Every body is reported once, in the first cell of the box that it touches.
+	 *
+	 * @return The number of found bodies
+	 */
+	private int queryFrozen(float x1, float y1, float x2, float y2) {
+		int n = 0;
+		if (numFrozen == 0)
+			return 0;
+		int cx1 = cellX(x1), cx2 = cellX(x2), cy1 = cellY(y1), cy2 = cellY(y2);
+		for (int cy = cy1; cy <= cy2; cy++) {
+			for (int cx = cx1; cx <= cx2; cx++) {
+				int c = cy * gridWidth + cx;
+				for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+					if (entryMinX[k] > x2 || entryMaxX[k] < x1 || entryMinY[k] > y2 || entryMaxY[k] < y1)
+						continue;
+					if (Math.max(entryCellX[k], cx1) != cx || Math.max(entryCellY[k], cy1) != cy)
+						continue;
+					found[n++] = entrySlot[k];
+				}
+			}
+		}
+		return n;
+	}
+	/**
+	 * Looks up every moving body in the grid of frozen bodies and removes the pairs between moving and frozen bodies that were not seen.
+	 */
+	private void sweepFrozen() {
+		int s;
+		for (int i = 0; i < numBodies * 2; i++) {
+			if (!isStart(infoX[i]))
+				continue;
+			s = slot(infoX[i]);
+			float x1 = posX[i], x2 = posX[endX[s]], y1 = posY[startY[s]], y2 = posY[endY[s]];
+			int n = queryFrozen(x1, y1, x2, y2);
+			for (int k = 0; k < n; k++) {
+				touchPair(s, found[k]);
+			}
+			for (int k = 0; k < numLarge; k++) {
+				if (overlapsLarge(large[k], x1, y1, x2, y2))
+					touchPair(s, large[k]);
+			}
+		}
+		Body b, other;
+		for (int i = 0; i < numBodies * 2; i++) {
+			if (!isStart(infoX[i]))
+				continue;
+			b = slots[slot(infoX[i])];
+			for (int j = b.pairs.size() - 1; j >= 0; j--) {
+				Pair p = b.pairs.get(j);
+				other = p.otherThan(b);
+				if (frozen[other.proxyId] && p.frame != frame)
+					remPair(b, other);
+			}
+		}
+	}
+	private boolean overlapsLarge(int s, float x1, float y1, float x2, float y2) {
+		Body b = slots[s];
+		return b.minX - World.BOUNDINGMARGIN <= x2 && b.maxX + World.BOUNDINGMARGIN >= x1 && b.minY - World.BOUNDINGMARGIN <= y2 && b.maxY + World.BOUNDINGMARGIN >= y1;
+	}
+	private void touchPair(int s1, int s2) {
+		long key = Pair.key(slots[s1].indexInWorld, slots[s2].indexInWorld);
+		Pair p = pairTable.get(key);
+		if (p == null) {
+			addPair(slots[s1], slots[s2]);
+			p = pairTable.get(key);
+		}
+		p.frame = frame;
+	}
+	/**
+	 * Sorts both axes at the same time. The sorts can not add or remove pairs directly since the pair table is shared and the overlap check needs the final indices of the other axis. Instead every start/end passing is recorded as an event. Afterwards the events of the x-axis and then those of the y-axis are replayed in the order they were recorded: A pair exists if the bodies overlap on both axes (with the final delimiter indices). This is deterministic and gives the same pairs as the serial sort (which checks against the indices of the last frame for the x-axis).
+	 */
+	private void sortConcurrently() {
+		eventsX.clear();
+		eventsY.clear();
+		Parallel.both(() -> updateDelimiters(posX, infoX, true, eventsX), () -> updateDelimiters(posY, infoY, false, eventsY));
+		updateDelIndices(infoX, startX, endX);
+		updateDelIndices(infoY, startY, endY);
+		replay(eventsX);
+		replay(eventsY);
+	}
+	private void replay(PairEvents events) {
+		int s1, s2;
+		for (int i = 0; i < events.size; i++) {
+			s1 = events.s1[i];
+			s2 = events.s2[i];
+			if (overlapX(s1, s2) && overlapY(s1, s2)) {
+				if (events.add[i])
+					addPair(slots[s1], slots[s2]);
+			}
+			else {
+				remPair(slots[s1], slots[s2]);
+			}
+		}
+	}
+	private boolean overlapX(int s1, int s2) {
+		return startX[s1] < endX[s2] && startX[s2] < endX[s1];
+	}
+	private boolean overlapY(int s1, int s2) {
+		return startY[s1] < endY[s2] && startY[s2] < endY[s1];
+	}
+	/**
+	 * Walks through the sorted x-delimiters up to maxX and checks every body that starts before maxX for overlap with the region. The frozen bodies are looked up in their grid.
+	 */
+	@Override
+	public void queryRegion(float minX, float minY, float maxX, float maxY, Vector<Body> result) {
+		int s;
+		for (int i = 0; i < numBodies * 2; i++) {
+			if (posX[i] > maxX)
+				break;
+			if (!isStart(infoX[i]))
+				continue;
+			s = slot(infoX[i]);
+			if (slots[s] == null)
+				continue;
+			if (posX[endX[s]] < minX || posY[startY[s]] > maxY || posY[endY[s]] < minY)
+				continue;
+			result.add(slots[s]);
+		}
+		int t;
+		int n = queryFrozen(minX, minY, maxX, maxY);
+		for (int k = 0; k < n; k++) {
+			t = found[k];
+			if (slots[t] != null)
+				result.add(slots[t]);
+		}
+		for (int k = 0; k < numLarge; k++) {
+			t = large[k];
+			if (slots[t] != null && overlapsLarge(t, minX, minY, maxX, maxY))
+				result.add(slots[t]);
+		}
+	}
+	/**
+	 * Stores the index of every delimiter of one axis in the start/end arrays of its slot.
+	 */
+	private void updateDelIndices(int[] info, int[] start, int[] end) {
+		int in;
+		for (int i = 0; i < numBodies * 2; i++) {
+			in = info[i];
+			if (isStart(in))
+				start[slot(in)] = i;
+			else
+				end[slot(in)] = i;
+		}
+	}
+	/**
+	 * Basically performs insertion sort on the delimiters of one axis. Whenenver it moves two delimiters along eachother (See the implementation of insertion sort as an explanation) it will add/remove the collision pair of those two bodies.(depending on what kind of delimiters pass each other (start <-> start, start <-> end, ...)
+	 *
+	 * @param pos
+	 *            The delimiter positions of the axis (posX or posY). This function is written for both axes because it has to do the same things.
+	 * @param info
+	 *            The slot/start bits of the delimiters of the axis.
+	 * @param isX
+	 *            Determines whether the delimiters are the ones of the x-axis.
+	 * @param events
+	 *            If this is not null the passings are only recorded in events instead of adding/removing pairs (see sortConcurrently).
+	 */
+	private void updateDelimiters(float[] pos, int[] info, boolean isX, PairEvents events) {
+		float keyPos;
+		int key, passing;
+		int i;
+		for (int j = 1; j < 2 * numBodies; j++) {
+			keyPos = pos[j];
+			if (pos[j - 1] <= keyPos)
+				continue; // Already on the correct position
+			key = info[j];
+			i = j - 1;
+			while (i >= 0 && pos[i] > keyPos) { // As long as the delimiter
+												// key is not on the correct
+												// position
+				passing = info[i];
+				if (events != null) {
+					if (isStart(key) != isStart(passing))
+						events.add(slot(key), slot(passing), isStart(key));
+				}
+				else if (isStart(key) && !isStart(passing)) { // Start passes end
+					if (isX) {
+						addPairX(slot(key), slot(passing));
+					}
+					else {
+						addPairY(slot(key), slot(passing));
+					}
+				}
+				else if (!isStart(key) && isStart(passing)) {
+					remPair(slots[slot(key)], slots[slot(passing)]);
+				}
+				pos[i + 1] = pos[i];
+				info[i + 1] = passing;
+				i--;
+			}
+			pos[i + 1] = keyPos;
+			info[i + 1] = key;
+		}
+	}
+	private void addPairX(int s1, int s2) {
+		if (!overlapY(s1, s2)) {
+			return; // They dont overlap along the y-axis
+		}
+		addPair(slots[s1], slots[s2]);
+	}
+	private void addPairY(int s1, int s2) {
+		if (!overlapX(s1, s2)) {
+			return; // They dont overlap along the x-axis
+		}
+		addPair(slots[s1], slots[s2]);
+	}
+	/**
+	 * Adds the body. Bodies that can be frozen right away (static scenery) are only put into the grid of frozen bodies, which is rebuilt in the next update.
+	 */
+	public void addBody(Body b) {
+		compact();
+		if (numFreeSlots == 0 && numSlots == slots.length) {
+			extendArrays(slots.length + CollisionHandler.RESERVEDSPACE);
+		}
+		int s = takeSlot(b);
+		if (canFreeze(b)) {
+			freeze(s);
+			addedFrozen[numAddedFrozen++] = s;
+			return;
+		}
+		appendDelimiters(s);
+		sort();
+		updateDelIndices(infoX, startX, endX);
+		updateDelIndices(infoY, startY, endY);
+		findPairsForNewBody(s);
+	}
+	/**
+	 * Adds all bodies at once: The arrays are grown once, the delimiters of all bodies are appended and sorted once and the pairs are found with a single sweep along the x-axis. This costs O(n log n) for the sort plus the number of overlaps along the x-axis instead of a full sort per body.
+	 */
+	@Override
+	public void addBodies(Collection<Body> bodies) {
+		compact();
+		int needed = numSlots - numFreeSlots + bodies.size();
+		if (needed > slots.length) {
+			extendArrays(needed + CollisionHandler.RESERVEDSPACE);
+		}
+		int[] added = new int[bodies.size()];
+		int numAdded = 0;
+		for (Body b : bodies) {
+			int s = takeSlot(b);
+			if (canFreeze(b)) {
+				freeze(s);
+				addedFrozen[numAddedFrozen++] = s;
+				continue;
+			}
+			appendDelimiters(s);
+			added[numAdded++] = s;
+		}
+		if (numAdded == 0)
+			return;
+		sort();
+		updateDelIndices(infoX, startX, endX);
+		updateDelIndices(infoY, startY, endY);
+		findPairsForNewBodies(added, numAdded);
+	}
+	private int takeSlot(Body b) {
+		int s;
+		if (numFreeSlots > 0) {
+			s = freeSlots[--numFreeSlots];
+		}
+		else {
+			s = numSlots++;
+		}
+		slots[s] = b;
+		frozen[s] = false;
+		b.proxyId = s;
+		return s;
+	}
+	/**
+	 * Appends the delimiters of the body in slot s (with its current bounds) to the end of the arrays. They have to be sorted afterwards.
+	 */
+	private void appendDelimiters(int s) {
+		Body b = slots[s];
+		int i = 2 * numBodies;
+		numBodies++;
+		float margin = World.BOUNDINGMARGIN + fatMargin;
+		posX[i] = b.minX - margin;
+		infoX[i] = s << 1 | 1;
+		posX[i + 1] = b.maxX + margin;
+		infoX[i + 1] = s << 1;
+		posY[i] = b.minY - margin;
+		infoY[i] = s << 1 | 1;
+		posY[i + 1] = b.maxY + margin;
+		infoY[i + 1] = s << 1;
+	}
+	private void extendArrays(int capacity) {
+		posX = Arrays.copyOf(posX, 2 * capacity);
+		posY = Arrays.copyOf(posY, 2 * capacity);
+		infoX = Arrays.copyOf(infoX, 2 * capacity);
+		infoY = Arrays.copyOf(infoY, 2 * capacity);
+		slots = Arrays.copyOf(slots, capacity);
+		startX = Arrays.copyOf(startX, capacity);
+		endX = Arrays.copyOf(endX, capacity);
+		startY = Arrays.copyOf(startY, capacity);
+		endY = Arrays.copyOf(endY, capacity);
+		freeSlots = Arrays.copyOf(freeSlots, capacity);
+		freeFrozenSlots = Arrays.copyOf(freeFrozenSlots, capacity);
+		frozen = Arrays.copyOf(frozen, capacity);
+		lastPosX = Arrays.copyOf(lastPosX, capacity);
+		lastPosY = Arrays.copyOf(lastPosY, capacity);
+		lastMinX = Arrays.copyOf(lastMinX, capacity);
+		lastMinY = Arrays.copyOf(lastMinY, capacity);
+		lastMaxX = Arrays.copyOf(lastMaxX, capacity);
+		lastMaxY = Arrays.copyOf(lastMaxY, capacity);
+		thawed = Arrays.copyOf(thawed, capacity);
+		addedFrozen = Arrays.copyOf(addedFrozen, capacity);
+		active = Arrays.copyOf(active, capacity);
+		activeIndex = Arrays.copyOf(activeIndex, capacity);
+	}
+	/**
+	 * Marks the delimiters of the body as removed by freeing its slot. This does not depend on the number of bodies. The arrays are compacted once at the beginning of the next update (or addBody), so removing many bodies in one frame costs a single pass over the arrays. The slot is only reused after that. A frozen body has no delimiters, only the grid of frozen bodies needs to be rebuilt. Its slot is still listed in the grid until then, so it is only reused after the next rebuild (see buildFrozen).
+	 *
+	 * @param b
+	 */
+	public void remBody(Body b) {
+		int s = b.proxyId;
+		if (frozen[s]) {
+			frozen[s] = false;
+			frozenDirty = true;
+			freeFrozenSlots[numFreeFrozenSlots++] = s;
+		}
+		else {
+			numRemoved++;
+			freeSlots[numFreeSlots++] = s;
+		}
+		slots[s] = null;
+		b.proxyId = -1;
+	}
+	/**
+	 * Deletes all delimiters of freed slots and frozen bodies out of the delimiter arrays, shifting the following ones down.
+	 */
+	private void compact() {
+		if (numRemoved == 0)
+			return;
+		compact(posX, infoX);
+		compact(posY, infoY);
+		numBodies -= numRemoved;
+		numRemoved = 0;
+		updateDelIndices(infoX, startX, endX);
+		updateDelIndices(infoY, startY, endY);
+	}
+	private void compact(float[] pos, int[] info) {
+		int j = 0;
+		for (int i = 0; i < numBodies * 2; i++) {
+			int s = slot(info[i]);
+			if (slots[s] != null && !frozen[s]) {
+				pos[j] = pos[i];
+				info[j] = info[i];
+				j++;
+			}
+		}
+	}
+	// Performs a quick sort on the delimiters. This method is not used in
+	// normal running time, only at initialization and whenenver bodies are
+	// added.
+	private void sort() {
+		quicksort(posX, infoX, 0, numBodies * 2 - 1);
+		quicksort(posY, infoY, 0, numBodies * 2 - 1);
+		for (int i = 0; i < numBodies * 2 - 1; i++) {
+			assert (posX[i] <= posX[i + 1]);
+			assert (posY[i] <= posY[i + 1]);
+		}
+	}
+	private static void quicksort(float[] pos, int[] info, int left, int right) {
+		if (right < left)
+			return;
+		int i = left, j = right;
+		float pivot = pos[(left + right) / 2];
+		float tmpPos;
+		int tmpInfo;
+		while (i <= j) {
+			while (pos[i] < pivot) {
+				i++;
+			}
+			while (pos[j] > pivot) {
+				j--;
+			}
+			if (i <= j) {
+				tmpPos = pos[i];
+				pos[i] = pos[j];
+				pos[j] = tmpPos;
+				tmpInfo = info[i];
+				info[i] = info[j];
+				info[j] = tmpInfo;
+				i++;
+				j--;
+			}
+		}
+		if (left < j)
+			quicksort(pos, info, left, j);
+		if (i < right)
+			quicksort(pos, info, i, right);
+	}
+	/**
+	 * Adds the pairs of the bodies in the given slots. Searches for each body if there are only a few of them, otherwise sweeps once over all delimiters.
+	 */
+	private void findPairsForNewBodies(int[] newSlots, int count) {
+		if (count > SWEEPTHRESHOLD) {
+			findAllPairs();
+			return;
+		}
+		for (int k = 0; k < count; k++) {
+			findPairsForNewBody(newSlots[k]);
+		}
+	}
+	/**
+	 * Sweeps along the sorted x-delimiters and keeps a list of the bodies whose start but not end has been passed. Every body that starts overlaps all bodies in this list along the x-axis, so those are added as a pair if they overlap along the y-axis as well. Pairs that exist already are left alone by addPair.
+	 */
+	private void findAllPairs() {
+		int numActive = 0;
+		int in, s, last;
+		for (int i = 0; i < numBodies * 2; i++) {
+			in = infoX[i];
+			s = slot(in);
+			if (isStart(in)) {
+				for (int k = 0; k < numActive; k++) {
+					if (overlapY(s, active[k]))
+						addPair(slots[s], slots[active[k]]);
+				}
+				activeIndex[s] = numActive;
+				active[numActive++] = s;
+			}
+			else {
+				last = active[--numActive];
+				active[activeIndex[s]] = last;
+				activeIndex[last] = activeIndex[s];
+			}
+		}
+	}
+	/**
+	 * Every body that starts before the new body ends along the x-axis and ends after it starts overlaps it on this axis. Those are added as a pair if they overlap along the y-axis as well.
+	 */
+	private void findPairsForNewBody(int s) {
+		int other;
+		for (int i = 0; i < endX[s]; i++) {
+			if (!isStart(infoX[i]))
+				continue;
+			other = slot(infoX[i]);
+			if (other != s && endX[other] > startX[s]) {
+				addPairX(s, other);
+			}
+		}
+	}
+	/**
+	 * A growing list of pair events (start passes end = add, end passes start = remove) between two slots.
+	 */
+	private static class PairEvents {
+		int[] s1 = new int[64], s2 = new int[64];
+		boolean[] add = new boolean[64];
+		int size;
+		void add(int slot1, int slot2, boolean isAdd) {
+			if (size == add.length) {
+				s1 = Arrays.copyOf(s1, size * 2);
+				s2 = Arrays.copyOf(s2, size * 2);
+				add = Arrays.copyOf(add, size * 2);
+			}
+			s1[size] = slot1;
+			s2[size] = slot2;
+			add[size] = isAdd;
+			size++;
+		}
+		void clear() {
+			size = 0;
+		}
+	}
+}
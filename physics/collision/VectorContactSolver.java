@@ -0,0 +1,429 @@
+package physics.collision;
+import java.util.Vector;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import physics.World;
+/**
+ * Solves LANES contacts at once with the Vector API (jdk.incubator.vector). The math is the one of ContactSolver.solveContact, done for all lanes with the same operations in the same order (no fused multiply add), so every lane gives exactly the result the scalar solver would give for that contact.
+ *
+ * The lanes must not touch the same dynamic body, otherwise the impulse of one lane would be lost when the velocities are written back. So the contacts are colored like in the ParallelSolver (by body slot, a static body does not count as its velocities never change) and every color is cut into batches of LANES contacts. The last batch of a color is filled up with empty contacts on a spare body slot without mass. As no two contacts of a color share a dynamic body, the velocities of all bodies of a color are copied into lane arrays before the color is solved and copied back afterwards, so the batches themselves only load and store whole vectors (gather and scatter instructions were slower on most cpus and are not available on all of them). The colors change the order in which the contacts are solved compared to ContactSolver, so the results are not bit identical to it (they converge to the same solution). Contacts that do not get one of the MAXCOLORS colors are solved one by one after the colors.
+ *
+ * The module has to be added when compiling and running: javac --add-modules jdk.incubator.vector, java --add-modules jdk.incubator.vector. Without it this class can be left out of the build, World.setPackedContacts(true, true) then falls back to the scalar ContactSolver (see ContactSolver.createVectorized), just like on cpus without 256 bit vectors (see isSupported).
+ *
+ * @author toni
+ *
+ */
+public class VectorContactSolver extends ContactSolver {
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_256;
+	public static final int LANES = SPECIES.length();
+	// Number of colors that fit into the bit mask of a body slot
+	public static final int MAXCOLORS = 64;
+	// Contacts sorted into lanes, batch b covers the lanes [b * LANES, (b + 1)
+	// * LANES). contactOf is -1 for the empty lanes.
+	private int numLanes;
+	private int[] contactOf = new int[0];
+	private int[] lb1 = new int[0], lb2 = new int[0];
+	// The offsets are stored as they are used: (-r.y, r.x)
+	private float[] lnr1y = new float[0], lr1x = new float[0], lnr2y = new float[0], lr2x = new float[0];
+	private float[] lnx = new float[0], lny = new float[0];
+	private float[] lmn = new float[0], lmt = new float[0], lbias = new float[0], lfr = new float[0];
+	private float[] lim1 = new float[0], lii1 = new float[0], lim2 = new float[0], lii2 = new float[0];
+	private float[] lpn = new float[0], lpnb = new float[0], lpt = new float[0];
+	// Velocities of the bodies of every lane while its color is solved
+	private float[] lv1x = new float[0], lv1y = new float[0], lw1 = new float[0], lv2x = new float[0], lv2y = new float[0], lw2 = new float[0];
+	private float[] lb1x = new float[0], lb1y = new float[0], lb2x = new float[0], lb2y = new float[0];
+	// First lane of every color, laneStart[numColors] = numLanes
+	private int numColors;
+	private int[] laneStart = new int[MAXCOLORS + 1];
+	// Contacts without a color
+	private int numUncolored;
+	private int[] uncolored = new int[0];
+	// Largest change of an impulse in every lane
+	private float[] delta = new float[LANES];
+	// Scratch space for the coloring
+	private int[] colorOf = new int[0];
+	private int[] colorCount = new int[MAXCOLORS + 1];
+	private long[] usedColors = new long[0];
+	// See setScalarLanes
+	private boolean scalarLanes;
+	public VectorContactSolver(World w) {
+		super(w);
+	}
+	/**
+	 * Whether the cpu has 256 bit vectors (AVX). Without them the Vector API works on 128 bit or falls back to plain Java and is slower than the scalar ContactSolver.
+	 */
+	public static boolean isSupported() {
+		return FloatVector.SPECIES_PREFERRED.vectorBitSize() >= SPECIES.vectorBitSize();
+	}
+	@Override
+	public boolean isVectorized() {
+		return true;
+	}
+	/**
+	 * Solves the lanes one by one with the scalar ContactSolver.solveContact, in the same colored order, instead of with vectors. The results are bit identical to the vectors, so this is only useful to check the lanes and to see what the coloring costs without the vectors (see tools.test.VectorContactSolverEquivalence and tools.test.VectorContactSolverBenchmark).
+	 */
+	public void setScalarLanes(boolean scalar) {
+		scalarLanes = scalar;
+	}
+	public boolean getScalarLanes() {
+		return scalarLanes;
+	}
+	@Override
+	protected float solveContacts() {
+		if (scalarLanes) {
+			return solveLanes();
+		}
+		FloatVector.zero(SPECIES).intoArray(delta, 0);
+		for (int c = 0; c < numColors; c++) {
+			int start = laneStart[c], end = laneStart[c + 1];
+			loadVelocities(start, end);
+			for (int l = start; l < end; l += LANES) {
+				solveVelocities(l);
+				solvePosition(l);
+			}
+			storeVelocities(start, end);
+		}
+		float d = FloatVector.fromArray(SPECIES, delta, 0).reduceLanes(VectorOperators.MAX);
+		for (int i = 0; i < numUncolored; i++) {
+			d = Math.max(d, solveContact(uncolored[i]));
+		}
+		return d;
+	}
+	/**
+	 * Same as solveContacts, but every lane is solved on its own with the scalar solveContact. Works directly on the packed arrays, so the lane arrays are not used.
+	 */
+	private float solveLanes() {
+		float d = 0.0f;
+		for (int l = 0; l < numLanes; l++) {
+			if (contactOf[l] != -1) {
+				d = Math.max(d, solveContact(contactOf[l]));
+			}
+		}
+		for (int i = 0; i < numUncolored; i++) {
+			d = Math.max(d, solveContact(uncolored[i]));
+		}
+		return d;
+	}
+	private void loadVelocities(int start, int end) {
+		for (int l = start; l < end; l++) {
+			int b1 = lb1[l], b2 = lb2[l];
+			lv1x[l] = velX[b1];
+			lv1y[l] = velY[b1];
+			lw1[l] = avel[b1];
+			lb1x[l] = biasX[b1];
+			lb1y[l] = biasY[b1];
+			lv2x[l] = velX[b2];
+			lv2y[l] = velY[b2];
+			lw2[l] = avel[b2];
+			lb2x[l] = biasX[b2];
+			lb2y[l] = biasY[b2];
+		}
+	}
+	/**
+	 * Writes the velocities of the lanes back. Static bodies and the spare slot can be in several lanes, but they get the velocity they had in all of them.
+	 */
+	private void storeVelocities(int start, int end) {
+		for (int l = start; l < end; l++) {
+			int b1 = lb1[l], b2 = lb2[l];
+			velX[b1] = lv1x[l];
+			velY[b1] = lv1y[l];
+			avel[b1] = lw1[l];
+			biasX[b1] = lb1x[l];
+			biasY[b1] = lb1y[l];
+			velX[b2] = lv2x[l];
+			velY[b2] = lv2y[l];
+			avel[b2] = lw2[l];
+			biasX[b2] = lb2x[l];
+			biasY[b2] = lb2y[l];
+		}
+	}
+	/**
+	 * Normal and friction impulses of the lanes [l, l + LANES).
+	 */
+	private void solveVelocities(int l) {
+		FloatVector nX = FloatVector.fromArray(SPECIES, lnx, l);
+		FloatVector nY = FloatVector.fromArray(SPECIES, lny, l);
+		FloatVector nr1y = FloatVector.fromArray(SPECIES, lnr1y, l);
+		FloatVector r1x = FloatVector.fromArray(SPECIES, lr1x, l);
+		FloatVector nr2y = FloatVector.fromArray(SPECIES, lnr2y, l);
+		FloatVector r2x = FloatVector.fromArray(SPECIES, lr2x, l);
+		FloatVector im1 = FloatVector.fromArray(SPECIES, lim1, l);
+		FloatVector ii1 = FloatVector.fromArray(SPECIES, lii1, l);
+		FloatVector im2 = FloatVector.fromArray(SPECIES, lim2, l);
+		FloatVector ii2 = FloatVector.fromArray(SPECIES, lii2, l);
+		FloatVector v1x = FloatVector.fromArray(SPECIES, lv1x, l);
+		FloatVector v1y = FloatVector.fromArray(SPECIES, lv1y, l);
+		FloatVector w1 = FloatVector.fromArray(SPECIES, lw1, l);
+		FloatVector v2x = FloatVector.fromArray(SPECIES, lv2x, l);
+		FloatVector v2y = FloatVector.fromArray(SPECIES, lv2y, l);
+		FloatVector w2 = FloatVector.fromArray(SPECIES, lw2, l);
+		// Relative velocity at the contact
+		FloatVector dvX = nr2y.mul(w2).add(v2x).sub(nr1y.mul(w1).add(v1x));
+		FloatVector dvY = r2x.mul(w2).add(v2y).sub(r1x.mul(w1).add(v1y));
+		// --- Normal --- //
+		FloatVector pn0 = FloatVector.fromArray(SPECIES, lpn, l);
+		FloatVector pn = pn0.add(FloatVector.fromArray(SPECIES, lmn, l).mul(dvX.mul(nX).add(dvY.mul(nY)).neg())).max(0.0f);
+		pn.intoArray(lpn, l);
+		FloatVector dPn = pn.sub(pn0);
+		FloatVector px = nX.mul(dPn), py = nY.mul(dPn);
+		v2x = v2x.add(px.mul(im2));
+		v2y = v2y.add(py.mul(im2));
+		w2 = w2.add(ii2.mul(nr2y.mul(px).add(r2x.mul(py))));
+		px = px.neg();
+		py = py.neg();
+		v1x = v1x.add(px.mul(im1));
+		v1y = v1y.add(py.mul(im1));
+		w1 = w1.add(ii1.mul(nr1y.mul(px).add(r1x.mul(py))));
+		// --- Friction --- //
+		// Tangent = normal of the normal, the relative velocity is the one
+		// from before the normal impulse like in Arbiter.solve
+		FloatVector tX = nY.neg(), tY = nX;
+		FloatVector dPt = FloatVector.fromArray(SPECIES, lmt, l).mul(dvX.mul(tX).add(dvY.mul(tY)).neg());
+		FloatVector maxPt = FloatVector.fromArray(SPECIES, lfr, l).mul(pn);
+		FloatVector pt0 = FloatVector.fromArray(SPECIES, lpt, l);
+		FloatVector pt = pt0.add(dPt).min(maxPt).max(maxPt.neg());
+		pt.intoArray(lpt, l);
+		dPt = pt.sub(pt0);
+		px = tX.mul(dPt);
+		py = tY.mul(dPt);
+		v2x.add(px.mul(im2)).intoArray(lv2x, l);
+		v2y.add(py.mul(im2)).intoArray(lv2y, l);
+		w2.add(ii2.mul(nr2y.mul(px).add(r2x.mul(py)))).intoArray(lw2, l);
+		px = px.neg();
+		py = py.neg();
+		v1x.add(px.mul(im1)).intoArray(lv1x, l);
+		v1y.add(py.mul(im1)).intoArray(lv1y, l);
+		w1.add(ii1.mul(nr1y.mul(px).add(r1x.mul(py)))).intoArray(lw1, l);
+		FloatVector.fromArray(SPECIES, delta, 0).max(dPn.abs()).max(dPt.abs()).intoArray(delta, 0);
+	}
+	/**
+	 * Position correction of the lanes [l, l + LANES). Only works on the bias velocities, so it does not matter that it is done after the friction.
+	 */
+	private void solvePosition(int l) {
+		FloatVector nX = FloatVector.fromArray(SPECIES, lnx, l);
+		FloatVector nY = FloatVector.fromArray(SPECIES, lny, l);
+		FloatVector b1x = FloatVector.fromArray(SPECIES, lb1x, l);
+		FloatVector b1y = FloatVector.fromArray(SPECIES, lb1y, l);
+		FloatVector b2x = FloatVector.fromArray(SPECIES, lb2x, l);
+		FloatVector b2y = FloatVector.fromArray(SPECIES, lb2y, l);
+		FloatVector dvbX = b2x.sub(b1x);
+		FloatVector dvbY = b2y.sub(b1y);
+		FloatVector pnb0 = FloatVector.fromArray(SPECIES, lpnb, l);
+		FloatVector bias = FloatVector.fromArray(SPECIES, lbias, l);
+		FloatVector pnb = pnb0.add(FloatVector.fromArray(SPECIES, lmn, l).mul(dvbX.mul(nX).add(dvbY.mul(nY)).neg().add(bias))).max(0.0f);
+		pnb.intoArray(lpnb, l);
+		FloatVector dPnb = pnb.sub(pnb0);
+		FloatVector pbX = nX.mul(dPnb), pbY = nY.mul(dPnb);
+		FloatVector im1 = FloatVector.fromArray(SPECIES, lim1, l);
+		FloatVector im2 = FloatVector.fromArray(SPECIES, lim2, l);
+		b2x.add(pbX.mul(im2)).intoArray(lb2x, l);
+		b2y.add(pbY.mul(im2)).intoArray(lb2y, l);
+		b1x.add(pbX.neg().mul(im1)).intoArray(lb1x, l);
+		b1y.add(pbY.neg().mul(im1)).intoArray(lb1y, l);
+		FloatVector.fromArray(SPECIES, delta, 0).max(dPnb.abs()).intoArray(delta, 0);
+	}
+	/**
+	 * Packs the contacts like ContactSolver and sorts them into the lanes.
+	 */
+	@Override
+	protected void pack(Vector<Arbiter> arbiters) {
+		super.pack(arbiters);
+		// The empty lanes point to the spare slot, which never moves
+		int empty = numBodies;
+		velX[empty] = 0.0f;
+		velY[empty] = 0.0f;
+		avel[empty] = 0.0f;
+		biasX[empty] = 0.0f;
+		biasY[empty] = 0.0f;
+		invmass[empty] = 0.0f;
+		invinertia[empty] = 0.0f;
+		color();
+		// Every color gets whole batches
+		numLanes = 0;
+		for (int c = 0; c < numColors; c++) {
+			laneStart[c] = numLanes;
+			numLanes += (colorCount[c] + LANES - 1) / LANES * LANES;
+		}
+		laneStart[numColors] = numLanes;
+		ensureLanes(numLanes);
+		for (int l = 0; l < numLanes; l++) {
+			contactOf[l] = -1;
+		}
+		// colorCount[c] becomes the insertion point
+		for (int c = 0; c < numColors; c++) {
+			colorCount[c] = laneStart[c];
+		}
+		numUncolored = 0;
+		for (int i = 0; i < numContacts; i++) {
+			if (colorOf[i] == MAXCOLORS) {
+				uncolored[numUncolored++] = i;
+			}
+			else {
+				contactOf[colorCount[colorOf[i]]++] = i;
+			}
+		}
+		for (int l = 0; l < numLanes; l++) {
+			int i = contactOf[l];
+			if (i == -1) {
+				lb1[l] = empty;
+				lb2[l] = empty;
+				lnr1y[l] = 0.0f;
+				lr1x[l] = 0.0f;
+				lnr2y[l] = 0.0f;
+				lr2x[l] = 0.0f;
+				lnx[l] = 0.0f;
+				lny[l] = 0.0f;
+				lmn[l] = 0.0f;
+				lmt[l] = 0.0f;
+				lbias[l] = 0.0f;
+				lfr[l] = 0.0f;
+				lpn[l] = 0.0f;
+				lpnb[l] = 0.0f;
+				lpt[l] = 0.0f;
+			}
+			else {
+				lb1[l] = body1[i];
+				lb2[l] = body2[i];
+				lnr1y[l] = -r1y[i];
+				lr1x[l] = r1x[i];
+				lnr2y[l] = -r2y[i];
+				lr2x[l] = r2x[i];
+				lnx[l] = nx[i];
+				lny[l] = ny[i];
+				lmn[l] = massNormal[i];
+				lmt[l] = massTangent[i];
+				lbias[l] = bias[i];
+				lfr[l] = friction[i];
+				lpn[l] = accPn[i];
+				lpnb[l] = accPnb[i];
+				lpt[l] = accPt[i];
+			}
+			lim1[l] = invmass[lb1[l]];
+			lii1[l] = invinertia[lb1[l]];
+			lim2[l] = invmass[lb2[l]];
+			lii2[l] = invinertia[lb2[l]];
+		}
+	}
+	/**
+	 * Copies the impulses of the lanes back and writes everything into the contacts and bodies.
+	 */
+	@Override
+	protected void unpack() {
+		if (!scalarLanes) {
+			for (int l = 0; l < numLanes; l++) {
+				int i = contactOf[l];
+				if (i != -1) {
+					accPn[i] = lpn[l];
+					accPnb[i] = lpnb[l];
+					accPt[i] = lpt[l];
+				}
+			}
+		}
+		super.unpack();
+	}
+	/**
+	 * Greedy coloring of the contacts by the slots of their bodies. Afterwards colorOf holds the color of every contact (MAXCOLORS if it got none) and colorCount the number of contacts of every color.
+	 */
+	private void color() {
+		if (colorOf.length < numContacts) {
+			colorOf = new int[2 * numContacts];
+			uncolored = new int[2 * numContacts];
+		}
+		if (usedColors.length < numBodies) {
+			usedColors = new long[2 * numBodies];
+		}
+		for (int c = 0; c <= MAXCOLORS; c++) {
+			colorCount[c] = 0;
+		}
+		numColors = 0;
+		for (int i = 0; i < numContacts; i++) {
+			int b1 = body1[i], b2 = body2[i];
+			long used = 0L;
+			if (moves(b1)) {
+				used |= usedColors[b1];
+			}
+			if (moves(b2)) {
+				used |= usedColors[b2];
+			}
+			int color = MAXCOLORS;
+			if (used != -1L) {
+				color = Long.numberOfTrailingZeros(~used);
+				long bit = 1L << color;
+				if (moves(b1)) {
+					usedColors[b1] |= bit;
+				}
+				if (moves(b2)) {
+					usedColors[b2] |= bit;
+				}
+				numColors = Math.max(numColors, color + 1);
+			}
+			colorOf[i] = color;
+			colorCount[color]++;
+		}
+		for (int s = 0; s < numBodies; s++) {
+			usedColors[s] = 0L;
+		}
+	}
+	/**
+	 * Whether impulses change the velocities of the body in slot s.
+	 */
+	private boolean moves(int s) {
+		return invmass[s] != 0.0f || invinertia[s] != 0.0f;
+	}
+	private void ensureLanes(int n) {
+		if (contactOf.length >= n) {
+			return;
+		}
+		n *= 2;
+		contactOf = new int[n];
+		lb1 = new int[n];
+		lb2 = new int[n];
+		lnr1y = new float[n];
+		lr1x = new float[n];
+		lnr2y = new float[n];
+		lr2x = new float[n];
+		lnx = new float[n];
+		lny = new float[n];
+		lmn = new float[n];
+		lmt = new float[n];
+		lbias = new float[n];
+		lfr = new float[n];
+		lim1 = new float[n];
+		lii1 = new float[n];
+		lim2 = new float[n];
+		lii2 = new float[n];
+		lpn = new float[n];
+		lpnb = new float[n];
+		lpt = new float[n];
+		lv1x = new float[n];
+		lv1y = new float[n];
+		lw1 = new float[n];
+		lv2x = new float[n];
+		lv2y = new float[n];
+		lw2 = new float[n];
+		lb1x = new float[n];
+		lb1y = new float[n];
+		lb2x = new float[n];
+		lb2y = new float[n];
+	}
+	/**
+	 * Number of colors in the last frame (without the contacts that did not get one).
+	 */
+	public int getNumColors() {
+		return numColors;
+	}
+	/**
+	 * Number of contacts in the last frame that did not get a color and were solved one by one.
+	 */
+	public int getNumUncolored() {
+		return numUncolored;
+	}
+	/**
+	 * Number of lanes in the last frame, including the empty ones.
+	 */
+	public int getNumLanes() {
+		return numLanes;
+	}
+}
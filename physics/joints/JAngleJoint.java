@@ -28,6 +28,7 @@ public class JAngleJoint extends TwoBodyJoint {
 		b1.applyConstAngularImpulse(L);
 		b2.applyConstAngularImpulse(-L);
 		accL += L;
+		delta = Math.abs(L);
 	}
 	@Override
 	public String toFileString() {
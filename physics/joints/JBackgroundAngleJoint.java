@@ -28,6 +28,7 @@ public class JBackgroundAngleJoint extends Joint {
 		L = k * -b1.avel - BIASFACTOR * bias;
 		b1.applyConstAngularImpulse(L * strength);
 		accL += L * strength;
+		delta = Math.abs(L * strength);
 	}
 	@Override
 	public String toFileString() {
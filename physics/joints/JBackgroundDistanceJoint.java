@@ -4,7 +4,8 @@ import tools.Floatmath;
 import tools.Log;
 import tools.Point;
 public class JBackgroundDistanceJoint extends Joint {
-	static private Point dv = new Point();
+	// Per joint, so that joints can be solved on several threads
+	private Point dv = new Point();
 	private float k;
 	private Point normal;
 	private float length;
@@ -50,6 +51,7 @@ public class JBackgroundDistanceJoint extends Joint {
 		getRelVel();
 		float lambda = (dv.mul(normal) - 3f * bias) * k;
 		accP = accP + lambda;
+		delta = Math.abs(lambda);
 		Point P = normal.mul(lambda);
 		b1.applyConstImpulse(P, r1);
 	}
@@ -5,8 +5,9 @@ import tools.Floatmath;
 import tools.Log;
 import tools.Point;
 public class JDistanceJoint extends TwoBodyJoint {
-	static private Point dv = new Point();
-	private static Point dvb = new Point();
+	// Per joint, so that joints can be solved on several threads
+	private Point dv = new Point();
+	private Point dvb = new Point();
 	private float k;
 	private Point normal;
 	private float length;
@@ -60,6 +61,7 @@ public class JDistanceJoint extends TwoBodyJoint {
 		float lambda = (dv.mul(normal)) * k;
 		float bLambda = (-bias + dvb.mul(normal)) * k;
 		accP = accP + lambda;
+		delta = Math.max(Math.abs(lambda), Math.abs(bLambda));
 		// accBP = accBP + bLambda;
 		Point P = normal.mul(lambda);
 		Point bP = normal.mul(bLambda);
@@ -25,11 +25,15 @@ public class JSpring extends TwoBodyJoint {
 	@Override
 	public void solve() {
 		float f = Floatmath.max(-MAXF, Floatmath.min(strength * (rlength - bias) * 0.5f, MAXF));
+		// The spring pushes in every iteration, so the solver must not stop
+		// early while it still pushes
+		delta = 0.0f;
 		float v1 = b1.vel.mul(normal);
 		float v2 = b2.vel.mul(normal);
 		if (bias != 0) {
 			float d = Floatmath.max(-MAXF, Floatmath.min((v2 - v1) * damp, MAXF));
 			f += d;
+			delta = Math.abs(f);
 			b1.applyConstImpulse(normal.mul(f / b1.mass), r1);
 			b2.applyConstImpulse(normal.mul(-f / b2.mass), r2);
 		}
@@ -14,6 +14,10 @@ public abstract class Joint implements Serializable, IdObject {
 	public float impulse;
 	public float relVel;
 	public float energy;
+	// Largest change of an impulse in the last call of solve. The solver stops
+	// iterating once it is small for every constraint (see
+	// World.setSolveTolerance).
+	public float delta;
 	protected Point staticr1;
 	protected Point p1;
 	protected Point r1;
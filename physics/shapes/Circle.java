@@ -3,6 +3,7 @@ import tools.Floatmath;
 import tools.Point;
 public class Circle extends Shape {
 	public Circle(Point pos, float radius) {
+		super(CIRCLE);
 		this.pos = pos;
 		this.radius = radius;
 	}
@@ -24,5 +25,9 @@ public class Circle extends Shape {
 	}
 	@Override
 	public void update() {
+		parent.minX = pos.x - radius;
+		parent.minY = pos.y - radius;
+		parent.maxX = pos.x + radius;
+		parent.maxY = pos.y + radius;
 	}
 }
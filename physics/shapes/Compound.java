@@ -0,0 +1,136 @@
+package physics.shapes;
+import java.util.Vector;
+
+import tools.Point;
+/**
+ * A shape made of several convex shapes (polygons and circles) that are rigidly attached to one body. Concave objects (or objects consisting of several parts) can be built from one body instead of several bodies that are held together by joints, which means less work for the solver, no wobbling between the parts and a body that can fall asleep as a whole.
+ *
+ * The children are given in the same coordinates as the points of a polygon: the compound is placed with its center of mass at pos and the children keep their positions relative to each other. Mass is distributed over the children by their area. The children are moved by update, which also stores the bounds of every child, so that the narrowphase only tests the children whose bounds touch the other body (see CompoundCollision). Compounds can not be nested.
+ *
+ * @see ConvexDecomposition
+ * @author toni
+ *
+ */
+public class Compound extends Shape {
+	public Shape[] children;
+	public int numChildren;
+	// Position of each child relative to the center of mass of the compound,
+	// without rotation
+	public Point[] childOffsets;
+	// Bounds of each child in world coordinates, written by update
+	public float[] childMinX, childMinY, childMaxX, childMaxY;
+	private float area;
+	public Compound(Point pos, Shape[] shapes) {
+		super(COMPOUND);
+		this.pos = pos;
+		numChildren = shapes.length;
+		children = shapes;
+		childOffsets = new Point[numChildren];
+		childMinX = new float[numChildren];
+		childMinY = new float[numChildren];
+		childMaxX = new float[numChildren];
+		childMaxY = new float[numChildren];
+		// Center of mass of all children
+		Point com = new Point();
+		area = 0.0f;
+		for (int i = 0; i < numChildren; i++) {
+			assert (children[i].type != COMPOUND) : "Compounds can not be nested";
+			float a = children[i].calcArea();
+			com.sAdd(children[i].pos.mul(a));
+			area += a;
+		}
+		com = com.mul(1.0f / area);
+		radius = 0.0f;
+		for (int i = 0; i < numChildren; i++) {
+			childOffsets[i] = children[i].pos.sub(com);
+			radius = Math.max(radius, childOffsets[i].length() + children[i].radius);
+			// Every child needs its own position, it is moved in update
+			children[i].pos = pos.add(childOffsets[i]);
+		}
+	}
+	/**
+	 * Decomposes the simple polygon ps (which may be concave) into convex parts. The polygon is placed with its center of mass at pos.
+	 */
+	public Compound(Point pos, Point[] ps) {
+		this(pos, toPolygons(ConvexDecomposition.decompose(ps)));
+	}
+	/**
+	 * Turns the convex parts of a ConvexDecomposition into children for a compound.
+	 */
+	public static Shape[] toPolygons(Vector<Point[]> parts) {
+		Shape[] shapes = new Shape[parts.size()];
+		for (int i = 0; i < shapes.length; i++) {
+			Point[] part = parts.get(i);
+			shapes[i] = new Polygon(Polygon.calcCOM(part), part);
+		}
+		return shapes;
+	}
+	@Override
+	public float calcArea() {
+		return area;
+	}
+	/**
+	 * Sum of the moments of inertia of the children around their own centers plus the parallel axis term of each child. The mass of every child is proportional to its area.
+	 */
+	@Override
+	public float calcInertia(float mass) {
+		float inertia = 0.0f;
+		for (int i = 0; i < numChildren; i++) {
+			float m = mass * children[i].calcArea() / area;
+			inertia += children[i].calcInertia(m) + m * childOffsets[i].square();
+		}
+		return inertia;
+	}
+	@Override
+	public void update() {
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		Shape s;
+		for (int i = 0; i < numChildren; i++) {
+			s = children[i];
+			s.parent = parent;
+			s.pos.from2(childOffsets[i]).sRotate2(parent.cosa, parent.sina).sAdd(pos);
+			// Writes the bounds of the child into the parent
+			s.update();
+			childMinX[i] = parent.minX;
+			childMinY[i] = parent.minY;
+			childMaxX[i] = parent.maxX;
+			childMaxY[i] = parent.maxY;
+			minX = Math.min(minX, parent.minX);
+			minY = Math.min(minY, parent.minY);
+			maxX = Math.max(maxX, parent.maxX);
+			maxY = Math.max(maxY, parent.maxY);
+		}
+		parent.minX = minX;
+		parent.minY = minY;
+		parent.maxX = maxX;
+		parent.maxY = maxY;
+	}
+	@Override
+	public void project(Point axis, Point interval) {
+		float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < numChildren; i++) {
+			children[i].project(axis, interval);
+			min = Math.min(min, interval.x);
+			max = Math.max(max, interval.y);
+		}
+		interval.x = min;
+		interval.y = max;
+	}
+	@Override
+	public float getWidth() {
+		float width = 0.0f;
+		for (int i = 0; i < numChildren; i++) {
+			width = Math.max(width, Math.abs(children[i].pos.x - pos.x) + children[i].getWidth());
+		}
+		return width;
+	}
+	@Override
+	public float getHeight() {
+		float height = 0.0f;
+		for (int i = 0; i < numChildren; i++) {
+			height = Math.max(height, Math.abs(children[i].pos.y - pos.y) + children[i].getHeight());
+		}
+		return height;
+	}
+}
@@ -0,0 +1,174 @@
+package physics.shapes;
+import java.util.Vector;
+
+import tools.Log;
+import tools.Point;
+/**
+ * Splits a simple (possibly concave) polygon into convex polygons. The polygon is first cut into triangles by ear clipping, then neighbouring pieces are merged again as long as the merged piece stays convex (Hertel-Mehlhorn). The result has at most four times as many pieces as the optimal decomposition, which is plenty for collision shapes. Both steps are O(n^2) or worse, so this is meant to be done once when a body is created.
+ *
+ * @see Compound
+ * @author toni
+ *
+ */
+public class ConvexDecomposition {
+	/**
+	 * Returns the convex parts of the simple polygon ps (in any winding). The parts are counter clockwise. A convex polygon comes out as a single part.
+	 */
+	public static Vector<Point[]> decompose(Point[] ps) {
+		int n = ps.length;
+		Point[] points = new Point[n];
+		// Make it counter clockwise
+		boolean reverse = signedArea(ps) < 0.0f;
+		for (int i = 0; i < n; i++) {
+			points[i] = reverse ? ps[n - 1 - i] : ps[i];
+		}
+		Vector<int[]> pieces = triangulate(points);
+		merge(points, pieces);
+		Vector<Point[]> parts = new Vector<Point[]>(pieces.size());
+		for (int[] piece : pieces) {
+			Point[] part = new Point[piece.length];
+			for (int i = 0; i < piece.length; i++) {
+				part[i] = new Point(points[piece[i]]);
+			}
+			parts.add(part);
+		}
+		return parts;
+	}
+	/**
+	 * Ear clipping. Returns the triangles as indices into points. Collinear vertices are dropped on the way.
+	 */
+	private static Vector<int[]> triangulate(Point[] points) {
+		Vector<int[]> triangles = new Vector<int[]>();
+		int n = points.length;
+		int[] remaining = new int[n];
+		for (int i = 0; i < n; i++) {
+			remaining[i] = i;
+		}
+		while (n > 3) {
+			int ear = -1;
+			for (int i = 0; i < n && ear == -1; i++) {
+				int a = remaining[(i + n - 1) % n], b = remaining[i], c = remaining[(i + 1) % n];
+				float turn = cross(points[a], points[b], points[c]);
+				if (turn == 0.0f) { // Collinear, the vertex can just be removed
+					ear = i;
+				}
+				else if (turn > 0.0f && isEar(points, remaining, n, a, b, c)) {
+					emit(triangles, a, b, c);
+					ear = i;
+				}
+			}
+			if (ear == -1) {
+				// Only happens if the polygon intersects itself. Cut off the
+				// first convex vertex anyway, so that this terminates.
+				Log.p("ConvexDecomposition : the polygon is not simple, the result will not be exact");
+				for (int i = 0; i < n && ear == -1; i++) {
+					int a = remaining[(i + n - 1) % n], b = remaining[i], c = remaining[(i + 1) % n];
+					if (cross(points[a], points[b], points[c]) > 0.0f) {
+						emit(triangles, a, b, c);
+						ear = i;
+					}
+				}
+				if (ear == -1) {
+					return triangles;
+				}
+			}
+			System.arraycopy(remaining, ear + 1, remaining, ear, n - ear - 1);
+			n--;
+		}
+		if (cross(points[remaining[0]], points[remaining[1]], points[remaining[2]]) > 0.0f) {
+			emit(triangles, remaining[0], remaining[1], remaining[2]);
+		}
+		return triangles;
+	}
+	private static void emit(Vector<int[]> triangles, int a, int b, int c) {
+		triangles.add(new int[]{a, b, c});
+	}
+	/**
+	 * Whether no other remaining vertex lies inside of the triangle a, b, c (or on its border).
+	 */
+	private static boolean isEar(Point[] points, int[] remaining, int n, int a, int b, int c) {
+		for (int i = 0; i < n; i++) {
+			int v = remaining[i];
+			if (v == a || v == b || v == c) {
+				continue;
+			}
+			Point p = points[v];
+			// Vertices at the same place as a or c (polygons that touch
+			// themselves) are not inside
+			if (p.x == points[a].x && p.y == points[a].y || p.x == points[c].x && p.y == points[c].y) {
+				continue;
+			}
+			if (cross(points[a], points[b], p) >= 0.0f && cross(points[b], points[c], p) >= 0.0f && cross(points[c], points[a], p) >= 0.0f) {
+				return false;
+			}
+		}
+		return true;
+	}
+	/**
+	 * Hertel-Mehlhorn: Removes every diagonal between two pieces whose union is still convex.
+	 */
+	private static void merge(Point[] points, Vector<int[]> pieces) {
+		boolean merged = true;
+		while (merged) {
+			merged = false;
+			for (int i = 0; i < pieces.size() && !merged; i++) {
+				for (int j = i + 1; j < pieces.size() && !merged; j++) {
+					int[] union = union(pieces.get(i), pieces.get(j));
+					if (union != null && isConvex(points, union)) {
+						pieces.set(i, union);
+						pieces.remove(j);
+						merged = true;
+					}
+				}
+			}
+		}
+	}
+	/**
+	 * Joins the two counter clockwise pieces along their common edge. Returns null if they do not share an edge.
+	 */
+	private static int[] union(int[] p1, int[] p2) {
+		int n1 = p1.length, n2 = p2.length;
+		for (int k = 0; k < n1; k++) {
+			int u = p1[k], v = p1[(k + 1) % n1];
+			// p2 runs along the same edge the other way round
+			for (int l = 0; l < n2; l++) {
+				if (p2[l] == v && p2[(l + 1) % n2] == u) {
+					int[] union = new int[n1 + n2 - 2];
+					int m = 0;
+					// p1 from v around to u
+					for (int i = 0; i < n1; i++) {
+						union[m++] = p1[(k + 1 + i) % n1];
+					}
+					// p2 without u and v
+					for (int i = 2; i < n2; i++) {
+						union[m++] = p2[(l + i) % n2];
+					}
+					return union;
+				}
+			}
+		}
+		return null;
+	}
+	private static boolean isConvex(Point[] points, int[] piece) {
+		int n = piece.length;
+		for (int i = 0; i < n; i++) {
+			if (cross(points[piece[(i + n - 1) % n]], points[piece[i]], points[piece[(i + 1) % n]]) < 0.0f) {
+				return false;
+			}
+		}
+		return true;
+	}
+	/**
+	 * Positive if a, b, c turn left (counter clockwise).
+	 */
+	private static float cross(Point a, Point b, Point c) {
+		return (b.x - a.x) * (c.y - b.y) - (b.y - a.y) * (c.x - b.x);
+	}
+	private static float signedArea(Point[] ps) {
+		float a = 0.0f;
+		for (int i = 0, j = ps.length - 1; i < ps.length; j = i, i++) {
+			a += ps[j].x * ps[i].y - ps[j].y * ps[i].x;
+		}
+		return 0.5f * a;
+	}
+}
@@ -2,11 +2,28 @@ package physics.shapes;
 import tools.Floatmath;
 import tools.Point;
 // TODO: check ob COM = pos ist, immer?!
+/**
+ * Support mapping: support returns the vertex that lies farthest in a direction and project the interval of the projection onto an axis. Polygons with more than HILLCLIMBVERTICES vertices do not test every vertex but walk along the edges from the last support vertex of a similar direction, since the projection of a convex polygon only rises and falls once along its edges. The last support vertex is remembered for each of the eight octants of directions, so coherent queries (the same axis in the next frame, the edge normals of SAT which are sorted by angle, the search directions of GJK) only take a few steps. The hints are plain ints which may be overwritten by another thread of the parallel narrowphase at any time, but any vertex is a valid starting point, so this only costs a few more steps. Polygons that are not convex always test every vertex.
+ * 
+ * @author toni
+ * 
+ */
 public class Polygon extends Shape {
+	// Polygons with more vertices walk along their edges to find support
+	// points, smaller ones test every vertex
+	public static final int HILLCLIMBVERTICES = 8;
 	public Point[] points, lines;
 	public Point[] pointsOffset, linesOffset;
 	public int numPoints;
+	// 1 if the points are given counter clockwise, -1 if clockwise. The
+	// outward normal of the edge from points[i - 1] to points[i] is
+	// winding * (lines[i].y, -lines[i].x).
+	public float winding;
+	private boolean convex;
+	// Last support vertex of each octant of directions
+	private int[] supportHints = new int[8];
 	public Polygon(Point pos, Point[] ps) {
+		super(POLYGON);
 		this.pos = pos;
 		numPoints = ps.length;
 		// Schwerpunkt berechnen
@@ -17,17 +34,40 @@ public class Polygon extends Shape {
 		for (int i = 0; i < numPoints; i++) {
 			pointsOffset[i] = ps[i].sub(com);
 		}
+		winding = (calcAreaWithSign(pointsOffset) < 0.0f) ? -1.0f : 1.0f;
 		// Position entsprechend verschieben
 		pos = pos.add(com);
 		// Polygon fertig berechnen (Linien, Punkte, etc.)
 		construct(0.0f);
 	}
+	/**
+	 * Cleans up the points with the preprocessor first (convex hull, welding, collinear points, vertex limit). The preprocessor can be asked what it changed afterwards.
+	 */
+	public Polygon(Point pos, Point[] ps, PolygonPreprocessor preprocessor) {
+		this(pos, preprocessor.process(ps));
+	}
 	private void construct(float a) {
 		lines = new Point[numPoints];
 		linesOffset = new Point[numPoints];
 		calcPoints(a);
 		calcLines();
 		calcRadius();
+		calcConvex();
+	}
+	private void calcConvex() {
+		float sign = 0.0f;
+		convex = true;
+		for (int i = 0, j = numPoints - 1; i < numPoints; j = i, i++) {
+			int k = (i + 1 == numPoints) ? 0 : i + 1;
+			float cross = pointsOffset[i].sub(pointsOffset[j]).cross(pointsOffset[k].sub(pointsOffset[i]));
+			if (cross * sign < 0.0f) {
+				convex = false;
+				return;
+			}
+			if (cross != 0.0f) {
+				sign = cross;
+			}
+		}
 	}
 	private void calcLines() {
 		for (int i = 0, j = numPoints - 1; i < numPoints; i++, j = i - 1) {
@@ -74,10 +114,26 @@ public class Polygon extends Shape {
 	}
 	@Override
 	public void update() {
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		Point p;
 		for (int i = 0; i < numPoints; i++) {
-			points[i].from2(pointsOffset[i]).sRotate2(parent.cosa, parent.sina).sAdd(parent.pos);
+			p = points[i];
+			p.from2(pointsOffset[i]).sRotate2(parent.cosa, parent.sina).sAdd(pos);
 			lines[i] = linesOffset[i].rotate(parent.cosa, parent.sina);
+			if (p.x < minX)
+				minX = p.x;
+			if (p.x > maxX)
+				maxX = p.x;
+			if (p.y < minY)
+				minY = p.y;
+			if (p.y > maxY)
+				maxY = p.y;
 		}
+		parent.minX = minX;
+		parent.minY = minY;
+		parent.maxX = maxX;
+		parent.maxY = maxY;
 	}
 	public static Point calcCOM(Point[] ps) {
 		int n = ps.length;
@@ -91,6 +147,96 @@ public class Polygon extends Shape {
 		a *= 0.5f;
 		return p.mul(1.0f / 6.0f / a);
 	}
+	/**
+	 * Whether the polygon is convex (collinear vertices are allowed).
+	 */
+	public boolean isConvex() {
+		return convex;
+	}
+	/**
+	 * Returns the index of the vertex that lies farthest in direction (dx, dy). On ties any of the farthest vertices may be returned.
+	 */
+	public int support(float dx, float dy) {
+		if (numPoints <= HILLCLIMBVERTICES || !convex) {
+			int best = 0;
+			float max = points[0].x * dx + points[0].y * dy;
+			for (int i = 1; i < numPoints; i++) {
+				float d = points[i].x * dx + points[i].y * dy;
+				if (d > max) {
+					max = d;
+					best = i;
+				}
+			}
+			return best;
+		}
+		int octant = (dx < 0.0f ? 4 : 0) | (dy < 0.0f ? 2 : 0) | (Math.abs(dx) < Math.abs(dy) ? 1 : 0);
+		int i = supportHints[octant];
+		float max = points[i].x * dx + points[i].y * dy;
+		int next = (i + 1 == numPoints) ? 0 : i + 1;
+		int prev = (i == 0) ? numPoints - 1 : i - 1;
+		float dNext = points[next].x * dx + points[next].y * dy;
+		float dPrev = points[prev].x * dx + points[prev].y * dy;
+		// Walk uphill. On an edge perpendicular to the direction both
+		// neighbours can be as far as the current vertex, which happens at the
+		// farthest edge but also at the nearest one, so flat steps are taken
+		// as well until the projection falls.
+		int step;
+		if (dNext > max) {
+			step = 1;
+		}
+		else if (dPrev > max) {
+			step = -1;
+		}
+		else if (dNext == max) {
+			step = 1;
+		}
+		else if (dPrev == max) {
+			step = -1;
+		}
+		else {
+			return i;
+		}
+		for (int k = 1; k < numPoints; k++) {
+			int j = i + step;
+			if (j == numPoints) {
+				j = 0;
+			}
+			else if (j < 0) {
+				j = numPoints - 1;
+			}
+			float d = points[j].x * dx + points[j].y * dy;
+			if (d < max) {
+				break;
+			}
+			i = j;
+			max = d;
+		}
+		supportHints[octant] = i;
+		return i;
+	}
+	/**
+	 * Writes the interval of the projection of the polygon onto axis into interval (minimum into x, maximum into y).
+	 */
+	@Override
+	public void project(Point axis, Point interval) {
+		if (numPoints <= HILLCLIMBVERTICES || !convex) {
+			float projected = points[0].mul(axis);
+			interval.x = projected;
+			interval.y = projected;
+			for (int i = 1; i < numPoints; i++) {
+				projected = points[i].mul(axis);
+				if (projected < interval.x) {
+					interval.x = projected;
+				}
+				if (projected > interval.y) {
+					interval.y = projected;
+				}
+			}
+			return;
+		}
+		interval.x = points[support(-axis.x, -axis.y)].mul(axis);
+		interval.y = points[support(axis.x, axis.y)].mul(axis);
+	}
 	public float getWidth() {
 		float width = 0;
 		for (int i = 0; i < numPoints; i++) {
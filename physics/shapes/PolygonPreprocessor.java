@@ -0,0 +1,259 @@
+package physics.shapes;
+import java.util.Arrays;
+import java.util.Vector;
+
+import tools.Log;
+import tools.Point;
+/**
+ * Cleans up the points of a polygon before it is constructed (see Polygon(Point, Point[], PolygonPreprocessor)). Hand made shapes often contain collinear points, vertices that lie almost on top of each other or the wrong winding. Every vertex costs an axis and a projection in the separating axis test, and tiny edges give bad normals, so it pays to remove them once instead of in every frame. The steps are done in this order, each one can be switched off:
+ *
+ * 1. Convex hull (Andrew's monotone chain). The collision tests assume convex polygons, so this is on by default. Concave shapes should be split with ConvexDecomposition instead.
+ * 2. Winding: the points are turned counter clockwise.
+ * 3. Welding: neighbouring vertices that are closer than weldDistance are replaced by their midpoint.
+ * 4. Collinear points: vertices closer than collinearDistance to the line through their neighbours are removed.
+ * 5. Simplification: as long as there are more than maxVertices vertices, the vertex whose removal changes the area the least is removed. For convex polygons this only shrinks the shape.
+ *
+ * Polygons never get less than three vertices. The preprocessor remembers what it changed in the last call of process (see getReport), and logs it if verbose is set.
+ *
+ * @author toni
+ *
+ */
+public class PolygonPreprocessor {
+	public static final float WELDDISTANCE = 0.005f;
+	public static final float COLLINEARDISTANCE = 0.001f;
+	private boolean hull = true;
+	private float weldDistance = WELDDISTANCE;
+	private float collinearDistance = COLLINEARDISTANCE;
+	// 0 means no limit
+	private int maxVertices = 0;
+	private boolean verbose = false;
+	// What the last call of process did
+	private int numInput, numOutput;
+	private int removedByHull, welded, collinear, simplified;
+	private boolean reversed;
+	private float areaBefore, areaAfter;
+	public PolygonPreprocessor() {
+	}
+	public PolygonPreprocessor(int maxVertices) {
+		this.maxVertices = maxVertices;
+	}
+	/**
+	 * Returns the cleaned up points. ps is not changed, the returned points are new objects.
+	 */
+	public Point[] process(Point[] ps) {
+		numInput = ps.length;
+		removedByHull = 0;
+		welded = 0;
+		collinear = 0;
+		simplified = 0;
+		reversed = false;
+		Vector<Point> points = new Vector<Point>(ps.length);
+		for (Point p : ps) {
+			points.add(new Point(p));
+		}
+		areaBefore = Math.abs(signedArea(points));
+		if (hull) {
+			convexHull(points);
+			removedByHull = numInput - points.size();
+		}
+		else if (signedArea(points) < 0.0f) {
+			for (int i = 0, j = points.size() - 1; i < j; i++, j--) {
+				Point p = points.get(i);
+				points.set(i, points.get(j));
+				points.set(j, p);
+			}
+			reversed = true;
+		}
+		if (weldDistance > 0.0f) {
+			weld(points);
+		}
+		if (collinearDistance > 0.0f) {
+			removeCollinear(points);
+		}
+		if (maxVertices >= 3) {
+			simplify(points);
+		}
+		numOutput = points.size();
+		areaAfter = Math.abs(signedArea(points));
+		if (numOutput < 3) {
+			Log.p("PolygonPreprocessor : degenerate polygon with " + numOutput + " vertices");
+		}
+		if (verbose && numOutput != numInput) {
+			Log.p(getReport());
+		}
+		return points.toArray(new Point[numOutput]);
+	}
+	/**
+	 * Andrew's monotone chain. Duplicates and collinear points on the hull are dropped, the result is counter clockwise. Whether the input was clockwise is stored in reversed.
+	 */
+	private void convexHull(Vector<Point> points) {
+		int n = points.size();
+		reversed = signedArea(points) < 0.0f;
+		if (n < 3) {
+			return;
+		}
+		Point[] sorted = points.toArray(new Point[n]);
+		Arrays.sort(sorted, (a, b) -> (a.x != b.x) ? Float.compare(a.x, b.x) : Float.compare(a.y, b.y));
+		Point[] h = new Point[2 * n];
+		int k = 0;
+		// Lower hull
+		for (int i = 0; i < n; i++) {
+			while (k >= 2 && cross(h[k - 2], h[k - 1], sorted[i]) <= 0.0f) {
+				k--;
+			}
+			h[k++] = sorted[i];
+		}
+		// Upper hull
+		for (int i = n - 2, lower = k + 1; i >= 0; i--) {
+			while (k >= lower && cross(h[k - 2], h[k - 1], sorted[i]) <= 0.0f) {
+				k--;
+			}
+			h[k++] = sorted[i];
+		}
+		// The first point is added again at the end
+		k--;
+		if (k < 3) {
+			// All points on one line, keep them as they are
+			return;
+		}
+		points.clear();
+		for (int i = 0; i < k; i++) {
+			points.add(h[i]);
+		}
+	}
+	private void weld(Vector<Point> points) {
+		float d2 = weldDistance * weldDistance;
+		boolean changed = true;
+		while (changed && points.size() > 3) {
+			changed = false;
+			for (int i = 0; i < points.size() && points.size() > 3; i++) {
+				int j = (i + 1) % points.size();
+				Point a = points.get(i), b = points.get(j);
+				if (a.squaredDistance(b) < d2) {
+					a.x = 0.5f * (a.x + b.x);
+					a.y = 0.5f * (a.y + b.y);
+					points.remove(j);
+					welded++;
+					changed = true;
+				}
+			}
+		}
+	}
+	private void removeCollinear(Vector<Point> points) {
+		boolean changed = true;
+		while (changed && points.size() > 3) {
+			changed = false;
+			for (int i = 0; i < points.size() && points.size() > 3; i++) {
+				int n = points.size();
+				Point a = points.get((i + n - 1) % n), b = points.get(i), c = points.get((i + 1) % n);
+				float length = a.distance(c);
+				if (length == 0.0f || Math.abs(cross(a, b, c)) / length < collinearDistance) {
+					points.remove(i);
+					collinear++;
+					changed = true;
+				}
+			}
+		}
+	}
+	/**
+	 * Removes the vertex with the smallest triangle to its neighbours until there are maxVertices vertices left.
+	 */
+	private void simplify(Vector<Point> points) {
+		while (points.size() > maxVertices) {
+			int n = points.size();
+			int best = 0;
+			float min = Float.POSITIVE_INFINITY;
+			for (int i = 0; i < n; i++) {
+				float a = Math.abs(cross(points.get((i + n - 1) % n), points.get(i), points.get((i + 1) % n)));
+				if (a < min) {
+					min = a;
+					best = i;
+				}
+			}
+			points.remove(best);
+			simplified++;
+		}
+	}
+	/**
+	 * Positive if a, b, c turn left (counter clockwise).
+	 */
+	private static float cross(Point a, Point b, Point c) {
+		return (b.x - a.x) * (c.y - b.y) - (b.y - a.y) * (c.x - b.x);
+	}
+	private static float signedArea(Vector<Point> ps) {
+		float a = 0.0f;
+		for (int i = 0, j = ps.size() - 1; i < ps.size(); j = i, i++) {
+			a += ps.get(j).x * ps.get(i).y - ps.get(j).y * ps.get(i).x;
+		}
+		return 0.5f * a;
+	}
+	/**
+	 * Whether the convex hull is taken. If not, the points have to be convex already (or the result has to be split with ConvexDecomposition).
+	 */
+	public void setHull(boolean hull) {
+		this.hull = hull;
+	}
+	/**
+	 * Neighbouring vertices closer than this are welded. 0 switches welding off.
+	 */
+	public void setWeldDistance(float weldDistance) {
+		this.weldDistance = weldDistance;
+	}
+	/**
+	 * Vertices closer than this to the line through their neighbours are removed. 0 switches this off.
+	 */
+	public void setCollinearDistance(float collinearDistance) {
+		this.collinearDistance = collinearDistance;
+	}
+	/**
+	 * Maximum number of vertices after preprocessing, 0 for no limit. Values below 3 are ignored.
+	 */
+	public void setMaxVertices(int maxVertices) {
+		this.maxVertices = maxVertices;
+	}
+	/**
+	 * Logs the report of every polygon that was changed.
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+	public int getNumInput() {
+		return numInput;
+	}
+	public int getNumOutput() {
+		return numOutput;
+	}
+	/**
+	 * Number of vertices that were inside of the convex hull, on one of its edges or duplicates.
+	 */
+	public int getRemovedByHull() {
+		return removedByHull;
+	}
+	public int getWelded() {
+		return welded;
+	}
+	public int getCollinear() {
+		return collinear;
+	}
+	public int getSimplified() {
+		return simplified;
+	}
+	/**
+	 * Whether the points were given clockwise and have been turned around.
+	 */
+	public boolean wasReversed() {
+		return reversed;
+	}
+	/**
+	 * Area of the result minus the area of the input. Positive if the hull filled in concave parts, negative if simplification cut off corners.
+	 */
+	public float getAreaChange() {
+		return areaAfter - areaBefore;
+	}
+	/**
+	 * Describes what the last call of process changed.
+	 */
+	public String getReport() {
+		return "PolygonPreprocessor : " + numInput + " -> " + numOutput + " vertices (hull " + removedByHull + ", welded " + welded + ", collinear " + collinear + ", simplified " + simplified + (reversed ? ", reversed winding" : "") + "), area " + areaBefore + " -> " + areaAfter;
+	}
+}
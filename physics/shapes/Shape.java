@@ -7,16 +7,50 @@ import tools.Point;
 /**
  * Represents an abstract physical shape (in particular : polygons, circles, maybe infinite planes or convex polygons for later). Each subclass must provide a method to calculate the area and the moment of inertia of the shape.
  * 
+ * Every shape carries a small integer type id which is used by the CollisionDispatcher to look up the collision test of a pair of shapes. New shape classes get their id from newType and register their collision tests in the CollisionDispatcher.
+ * 
  * @author toni
  * 
  */
 public abstract class Shape implements Serializable {
+	// Type ids of the built in shapes
+	public static final int CIRCLE = 0;
+	public static final int POLYGON = 1;
+	public static final int COMPOUND = 2;
+	private static int numTypes = 3;
+	public final int type;
 	public Point pos;
 	public Body parent;
 	public float radius;
+	protected Shape(int type) {
+		this.type = type;
+	}
+	/**
+	 * Returns a new unused type id for a new shape class.
+	 */
+	public static synchronized int newType() {
+		return numTypes++;
+	}
 	public abstract float calcArea();
 	public abstract float calcInertia(float mass);
+	/**
+	 * Moves the shape to the position and rotation of its parent and writes the bounding box of the moved shape into the parent (minX, minY, maxX, maxY).
+	 */
 	public abstract void update();
+	/**
+	 * Writes the interval of the projection of the shape onto axis into interval (minimum into x, maximum into y). The default uses the bounding circle of the shape.
+	 */
+	public void project(Point axis, Point interval) {
+		float h = pos.mul(axis);
+		interval.x = h - radius;
+		interval.y = h + radius;
+	}
+	/**
+	 * Largest distance of the shape from pos along x. The body keeps this cached in width.
+	 */
 	public abstract float getWidth();
+	/**
+	 * Largest distance of the shape from pos along y. The body keeps this cached in height.
+	 */
 	public abstract float getHeight();
 }
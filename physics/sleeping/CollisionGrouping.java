@@ -7,7 +7,9 @@ import physics.World;
 /**
  * Handles the subdivision of bodies in collision groups. Two bodies are in the same collision group if they have a connection that means an arbitrary constraint that connects them. Arbiters and joints both count as connections.
  * 
- * The algorithm to determine the collision groups uses body.flag. It iterates through all bodies in the world and for every body that does not have its flag set, the walk routine is called upon the body and a newly created collision group. walk will just set the flag for the body and add the body to the collision group and afterwards iterate through all bodies that have connections to the considered body and call the walk method upon them aswell.
+ * The algorithm to determine the collision groups uses body.flag. It iterates through all bodies in the world and for every body that does not have its flag set, the walk routine is called upon the body and a newly created collision group. walk will just set the flag for the body and add the body to the collision group and afterwards iterate through all bodies that have connections to the considered body and call the walk method upon them aswell. Every body that is not static remembers the index of its group in body.group.
+ *
+ * Static bodies are not walked through, so two piles on the same floor are different groups. Constraints of different groups never act on the same dynamic body, which is why the IslandSolver can solve the groups independently.
  * 
  * @author toni
  * 
@@ -44,6 +46,7 @@ public class CollisionGrouping implements Serializable {
 			return;
 		}
 		b.flag = true;
+		b.group = groups.size();
 		group.add(b);
 		for (Connection c : b.connections) {
 			Body other = c.otherThan(b);
@@ -23,16 +23,29 @@ public class SleepingSystem implements Serializable {
 	private static final float SLEEPAVEL = 0.005f;
 	private World world;
 	private CollisionGrouping colGrouping;
+	// Whether the groups were already computed in this frame (see updateGroups)
+	private boolean groupsUpToDate;
 	public SleepingSystem(World w) {
 		world = w;
 		colGrouping = new CollisionGrouping(world);
 	}
 	public void handle(float dt) {
-		colGrouping.update();
+		if (!groupsUpToDate) {
+			colGrouping.update();
+		}
+		groupsUpToDate = false;
 		for (ColGroup c : colGrouping.groups) {
 			handleGroup(c, dt);
 		}
 	}
+	/**
+	 * Computes the collision groups of this frame before handle is called, so that the solver can use them (see IslandSolver). The connections do not change between the collision detection and the end of the frame, so handle reuses these groups.
+	 */
+	public CollisionGrouping updateGroups() {
+		colGrouping.update();
+		groupsUpToDate = true;
+		return colGrouping;
+	}
 	private void handleGroup(ColGroup c, float dt) {
 		boolean isSleeping = true;
 		for (Body b : c) {
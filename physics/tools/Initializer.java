@@ -5,6 +5,8 @@ import physics.Body;
 import physics.World;
 import physics.joints.JDistanceJoint;
 import physics.shapes.Circle;
+import physics.shapes.Compound;
+import physics.shapes.ConvexDecomposition;
 import physics.shapes.Polygon;
 import physics.shapes.Shape;
 
@@ -59,6 +61,16 @@ public class Initializer {
 	public static Body getCircle(Point p, float r, float mass) {
 		return new Body(new Circle(p, r), mass);
 	}
+	/**
+	 * Returns a body for any simple polygon. Concave polygons are split into convex parts that form a Compound.
+	 */
+	public static Body getPolygon(Point pos, Point[] points, float mass) {
+		Vector<Point[]> parts = ConvexDecomposition.decompose(points);
+		if (parts.size() == 1) {
+			return new Body(new Polygon(pos, parts.get(0)), mass);
+		}
+		return new Body(new Compound(pos, Compound.toPolygons(parts)), mass);
+	}
 	/**
 	 * Not extremely valuable in terms of physical accuracy but delivers plausible results for the simulation. m = m0 * sqrt(A)
 	 * 
@@ -0,0 +1,143 @@
+package tools;
+import java.io.Serializable;
+/**
+ * A hash map from primitive long keys to objects. Uses open addressing with linear probing and backward shift deletion so that no tombstones are left behind and neither lookups nor insertions allocate (apart from growing the table). Memory scales with the number of stored entries.
+ *
+ * Entries can be iterated by running through all slots from 0 to capacity() and skipping the ones for which valueAt returns null.
+ *
+ * @author toni
+ *
+ */
+public class LongHashMap<X> implements Serializable {
+	private static final int MINCAPACITY = 16;
+	private long[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+	public LongHashMap() {
+		this(MINCAPACITY);
+	}
+	public LongHashMap(int expectedSize) {
+		int capacity = MINCAPACITY;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+	private static int hash(long key) {
+		// Finalizer of MurmurHash3, spreads the bits of both packed integers
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+	@SuppressWarnings("unchecked")
+	public X get(long key) {
+		int i = hash(key) & mask;
+		while (values[i] != null) {
+			if (keys[i] == key)
+				return (X) values[i];
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+	/**
+	 * Stores value under key. Returns the value that was stored under this key before (or null).
+	 */
+	@SuppressWarnings("unchecked")
+	public X put(long key, X value) {
+		assert (value != null) : "null values are used to mark empty slots";
+		int i = hash(key) & mask;
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				X old = (X) values[i];
+				values[i] = value;
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		if (size * 2 > values.length) {
+			resize(values.length * 2);
+		}
+		return null;
+	}
+	/**
+	 * Removes the entry with the given key. Returns the removed value (or null if there was none).
+	 */
+	@SuppressWarnings("unchecked")
+	public X remove(long key) {
+		int i = hash(key) & mask;
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				X old = (X) values[i];
+				shiftBack(i);
+				size--;
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+	/**
+	 * Closes the gap at slot i by moving every following entry of the probe chain that would otherwise not be found anymore.
+	 */
+	private void shiftBack(int i) {
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (values[j] == null)
+				break;
+			int home = hash(keys[j]) & mask;
+			// Move the entry at j to i if its home slot is not cyclically within (i, j]
+			if ((j > i && (home <= i || home > j)) || (j < i && (home <= i && home > j))) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				i = j;
+			}
+		}
+		values[i] = null;
+	}
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		for (int k = 0; k < oldValues.length; k++) {
+			if (oldValues[k] == null)
+				continue;
+			int i = hash(oldKeys[k]) & mask;
+			while (values[i] != null) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = oldKeys[k];
+			values[i] = oldValues[k];
+		}
+	}
+	public void clear() {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = null;
+		}
+		size = 0;
+	}
+	public int size() {
+		return size;
+	}
+	public int capacity() {
+		return values.length;
+	}
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+	@SuppressWarnings("unchecked")
+	public X valueAt(int slot) {
+		return (X) values[slot];
+	}
+}
@@ -0,0 +1,84 @@
+package tools;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+/**
+ * Small helpers to run work on a shared ForkJoinPool. Used by the parallel modes of the physics engine.
+ *
+ * @author toni
+ *
+ */
+public class Parallel {
+	public static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static ForkJoinPool pool;
+	/**
+	 * Work on the index range [start, end).
+	 */
+	public interface Range {
+		public void run(int start, int end);
+	}
+	public static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(THREADS);
+		}
+		return pool;
+	}
+	/**
+	 * Splits [0, n) into chunks of at most chunkSize elements and runs them in parallel. Returns when all chunks are done. Runs on the calling thread if there is only one chunk.
+	 */
+	public static void forRange(int n, int chunkSize, Range range) {
+		if (n <= chunkSize || THREADS == 1) {
+			range.run(0, n);
+			return;
+		}
+		getPool().invoke(new RangeTask(range, 0, n, chunkSize));
+	}
+	/**
+	 * Runs [0, numChunks) chunk indices in parallel, one task per chunk. Useful if every chunk writes into its own buffer.
+	 */
+	public static void forChunks(int numChunks, Range range) {
+		forRange(numChunks, 1, range);
+	}
+	/**
+	 * Runs both tasks in parallel and returns when both are done.
+	 */
+	public static void both(final Runnable a, final Runnable b) {
+		if (THREADS == 1) {
+			a.run();
+			b.run();
+			return;
+		}
+		getPool().invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(adapt(a), adapt(b));
+			}
+		});
+	}
+	private static RecursiveAction adapt(final Runnable r) {
+		return new RecursiveAction() {
+			@Override
+			protected void compute() {
+				r.run();
+			}
+		};
+	}
+	private static class RangeTask extends RecursiveAction {
+		private Range range;
+		private int start, end, chunkSize;
+		RangeTask(Range range, int start, int end, int chunkSize) {
+			this.range = range;
+			this.start = start;
+			this.end = end;
+			this.chunkSize = chunkSize;
+		}
+		@Override
+		protected void compute() {
+			if (end - start <= chunkSize) {
+				range.run(start, end);
+				return;
+			}
+			int mid = start + (end - start) / 2;
+			invokeAll(new RangeTask(range, start, mid, chunkSize), new RangeTask(range, mid, end, chunkSize));
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package tools.id;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Vector;
 public class IdSystem<X extends IdObject> implements Serializable {
 	private static final int EMPTYINDEX = -1;
@@ -15,35 +16,6 @@ public class IdSystem<X extends IdObject> implements Serializable {
 		this.objects = new Vector<X>();
 		this.idToIndex = new Vector<Integer>();
 	}
-	private void update() {
-		while (idToIndex.size() < objects.size()) { // Anzahl der Objekte
-													// groesser als Anzahl der
-													// Eintraege?
-			idToIndex.add(IdObject.DEFAULTID); // Vergroessern
-		}
-		for (X obj : objects) {
-			while (obj.getId() >= idToIndex.size()) { // Solange eine ID
-														// existiert, die nicht
-														// in dem array
-														// enthalten sein kann :
-				idToIndex.add(IdObject.DEFAULTID); // Vergroessern
-			}
-		}
-		// Set all values to -1 so ids that dont exist any more wont have any
-		// index assigned to them
-		for (int i = 0; i < idToIndex.size(); i++) {
-			idToIndex.set(i, EMPTYINDEX);
-		}
-		// Set the entries
-		for (int i = 0; i < objects.size(); i++) {
-			X obj = objects.get(i);
-			int id = obj.getId();
-			if (id == IdObject.DEFAULTID)
-				continue;
-			idToIndex.set(id, i);
-			obj.setIndexInList(i);
-		}
-	}
 	public void add(X obj) {
 		objects.add(obj);
 		if (obj.getId() == IdObject.DEFAULTID) { // Id is not yet set.
@@ -54,11 +26,35 @@ public class IdSystem<X extends IdObject> implements Serializable {
 				nextId = obj.getId() + 1;
 			}
 		}
-		update();
+		int id = obj.getId();
+		while (idToIndex.size() <= id) {
+			idToIndex.add(EMPTYINDEX);
+		}
+		idToIndex.set(id, objects.size() - 1);
+		obj.setIndexInList(objects.size() - 1);
 	}
-	public void remove(X obj) {
-		objects.remove(obj);
-		update();
+	public void addAll(Collection<? extends X> objs) {
+		objects.ensureCapacity(objects.size() + objs.size());
+		for (X obj : objs) {
+			add(obj);
+		}
+	}
+	/**
+	 * Removes the object by moving the last object of the list into its place (swap with last), so only the moved object gets a new index. Returns the moved object or null if the removed object was the last one in the list.
+	 */
+	public X remove(X obj) {
+		assert (contains(obj)) : "The object " + obj + " is not in the list.";
+		int index = idToIndex.get(obj.getId());
+		int last = objects.size() - 1;
+		X moved = objects.remove(last);
+		idToIndex.set(obj.getId(), EMPTYINDEX);
+		if (index == last) {
+			return null;
+		}
+		objects.set(index, moved);
+		idToIndex.set(moved.getId(), index);
+		moved.setIndexInList(index);
+		return moved;
 	}
 	public X getById(int id) {
 		assert (id != IdObject.DEFAULTID) : "an object with the id" + IdObject.DEFAULTID + " never exists.";
@@ -76,7 +72,7 @@ public class IdSystem<X extends IdObject> implements Serializable {
 		return objects.size();
 	}
 	public boolean contains(X obj) {
-		return objects.contains(obj);
+		return containsId(obj.getId()) && objects.get(idToIndex.get(obj.getId())) == obj;
 	}
 	public boolean containsId(int id) {
 		if (id == IdObject.DEFAULTID)
@@ -0,0 +1,115 @@
+package tools.test;
+import java.util.Vector;
+
+import physics.Body;
+import physics.World;
+import physics.collision.Arbiter;
+import physics.collision.Contact;
+import physics.joints.JBackgroundDistanceJoint;
+import physics.tools.Initializer;
+import tools.Point;
+/**
+ * Steps the same scene three times in lockstep: with the arbiters solving their contacts themselves, with the packed ContactSolver (see World.setPackedContacts) and with the IslandSolver (see World.setIslandSolve). The math of all three is the same, so after every step the position, angle and velocities of every body and the accumulated impulses of every contact have to be bit identical to the serial solver. The scene has boxes, circles, concave polygons (compounds), piles held by joints and static platforms that move and turn with a constant velocity and carry boxes (the contacts of other islands read their positions, which matter once they turn). No island gets larger than IslandSolver.LARGEISLAND, those would not be bit identical. Prints the first difference and exits with 1, prints a checksum of the positions otherwise.
+ *
+ * @author toni
+ *
+ */
+public class ContactSolverEquivalence {
+	private static final int STEPS = 600;
+	private static final int SERIAL = 0, PACKED = 1, ISLAND = 2;
+	public static void main(String[] args) {
+		World serial = scene(SERIAL), packed = scene(PACKED), island = scene(ISLAND);
+		long contacts = 0;
+		for (int step = 0; step < STEPS; step++) {
+			serial.handle();
+			packed.handle();
+			island.handle();
+			compare("packed", step, serial, packed);
+			contacts += compare("island", step, serial, island);
+		}
+		double checksum = 0.0;
+		for (int i = 0; i < packed.numBodies; i++) {
+			Body b = packed.getBody(i);
+			checksum += Math.abs(b.pos.x) + Math.abs(b.pos.y) + Math.abs(b.apos);
+		}
+		System.out.printf("ContactSolverEquivalence : %d steps, %d bodies, %d contacts compared per solver, no difference, checksum %.6f%n", STEPS, packed.numBodies, contacts, checksum);
+	}
+	/**
+	 * Compares the bodies and the accumulated impulses of the world w with the ones of the serial world s after a step and fails on the first difference. Returns the number of contacts compared.
+	 */
+	private static long compare(String name, int step, World s, World w) {
+		for (int i = 0; i < s.numBodies; i++) {
+			Body b1 = s.getBody(i), b2 = w.getBody(i);
+			if (differs(b1.pos.x, b2.pos.x) || differs(b1.pos.y, b2.pos.y) || differs(b1.apos, b2.apos) || differs(b1.vel.x, b2.vel.x) || differs(b1.vel.y, b2.vel.y) || differs(b1.avel, b2.avel)) {
+				fail(name + ", step " + step + ", body " + i + ": pos " + b1.pos + " / " + b2.pos + ", apos " + b1.apos + " / " + b2.apos + ", vel " + b1.vel + " / " + b2.vel + ", avel " + b1.avel + " / " + b2.avel);
+			}
+		}
+		Vector<Arbiter> a1 = s.getArbiters(), a2 = w.getArbiters();
+		if (a1.size() != a2.size()) {
+			fail(name + ", step " + step + ": " + a1.size() + " / " + a2.size() + " arbiters");
+		}
+		long contacts = 0;
+		for (int i = 0; i < a1.size(); i++) {
+			if (a1.get(i).num != a2.get(i).num) {
+				fail(name + ", step " + step + ", arbiter " + i + ": " + a1.get(i).num + " / " + a2.get(i).num + " contacts");
+			}
+			for (int k = 0; k < a1.get(i).num; k++) {
+				Contact c1 = a1.get(i).contacts[k], c2 = a2.get(i).contacts[k];
+				if (differs(c1.accPn, c2.accPn) || differs(c1.accPnb, c2.accPnb) || differs(c1.accPt, c2.accPt)) {
+					fail(name + ", step " + step + ", arbiter " + i + ", contact " + k + ": accPn " + c1.accPn + " / " + c2.accPn + ", accPnb " + c1.accPnb + " / " + c2.accPnb + ", accPt " + c1.accPt + " / " + c2.accPt);
+				}
+				contacts++;
+			}
+		}
+		return contacts;
+	}
+	private static World scene(int solver) {
+		World w = new World(0);
+		w.setPackedContacts(solver == PACKED);
+		w.setIslandSolve(solver == ISLAND);
+		w.addBody(Initializer.getRectangle(new Point(-60, -2), 200, 2, 0));
+		// A wall of boxes and circles
+		for (int i = 0; i < 600; i++) {
+			float x = (i % 30) * 1.1f - 50, y = (i / 30) * 1.1f + 1;
+			w.addBody((i % 2 == 0) ? Initializer.getRectangle(new Point(x, y), 1, 1, 1) : Initializer.getCircle(new Point(x + 0.5f, y + 0.5f), 0.5f, 1));
+		}
+		// L shaped polygons, which are split into compounds
+		Point[] l = {new Point(0, 0), new Point(2, 0), new Point(2, 0.6f), new Point(0.6f, 0.6f), new Point(0.6f, 2), new Point(0, 2)};
+		for (int i = 0; i < 40; i++) {
+			w.addBody(Initializer.getPolygon(new Point((i % 10) * 3 - 10, (i / 10) * 3 + 1), l, 1));
+		}
+		// Piles of boxes and circles held by joints
+		for (int p = 0; p < 20; p++) {
+			for (int k = 0; k < 10; k++) {
+				float x = p * 4 + 25 + (k % 2) * 0.3f, y = k * 1.05f;
+				w.addBody((k % 3 == 2) ? Initializer.getCircle(new Point(x + 0.5f, y + 0.5f), 0.5f, 1) : Initializer.getRectangle(new Point(x, y), 1, 1, 1));
+			}
+			int b = w.numBodies - 10;
+			w.addJoint(Initializer.dJoint(w.getBody(b), w.getBody(b + 1)));
+			if (p % 5 == 0) {
+				w.addJoint(new JBackgroundDistanceJoint(w.getBody(b + 9), w.getBody(b + 9).pos, w.getBody(b + 9).pos.add(new Point(0, 2))));
+			}
+		}
+		// Moving and turning static platforms, each carries a box and a circle. The platforms come
+		// first, so their islands are solved before the ones of their boxes.
+		for (int p = 0; p < 6; p++) {
+			Body platform = Initializer.getRectangle(new Point(p * 8 + 110, 2), 4, 0.5f, 0);
+			platform.vel.x = (p % 2 == 0) ? 1.0f : -1.0f;
+			platform.vel.y = (p % 3 == 0) ? 0.5f : 0.0f;
+			platform.avel = (p % 2 == 0) ? 0.1f : -0.1f;
+			w.addBody(platform);
+		}
+		for (int p = 0; p < 6; p++) {
+			w.addBody(Initializer.getRectangle(new Point(p * 8 + 110.5f, 2.6f), 1, 1, 1));
+			w.addBody(Initializer.getCircle(new Point(p * 8 + 112.5f, 3.1f), 0.5f, 1));
+		}
+		return w;
+	}
+	private static boolean differs(float a, float b) {
+		return Float.floatToIntBits(a) != Float.floatToIntBits(b);
+	}
+	private static void fail(String message) {
+		System.out.println("ContactSolverEquivalence : " + message);
+		System.exit(1);
+	}
+}
@@ -0,0 +1,309 @@
+package tools.test;
+import java.util.Collection;
+import java.util.Vector;
+
+import physics.Body;
+import physics.World;
+import physics.collision.Broadphase;
+import physics.collision.CollisionHandler;
+import physics.collision.Pair;
+import tools.LongHashMap;
+/**
+ * The sweep and prune broadphase as it was before the delimiters were stored in primitive arrays: every delimiter is an object with its body, its position and whether it starts or ends the bounds, and the insertion sort moves references. Only the bug of findPairsForNewBody (it added a pair with every body to the left that overlapped on y) is fixed, it now checks for overlap on both axes. Used by SweepAndPruneBenchmark as the baseline for SweepAndPrune, so it only has the serial sort. The delimiter indices that used to be fields of Body are kept in arrays indexed by Body.proxyId, which is free since the bodies of the benchmark are not in a SweepAndPrune.
+ *
+ * addBodies sorts once and finds the initial pairs with a single sweep instead of calling addBody for every body (which sorts all delimiters each time), so that large scenes can be loaded. update is the same as before.
+ *
+ * @author toni
+ *
+ */
+public class DelimiterSweepAndPrune extends Broadphase {
+	private Delimiter[] delX, delY;
+	private int numBodies;
+	// Number of bodies whose delimiters have been marked as removed but are
+	// still in the delimiter arrays (see remBody)
+	private int numRemoved;
+	// Indices of the delimiters of every body, indexed by Body.proxyId
+	private int[] delIdStartX, delIdEndX, delIdStartY, delIdEndY;
+	private int numProxies;
+	public DelimiterSweepAndPrune(World w, LongHashMap<Pair> pairs) {
+		super(w, pairs);
+		delX = new Delimiter[2 * CollisionHandler.RESERVEDSPACE];
+		delY = new Delimiter[2 * CollisionHandler.RESERVEDSPACE];
+		allocateIds(CollisionHandler.RESERVEDSPACE);
+	}
+	private void allocateIds(int capacity) {
+		int[] sX = new int[capacity], eX = new int[capacity], sY = new int[capacity], eY = new int[capacity];
+		if (delIdStartX != null) {
+			System.arraycopy(delIdStartX, 0, sX, 0, delIdStartX.length);
+			System.arraycopy(delIdEndX, 0, eX, 0, delIdEndX.length);
+			System.arraycopy(delIdStartY, 0, sY, 0, delIdStartY.length);
+			System.arraycopy(delIdEndY, 0, eY, 0, delIdEndY.length);
+		}
+		delIdStartX = sX;
+		delIdEndX = eX;
+		delIdStartY = sY;
+		delIdEndY = eY;
+	}
+	/**
+	 * Updates the delimiter positions for every body.
+	 */
+	private void refresh(float dt) {
+		for (int i = 0; i < numBodies * 2; i++) {
+			Delimiter dX = delX[i];
+			Delimiter dY = delY[i];
+			float vX = Math.abs(dX.body.vel.x);
+			float vY = Math.abs(dY.body.vel.y);
+			if (dX.isStart)
+				dX.pos = dX.body.pos.x - dX.body.width - vX * dt - World.BOUNDINGMARGIN;
+			else
+				dX.pos = dX.body.pos.x + dX.body.width + vX * dt + World.BOUNDINGMARGIN;
+			if (dY.isStart)
+				dY.pos = dY.body.pos.y - dY.body.height - vY * dt - World.BOUNDINGMARGIN;
+			else
+				dY.pos = dY.body.pos.y + dY.body.height + vY * dt + World.BOUNDINGMARGIN;
+		}
+	}
+	@Override
+	public void update(float dt, Vector<Pair> pairsList) {
+		resetPairCounters();
+		compact();
+		refresh(dt);
+		updateDelimiters(delX, true);
+		updateDelIndicesX();
+		updateDelimiters(delY, false);
+		updateDelIndicesY();
+		collectPairs(pairsList);
+	}
+	private boolean overlapX(Body b1, Body b2) {
+		return delIdStartX[b1.proxyId] < delIdEndX[b2.proxyId] && delIdStartX[b2.proxyId] < delIdEndX[b1.proxyId];
+	}
+	private boolean overlapY(Body b1, Body b2) {
+		return delIdStartY[b1.proxyId] < delIdEndY[b2.proxyId] && delIdStartY[b2.proxyId] < delIdEndY[b1.proxyId];
+	}
+	@Override
+	public void queryRegion(float minX, float minY, float maxX, float maxY, Vector<Body> result) {
+		Body b;
+		for (int i = 0; i < numBodies * 2; i++) {
+			if (delX[i].pos > maxX)
+				break;
+			b = delX[i].body;
+			if (!delX[i].isStart || b == null)
+				continue;
+			if (delX[delIdEndX[b.proxyId]].pos < minX || delY[delIdStartY[b.proxyId]].pos > maxY || delY[delIdEndY[b.proxyId]].pos < minY)
+				continue;
+			result.add(b);
+		}
+	}
+	private void updateDelIndicesX() {
+		for (int i = 0; i < numBodies * 2; i++) {
+			if (delX[i].isStart)
+				delIdStartX[delX[i].body.proxyId] = i;
+			else
+				delIdEndX[delX[i].body.proxyId] = i;
+		}
+	}
+	private void updateDelIndicesY() {
+		for (int i = 0; i < numBodies * 2; i++) {
+			if (delY[i].isStart)
+				delIdStartY[delY[i].body.proxyId] = i;
+			else
+				delIdEndY[delY[i].body.proxyId] = i;
+		}
+	}
+	/**
+	 * Insertion sort of the delimiters, adds a pair whenever a start passes an end (and the bodies overlap on the other axis) and removes it whenever an end passes a start.
+	 */
+	private void updateDelimiters(Delimiter[] dels, boolean isX) {
+		float keyPos;
+		Delimiter key, passingDel;
+		int i;
+		for (int j = 1; j < 2 * numBodies; j++) {
+			key = dels[j];
+			keyPos = key.pos;
+			i = j - 1;
+			while (i > 0 && dels[i].pos > keyPos) {
+				passingDel = dels[i];
+				if (key.isStart && !passingDel.isStart) { // Start passes end
+					if (isX) {
+						addPairX(key.body, passingDel.body);
+					}
+					else {
+						addPairY(key.body, passingDel.body);
+					}
+				}
+				else if (!key.isStart && passingDel.isStart) {
+					remPair(key.body, passingDel.body);
+				}
+				dels[i + 1] = passingDel;
+				i--;
+			}
+			dels[i + 1] = key;
+		}
+		// Make sure the first two elements are sorted as well (fails sometimes)
+		if (numBodies != 0 && dels[0].pos > dels[1].pos) {
+			key = dels[0];
+			dels[0] = dels[1];
+			dels[1] = key;
+		}
+	}
+	private void addPairX(Body b1, Body b2) {
+		if (delIdStartY[b1.proxyId] > delIdEndY[b2.proxyId] || delIdStartY[b2.proxyId] > delIdEndY[b1.proxyId]) {
+			return; // They dont overlap along the y-axis
+		}
+		addPair(b1, b2);
+	}
+	private void addPairY(Body b1, Body b2) {
+		if (delIdStartX[b1.proxyId] > delIdEndX[b2.proxyId] || delIdStartX[b2.proxyId] > delIdEndX[b1.proxyId]) {
+			return; // They dont overlap along the x-axis
+		}
+		addPair(b1, b2);
+	}
+	@Override
+	public void addBody(Body b) {
+		compact();
+		append(b);
+		sort();
+		updateDelIndicesX();
+		updateDelIndicesY();
+		findPairsForNewBody(b);
+	}
+	@Override
+	public void addBodies(Collection<Body> bodies) {
+		compact();
+		for (Body b : bodies) {
+			append(b);
+		}
+		sort();
+		updateDelIndicesX();
+		updateDelIndicesY();
+		findAllPairs();
+	}
+	private void append(Body b) {
+		b.proxyId = numProxies++;
+		if (numProxies > delIdStartX.length) {
+			allocateIds(2 * numProxies);
+		}
+		numBodies++;
+		if (2 * numBodies >= delX.length) {
+			extendArrays();
+		}
+		delX[2 * numBodies - 2] = new Delimiter(b, b.pos.x - b.width - World.BOUNDINGMARGIN, true);
+		delX[2 * numBodies - 1] = new Delimiter(b, b.pos.x + b.width + World.BOUNDINGMARGIN, false);
+		delY[2 * numBodies - 2] = new Delimiter(b, b.pos.y - b.height - World.BOUNDINGMARGIN, true);
+		delY[2 * numBodies - 1] = new Delimiter(b, b.pos.y + b.height + World.BOUNDINGMARGIN, false);
+	}
+	private void extendArrays() {
+		Delimiter[] newDelX, newDelY;
+		newDelX = new Delimiter[2 * delX.length];
+		newDelY = new Delimiter[2 * delY.length];
+		System.arraycopy(delX, 0, newDelX, 0, delX.length);
+		System.arraycopy(delY, 0, newDelY, 0, delY.length);
+		delX = newDelX;
+		delY = newDelY;
+	}
+	/**
+	 * Marks the delimiters of the body as removed, the arrays are compacted at the beginning of the next update.
+	 */
+	@Override
+	public void remBody(Body b) {
+		delX[delIdStartX[b.proxyId]].body = null;
+		delX[delIdEndX[b.proxyId]].body = null;
+		delY[delIdStartY[b.proxyId]].body = null;
+		delY[delIdEndY[b.proxyId]].body = null;
+		numRemoved++;
+	}
+	private void compact() {
+		if (numRemoved == 0)
+			return;
+		compact(delX);
+		compact(delY);
+		numBodies -= numRemoved;
+		numRemoved = 0;
+		updateDelIndicesX();
+		updateDelIndicesY();
+	}
+	private void compact(Delimiter[] dels) {
+		int j = 0;
+		for (int i = 0; i < numBodies * 2; i++) {
+			if (dels[i].body != null) {
+				dels[j] = dels[i];
+				j++;
+			}
+		}
+		for (int i = j; i < numBodies * 2; i++) {
+			dels[i] = null;
+		}
+	}
+	private void sort() {
+		quicksort(delX, 0, numBodies * 2 - 1);
+		quicksort(delY, 0, numBodies * 2 - 1);
+	}
+	private void quicksort(Delimiter[] delimits, int left, int right) {
+		if (right < left)
+			return;
+		int i = left, j = right;
+		float pivot = delimits[(left + right) / 2].pos;
+		Delimiter tmp;
+		while (i <= j) {
+			while (delimits[i].pos < pivot) {
+				i++;
+			}
+			while (delimits[j].pos > pivot) {
+				j--;
+			}
+			if (i <= j) {
+				tmp = delimits[i];
+				delimits[i] = delimits[j];
+				delimits[j] = tmp;
+				i++;
+				j--;
+			}
+		}
+		if (left < j)
+			quicksort(delimits, left, j);
+		if (i < right)
+			quicksort(delimits, i, right);
+	}
+	/**
+	 * Every body with a delimiter to the left of the end of b can overlap it, it is a pair if the bounds overlap on both axes.
+	 */
+	private void findPairsForNewBody(Body b) {
+		Body other;
+		for (int i = 0; i < delIdEndX[b.proxyId]; i++) {
+			other = delX[i].body;
+			if (other != b && overlapX(b, other) && overlapY(b, other)) {
+				addPair(b, other);
+			}
+		}
+	}
+	/**
+	 * Sweeps along the x-axis with a list of the bodies whose start has been passed but not their end yet. Every body that starts is checked against all of them on the y-axis.
+	 */
+	private void findAllPairs() {
+		Vector<Body> open = new Vector<Body>();
+		Body b;
+		for (int i = 0; i < numBodies * 2; i++) {
+			b = delX[i].body;
+			if (!delX[i].isStart) {
+				open.remove(b);
+				continue;
+			}
+			for (int k = 0; k < open.size(); k++) {
+				if (overlapY(b, open.get(k))) {
+					addPair(b, open.get(k));
+				}
+			}
+			open.add(b);
+		}
+	}
+	private static class Delimiter {
+		public Body body;
+		public float pos;
+		public boolean isStart;
+		public Delimiter(Body b, float pos, boolean isStart) {
+			body = b;
+			this.pos = pos;
+			this.isStart = isStart;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package tools.test;
+import java.util.Arrays;
+import java.util.Random;
+
+import physics.Body;
+import physics.PhysicalConstants;
+import physics.collision.ColInfo;
+import physics.collision.NarrowphaseContext;
+import physics.collision.PolygonCircle;
+import physics.shapes.Circle;
+import physics.shapes.Polygon;
+import tools.Point;
+/**
+ * Compares PolygonCircle.closestFeature with the separating axis test PolygonCircle.collision on random polygons (3 to 16 vertices, both windings) and circles with a fixed seed. Both have to agree on whether they collide and on depth and normal (only on the axis of the normal if the center is inside the polygon, the sat test can flip it there), pairs that only touch (|depth| below TOUCHING) are skipped because the two tests round differently there. After that circles whose center lies exactly on a vertex are tested, closestFeature has to give a finite outward normal and a depth of the radius there. Prints the first difference and exits with 1 if something does not match.
+ *
+ * @author toni
+ *
+ */
+public class PolygonCircleRegression {
+	private static final long SEED = 2;
+	private static final int PAIRS = 200000;
+	private static final int VERTEXPAIRS = 20000;
+	private static final float TOUCHING = 1e-4f;
+	private static final float DEPTHTOLERANCE = 1e-4f;
+	private static final float NORMALTOLERANCE = 2e-3f;
+	public static void main(String[] args) {
+		Random r = new Random(SEED);
+		NarrowphaseContext ctx = new NarrowphaseContext();
+		ColInfo sat = new ColInfo(), closest = new ColInfo();
+		int tested = 0, colliding = 0;
+		for (int t = 0; t < PAIRS; t++) {
+			Body b1 = polygon(r);
+			Body b2 = new Body(new Circle(new Point((r.nextFloat() - 0.5f) * 6, (r.nextFloat() - 0.5f) * 6), 0.1f + r.nextFloat()), 1);
+			if (b1 == null) {
+				continue;
+			}
+			Polygon p = (Polygon) b1.shape;
+			Circle c = (Circle) b2.shape;
+			if (Math.abs(depth(p, c)) < TOUCHING) {
+				continue;
+			}
+			tested++;
+			boolean s = PolygonCircle.collision(b1, b2, p, c, PhysicalConstants.DT, ctx, sat);
+			boolean f = PolygonCircle.closestFeature(b1, b2, p, c, PhysicalConstants.DT, ctx, closest);
+			if (s != f) {
+				fail("pair " + t + ": sat collides " + s + ", closestFeature collides " + f);
+			}
+			if (!s) {
+				continue;
+			}
+			colliding++;
+			if (Math.abs(sat.depth - closest.depth) > DEPTHTOLERANCE) {
+				fail("pair " + t + ": depth sat " + sat.depth + ", closestFeature " + closest.depth);
+			}
+			// The sat test orients its normal with a contact point that is wrong for centers inside the polygon, only the axis can be compared there
+			float difference = Math.abs(sat.normal.x - closest.normal.x) + Math.abs(sat.normal.y - closest.normal.y);
+			if (contains(p, c)) {
+				difference = Math.min(difference, Math.abs(sat.normal.x + closest.normal.x) + Math.abs(sat.normal.y + closest.normal.y));
+			}
+			if (difference > NORMALTOLERANCE) {
+				fail("pair " + t + ": normal sat " + sat.normal + ", closestFeature " + closest.normal);
+			}
+		}
+		System.out.println("PolygonCircleRegression : " + tested + " pairs, " + colliding + " colliding, sat and closestFeature agree");
+		for (int t = 0; t < VERTEXPAIRS; t++) {
+			Body b1 = polygon(r);
+			if (b1 == null) {
+				continue;
+			}
+			Polygon p = (Polygon) b1.shape;
+			Point v = p.points[r.nextInt(p.numPoints)];
+			float radius = 0.1f + r.nextFloat();
+			Body b2 = new Body(new Circle(new Point(v.x, v.y), radius), 1);
+			Circle c = (Circle) b2.shape;
+			if (!PolygonCircle.closestFeature(b1, b2, p, c, PhysicalConstants.DT, ctx, closest)) {
+				fail("vertex pair " + t + ": no collision with the center on a vertex");
+			}
+			float nx = closest.normal.x, ny = closest.normal.y;
+			if (Float.isNaN(nx) || Float.isNaN(ny) || Float.isInfinite(nx) || Float.isInfinite(ny) || Float.isNaN(closest.depth)) {
+				fail("vertex pair " + t + ": normal " + closest.normal + ", depth " + closest.depth);
+			}
+			if (Math.abs(nx * nx + ny * ny - 1.0f) > NORMALTOLERANCE || nx * (v.x - p.pos.x) + ny * (v.y - p.pos.y) <= 0.0f) {
+				fail("vertex pair " + t + ": normal " + closest.normal + " does not point out of the polygon");
+			}
+			if (Math.abs(closest.depth - radius) > DEPTHTOLERANCE) {
+				fail("vertex pair " + t + ": depth " + closest.depth + ", radius " + radius);
+			}
+		}
+		System.out.println("PolygonCircleRegression : " + VERTEXPAIRS + " circles centered on a vertex, all normals finite and outward");
+	}
+	/**
+	 * A random convex polygon around the origin with a random rotation. Returns null if two vertices nearly coincide (random angles can be very close).
+	 */
+	private static Body polygon(Random r) {
+		int n = 3 + r.nextInt(14);
+		float radius = 1 + r.nextFloat();
+		boolean regular = r.nextBoolean();
+		float[] angles = new float[n];
+		for (int i = 0; i < n; i++) {
+			angles[i] = regular ? 6.2831853f * i / n : r.nextFloat() * 6.2831853f;
+		}
+		Arrays.sort(angles);
+		Point[] points = new Point[n];
+		for (int i = 0; i < n; i++) {
+			points[i] = new Point(radius * (float) Math.cos(angles[i]), radius * (float) Math.sin(angles[i]) * (regular ? 1.0f : 0.5f));
+		}
+		if (r.nextBoolean()) {
+			for (int i = 0; i < n / 2; i++) {
+				Point t = points[i];
+				points[i] = points[n - 1 - i];
+				points[n - 1 - i] = t;
+			}
+		}
+		float apos = r.nextFloat() * 6.28f;
+		for (int i = 0; i < n; i++) {
+			if (points[i].distance(points[(i + 1) % n]) < 1e-3f) {
+				return null;
+			}
+		}
+		Body b = new Body(new Polygon(new Point(0, 0), points), 1);
+		b.apos = apos;
+		b.update(0);
+		return b;
+	}
+	/**
+	 * Depth from the closest point of the boundary, brute force over all edges. Negative if the circle does not reach the polygon.
+	 */
+	private static float depth(Polygon p, Circle c) {
+		float best = Float.POSITIVE_INFINITY;
+		boolean inside = true;
+		for (int i = 0; i < p.numPoints; i++) {
+			Point a = p.points[i], b = p.points[(i + 1) % p.numPoints];
+			float ex = b.x - a.x, ey = b.y - a.y;
+			float u = ((c.pos.x - a.x) * ex + (c.pos.y - a.y) * ey) / (ex * ex + ey * ey);
+			u = Math.max(0.0f, Math.min(1.0f, u));
+			float qx = a.x + u * ex, qy = a.y + u * ey;
+			best = Math.min(best, (float) Math.hypot(c.pos.x - qx, c.pos.y - qy));
+			if (p.winding * (ex * (c.pos.y - a.y) - ey * (c.pos.x - a.x)) < 0) {
+				inside = false;
+			}
+		}
+		return inside ? c.radius + best : c.radius - best;
+	}
+	/**
+	 * Whether the center of the circle lies inside the polygon.
+	 */
+	private static boolean contains(Polygon p, Circle c) {
+		for (int i = 0; i < p.numPoints; i++) {
+			Point a = p.points[i], b = p.points[(i + 1) % p.numPoints];
+			if (p.winding * ((b.x - a.x) * (c.pos.y - a.y) - (b.y - a.y) * (c.pos.x - a.x)) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	private static void fail(String message) {
+		System.out.println("PolygonCircleRegression : " + message);
+		System.exit(1);
+	}
+}
@@ -0,0 +1,124 @@
+package tools.test;
+import java.util.Random;
+import java.util.Vector;
+
+import physics.Body;
+import physics.PhysicalConstants;
+import physics.World;
+import physics.collision.Broadphase;
+import physics.collision.CollisionHandler;
+import physics.collision.Pair;
+import physics.tools.Initializer;
+import tools.LongHashMap;
+import tools.Point;
+/**
+ * Times SweepAndPrune.update and the DelimiterSweepAndPrune baseline (the delimiter objects SweepAndPrune used before it stored them in primitive arrays, with the bug of findPairsForNewBody fixed) on circles on a jittered grid that fly around with random velocities and bounce off the borders of the grid. All get the same scene (same seed, their own copies of the bodies). Only the broadphase runs: every frame the bodies are moved by hand and then the broadphase finds the pairs, the narrowphase and the solver are not used. SweepAndPrune runs twice, once with a fat margin of 0 (the same bounds as the baseline, so both find the same pairs) and once with the default fat margin (see Broadphase.setFatMargin), which finds more pairs but moves fewer delimiters. Prints the number of pairs and the average and best time of update over FRAMES frames (after WARMUP frames that are not timed) of all three below each other, and the time SweepAndPrune needs to add all bodies.
+ *
+ * Only the time is measured. Cache misses, which the primitive arrays are meant to reduce, are not: Java has no access to the hardware performance counters, run the benchmark under perf stat -e cache-misses for that.
+ *
+ * java tools.test.SweepAndPruneBenchmark [bodies...], the default sizes are 10000 and 50000 bodies.
+ *
+ * @author toni
+ *
+ */
+public class SweepAndPruneBenchmark {
+	private static final long SEED = 1;
+	private static final int WARMUP = 50;
+	private static final int FRAMES = 150;
+	private static final float RADIUS = 0.5f;
+	// Distance between the grid points, the circles start with a gap of
+	// about one radius between them
+	private static final float SPACING = 3.0f * RADIUS;
+	private static final float SPEED = 4.0f;
+	public static void main(String[] args) {
+		int[] sizes = {10000, 50000};
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		for (int n : sizes) {
+			run(n);
+		}
+	}
+	private static void run(int n) {
+		World old = new World(CollisionHandler.SPATIALHASH);
+		Vector<Body> oldBodies = scene(n);
+		old.addBodies(oldBodies);
+		// The spatial hash of the world does nothing until its update is called,
+		// which the benchmark never does
+		Broadphase baseline = new DelimiterSweepAndPrune(old, new LongHashMap<Pair>());
+		baseline.addBodies(oldBodies);
+		String oldTimes = time(baseline, oldBodies, n);
+		World tight = new World(CollisionHandler.SWEEPANDPRUNE);
+		tight.getBroadphase().setFatMargin(0.0f);
+		Vector<Body> tightBodies = scene(n);
+		tight.addBodies(tightBodies);
+		String tightTimes = time(tight.getBroadphase(), tightBodies, n);
+		World w = new World(CollisionHandler.SWEEPANDPRUNE);
+		Vector<Body> bodies = scene(n);
+		long t = System.nanoTime();
+		w.addBodies(bodies);
+		double load = (System.nanoTime() - t) / 1e6;
+		String newTimes = time(w.getBroadphase(), bodies, n);
+		System.out.printf("SweepAndPruneBenchmark : %d bodies, addBodies %.1f ms%n", n, load);
+		System.out.println("  old+fix                  : " + oldTimes);
+		System.out.println("  new, fat margin 0        : " + tightTimes);
+		System.out.println("  new, default fat margin  : " + newTimes);
+	}
+	/**
+	 * The same circles with the same velocities for every call.
+	 */
+	private static Vector<Body> scene(int n) {
+		Random r = new Random(SEED);
+		int columns = (int) Math.ceil(Math.sqrt(n));
+		Vector<Body> bodies = new Vector<Body>(n);
+		for (int i = 0; i < n; i++) {
+			float x = (i % columns + 0.5f) * SPACING + (r.nextFloat() - 0.5f) * RADIUS;
+			float y = (i / columns + 0.5f) * SPACING + (r.nextFloat() - 0.5f) * RADIUS;
+			Body b = Initializer.getCircle(new Point(x, y), RADIUS, 1);
+			b.vel.x = (r.nextFloat() - 0.5f) * 2.0f * SPEED;
+			b.vel.y = (r.nextFloat() - 0.5f) * 2.0f * SPEED;
+			bodies.add(b);
+		}
+		return bodies;
+	}
+	/**
+	 * Moves the bodies and updates the broadphase for WARMUP + FRAMES frames. Returns the number of pairs in the last frame and the average and best time.
+	 */
+	private static String time(Broadphase broadphase, Vector<Body> bodies, int n) {
+		int columns = (int) Math.ceil(Math.sqrt(n));
+		float size = columns * SPACING;
+		Vector<Pair> pairs = new Vector<Pair>();
+		float dt = PhysicalConstants.DT;
+		double sum = 0.0, best = Double.MAX_VALUE;
+		for (int frame = 0; frame < WARMUP + FRAMES; frame++) {
+			for (int i = 0; i < n; i++) {
+				move(bodies.get(i), size, dt);
+			}
+			long t = System.nanoTime();
+			broadphase.update(dt, pairs);
+			double ms = (System.nanoTime() - t) / 1e6;
+			if (frame >= WARMUP) {
+				sum += ms;
+				best = Math.min(best, ms);
+			}
+		}
+		return String.format("%d pairs, update average %.2f ms, best %.2f ms", pairs.size(), sum / FRAMES, best);
+	}
+	/**
+	 * Moves the body by its velocity and reflects it at the borders of the square [0, size].
+	 */
+	private static void move(Body b, float size, float dt) {
+		b.pos.x += b.vel.x * dt;
+		b.pos.y += b.vel.y * dt;
+		if ((b.pos.x < RADIUS && b.vel.x < 0.0f) || (b.pos.x > size - RADIUS && b.vel.x > 0.0f)) {
+			b.vel.x = -b.vel.x;
+		}
+		if ((b.pos.y < RADIUS && b.vel.y < 0.0f) || (b.pos.y > size - RADIUS && b.vel.y > 0.0f)) {
+			b.vel.y = -b.vel.y;
+		}
+		b.updateShape();
+	}
+}
@@ -0,0 +1,95 @@
+package tools.test;
+import java.util.Arrays;
+import java.util.Vector;
+
+import physics.World;
+import physics.collision.Arbiter;
+import physics.collision.ContactSolver;
+import physics.joints.JBackgroundDistanceJoint;
+import physics.tools.Initializer;
+import tools.Point;
+/**
+ * Times the contact solvers on the settled contacts of a scene of piles. The scene is stepped until it rests, then its arbiters are solved again and again with 10 iterations by the scalar ContactSolver, by the VectorContactSolver and by the VectorContactSolver with scalar lanes (the same colored order without vectors, so it shows what the coloring alone costs, see VectorContactSolver.setScalarLanes). The solvers take turns in every round so that all of them see the same cpu state, the minimum and the median time per contact and iteration of all rounds are printed.
+ *
+ * Needs the jdk.incubator.vector module at runtime like the VectorContactSolver: java --add-modules jdk.incubator.vector tools.test.VectorContactSolverBenchmark [piles...]. Like VectorContactSolverEquivalence it compiles without the module. Every pile has 10 bodies, the default sizes are 100 and 400 piles. The warm-up lets C2 compile the Vector API, which is very slow before.
+ *
+ * @author toni
+ *
+ */
+public class VectorContactSolverBenchmark {
+	private static final int SETTLE = 150;
+	private static final int WARMUP = 400;
+	private static final int ROUNDS = 15;
+	private static final int ITERATIONS = 10;
+	public static void main(String[] args) throws ReflectiveOperationException {
+		int[] sizes = {100, 400};
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		for (int piles : sizes) {
+			run(piles);
+		}
+	}
+	private static void run(int piles) throws ReflectiveOperationException {
+		World w = piles(piles);
+		for (int i = 0; i < SETTLE; i++) {
+			w.handle();
+		}
+		Vector<Arbiter> arbiters = w.getArbiters();
+		int contacts = 0;
+		for (int i = 0; i < arbiters.size(); i++) {
+			contacts += arbiters.get(i).num;
+		}
+		ContactSolver vectors = ContactSolver.createVectorized(w), lanes = ContactSolver.createVectorized(w);
+		if (!vectors.isVectorized()) {
+			System.out.println("VectorContactSolverBenchmark : the vector solver is not available");
+			System.exit(1);
+		}
+		VectorContactSolverEquivalence.setScalarLanes(lanes, true);
+		ContactSolver[] solvers = {new ContactSolver(w), vectors, lanes};
+		String[] names = {"scalar", "vector", "scalar lanes"};
+		for (int i = 0; i < WARMUP; i++) {
+			for (int k = 0; k < solvers.length; k++) {
+				solvers[k].solve(arbiters, ITERATIONS, ITERATIONS, 0.0f);
+			}
+		}
+		int repeats = Math.max(20, 40000 / Math.max(contacts, 1));
+		double[][] times = new double[solvers.length][ROUNDS];
+		for (int r = 0; r < ROUNDS; r++) {
+			for (int k = 0; k < solvers.length; k++) {
+				long t = System.nanoTime();
+				for (int i = 0; i < repeats; i++) {
+					solvers[k].solve(arbiters, ITERATIONS, ITERATIONS, 0.0f);
+				}
+				times[k][r] = (System.nanoTime() - t) / (double) repeats / ITERATIONS / contacts;
+			}
+		}
+		System.out.println("VectorContactSolverBenchmark : " + piles + " piles, " + w.numBodies + " bodies, " + contacts + " contacts, ns per contact and iteration");
+		for (int k = 0; k < solvers.length; k++) {
+			Arrays.sort(times[k]);
+			System.out.printf("  %-12s min %6.1f  median %6.1f  speedup %.2f%n", names[k], times[k][0], times[k][ROUNDS / 2], times[0][ROUNDS / 2] / times[k][ROUNDS / 2]);
+		}
+	}
+	/**
+	 * Piles of 10 boxes and circles on a static ground, every pile has a distance joint and every fifth is held by a joint to the background.
+	 */
+	private static World piles(int piles) {
+		World w = new World(2);
+		w.addBody(Initializer.getRectangle(new Point(-10, -2), piles * 4 + 20, 2, 0));
+		for (int p = 0; p < piles; p++) {
+			for (int k = 0; k < 10; k++) {
+				float x = p * 4 + (k % 2) * 0.3f, y = k * 1.05f;
+				w.addBody((k % 3 == 2) ? Initializer.getCircle(new Point(x + 0.5f, y + 0.5f), 0.5f, 1) : Initializer.getRectangle(new Point(x, y), 1, 1, 1));
+			}
+			int b = w.numBodies - 10;
+			w.addJoint(Initializer.dJoint(w.getBody(b), w.getBody(b + 1)));
+			if (p % 5 == 0) {
+				w.addJoint(new JBackgroundDistanceJoint(w.getBody(b + 9), w.getBody(b + 9).pos, w.getBody(b + 9).pos.add(new Point(0, 2))));
+			}
+		}
+		return w;
+	}
+}
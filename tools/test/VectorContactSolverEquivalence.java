@@ -0,0 +1,95 @@
+package tools.test;
+import java.util.Vector;
+
+import physics.Body;
+import physics.World;
+import physics.collision.Arbiter;
+import physics.collision.Contact;
+import physics.collision.ContactSolver;
+import physics.joints.JBackgroundDistanceJoint;
+import physics.tools.Initializer;
+import tools.Point;
+/**
+ * Checks that every lane of the VectorContactSolver gives exactly the result of the scalar ContactSolver.solveContact. The same scene is stepped twice in lockstep with the vector solver, once solving the lanes with vectors and once one by one with solveContact in the same order (see VectorContactSolver.setScalarLanes). After every step the position, angle and velocities of every body and the accumulated impulses of every contact have to be bit identical. Prints the first difference and exits with 1.
+ *
+ * Needs the jdk.incubator.vector module at runtime like the VectorContactSolver: java --add-modules jdk.incubator.vector tools.test.VectorContactSolverEquivalence [steps]. The solver is only used through ContactSolver and setScalarLanes is looked up by name (like in ContactSolver.createVectorized), so this class compiles without the module. The Vector API is compiled by C2 only after a few hundred steps, so the default of 600 steps checks the interpreted and the compiled code.
+ *
+ * @author toni
+ *
+ */
+public class VectorContactSolverEquivalence {
+	public static void main(String[] args) throws ReflectiveOperationException {
+		int steps = (args.length > 0) ? Integer.parseInt(args[0]) : 600;
+		World lanes = scene(), vectors = scene();
+		if (!vectors.getContactSolver().isVectorized()) {
+			fail("the vector solver is not available");
+		}
+		setScalarLanes(lanes.getContactSolver(), true);
+		long contacts = 0;
+		for (int step = 0; step < steps; step++) {
+			lanes.handle();
+			vectors.handle();
+			for (int i = 0; i < lanes.numBodies; i++) {
+				Body b1 = lanes.getBody(i), b2 = vectors.getBody(i);
+				if (differs(b1.pos.x, b2.pos.x) || differs(b1.pos.y, b2.pos.y) || differs(b1.apos, b2.apos) || differs(b1.vel.x, b2.vel.x) || differs(b1.vel.y, b2.vel.y) || differs(b1.avel, b2.avel)) {
+					fail("step " + step + ", body " + i + ": pos " + b1.pos + " / " + b2.pos + ", apos " + b1.apos + " / " + b2.apos + ", vel " + b1.vel + " / " + b2.vel + ", avel " + b1.avel + " / " + b2.avel);
+				}
+			}
+			Vector<Arbiter> a1 = lanes.getArbiters(), a2 = vectors.getArbiters();
+			if (a1.size() != a2.size()) {
+				fail("step " + step + ": " + a1.size() + " / " + a2.size() + " arbiters");
+			}
+			for (int i = 0; i < a1.size(); i++) {
+				for (int k = 0; k < a1.get(i).num; k++) {
+					Contact c1 = a1.get(i).contacts[k], c2 = a2.get(i).contacts[k];
+					if (differs(c1.accPn, c2.accPn) || differs(c1.accPnb, c2.accPnb) || differs(c1.accPt, c2.accPt)) {
+						fail("step " + step + ", arbiter " + i + ", contact " + k + ": accPn " + c1.accPn + " / " + c2.accPn + ", accPnb " + c1.accPnb + " / " + c2.accPnb + ", accPt " + c1.accPt + " / " + c2.accPt);
+					}
+					contacts++;
+				}
+			}
+		}
+		System.out.println("VectorContactSolverEquivalence : " + steps + " steps, " + contacts + " contacts compared, no difference");
+	}
+	/**
+	 * Calls VectorContactSolver.setScalarLanes, which is looked up by name so that this class compiles without the module.
+	 */
+	static void setScalarLanes(ContactSolver solver, boolean scalar) throws ReflectiveOperationException {
+		solver.getClass().getMethod("setScalarLanes", boolean.class).invoke(solver, scalar);
+	}
+	/**
+	 * Boxes, circles, concave polygons (compounds) and piles held by joints on a static ground, solved by the vector solver.
+	 */
+	private static World scene() {
+		World w = new World(0);
+		w.setPackedContacts(true, true);
+		w.addBody(Initializer.getRectangle(new Point(-60, -2), 200, 2, 0));
+		for (int i = 0; i < 600; i++) {
+			float x = (i % 30) * 1.1f - 50, y = (i / 30) * 1.1f + 1;
+			w.addBody((i % 2 == 0) ? Initializer.getRectangle(new Point(x, y), 1, 1, 1) : Initializer.getCircle(new Point(x + 0.5f, y + 0.5f), 0.5f, 1));
+		}
+		Point[] l = {new Point(0, 0), new Point(2, 0), new Point(2, 0.6f), new Point(0.6f, 0.6f), new Point(0.6f, 2), new Point(0, 2)};
+		for (int i = 0; i < 40; i++) {
+			w.addBody(Initializer.getPolygon(new Point((i % 10) * 3 - 10, (i / 10) * 3 + 1), l, 1));
+		}
+		for (int p = 0; p < 20; p++) {
+			for (int k = 0; k < 10; k++) {
+				float x = p * 4 + 25 + (k % 2) * 0.3f, y = k * 1.05f;
+				w.addBody((k % 3 == 2) ? Initializer.getCircle(new Point(x + 0.5f, y + 0.5f), 0.5f, 1) : Initializer.getRectangle(new Point(x, y), 1, 1, 1));
+			}
+			int b = w.numBodies - 10;
+			w.addJoint(Initializer.dJoint(w.getBody(b), w.getBody(b + 1)));
+			if (p % 5 == 0) {
+				w.addJoint(new JBackgroundDistanceJoint(w.getBody(b + 9), w.getBody(b + 9).pos, w.getBody(b + 9).pos.add(new Point(0, 2))));
+			}
+		}
+		return w;
+	}
+	private static boolean differs(float a, float b) {
+		return Float.floatToIntBits(a) != Float.floatToIntBits(b);
+	}
+	private static void fail(String message) {
+		System.out.println("VectorContactSolverEquivalence : " + message);
+		System.exit(1);
+	}
+}